@@ -0,0 +1,399 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import lombok.extern.log4j.Log4j;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
+
+/** A cache of parsed inputs, for running different mappings over the same large input again and again.
+ * <p>
+ * The first time that an input is parsed, its tree is written into a snapshot file of the cache
+ * directory, in a compact binary form. The name of the snapshot is the SHA-256 hash of the contents
+ * of the input files, so any change of the input gives a new snapshot. The next times, the tree is
+ * built straight from the snapshot, which is read through memory-mapped I/O, without parsing the XML.
+ * <p>
+ * A snapshot is a sequence of nodes in document order. Every element starts with its name and
+ * attributes, and ends with an END marker; text, CDATA sections, comments and processing instructions
+ * are stored with their contents. The names of the elements and the attributes are stored once, and
+ * then they are referenced by their number.
+ */
+@Log4j
+public class InputSnapshotCache {
+    private static final byte[] MAGIC = "X3MLSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final byte ELEMENT = 1;
+    private static final byte END = 2;
+    private static final byte TEXT = 3;
+    private static final byte CDATA = 4;
+    private static final byte COMMENT = 5;
+    private static final byte INSTRUCTION = 6;
+    private static final int WINDOW = 1 << 28;
+    private final File directory;
+    private int hits;
+    private int misses;
+
+    /** Creates a cache that keeps its snapshots in the given directory (it is created if it does not exist).
+     *
+     * @param directory the directory of the snapshots */
+    public InputSnapshotCache(File directory){
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw exception("Cannot create the directory of the input snapshots "+directory.getAbsolutePath());
+        }
+        this.directory=directory;
+    }
+
+    /** Returns the tree of the given input files, from their snapshot if it exists. Otherwise the files
+     * are parsed, and the snapshot of their tree is written for the next times. More than one files are
+     * concatenated as in Utils.parseMultipleXMLFiles.
+     *
+     * @param inputs the input files
+     * @param namespaceAware true if the tree should be namespace-aware (only for a single input file)
+     * @return the root element of the tree of the input files */
+    public Element parse(List<LazyFileInputStream> inputs, boolean namespaceAware){
+        if(namespaceAware && inputs.size()>1){
+            throw exception("Only a single input file can be parsed into a namespace-aware snapshot");
+        }
+        File snapshot=new File(this.directory, key(inputs, namespaceAware)+".x3mls");
+        if(snapshot.isFile()){
+            log.debug("Loading the input from the snapshot "+snapshot);
+            this.hits++;
+            return read(snapshot);
+        }
+        this.misses++;
+        Element root;
+        if(namespaceAware){
+            try{
+                DocumentBuilderFactory factory=DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                root=factory.newDocumentBuilder().parse(inputs.get(0)).getDocumentElement();
+                inputs.get(0).close();
+            }catch(ParserConfigurationException | SAXException | IOException ex){
+                throw exception("Unable to parse XML input "+inputs.get(0), ex);
+            }
+        }else{
+            root=Utils.parseMultipleXMLFiles(new ArrayList<InputStream>(inputs));
+        }
+        log.debug("Writing the snapshot of the input "+snapshot);
+        write(root, snapshot);
+        return root;
+    }
+
+    /** Returns the number of inputs that have been loaded from their snapshots.
+     *
+     * @return the number of the loaded snapshots */
+    public int getHits(){
+        return this.hits;
+    }
+
+    /** Returns the number of inputs that have been parsed, because they did not have a snapshot.
+     *
+     * @return the number of the written snapshots */
+    public int getMisses(){
+        return this.misses;
+    }
+
+    /** Writes the tree of the given element into the given snapshot file. The snapshot is
+     * written into a temporary file first, so an incomplete snapshot is never used.
+     *
+     * @param root the root element of the tree
+     * @param snapshot the snapshot file */
+    public static void write(Element root, File snapshot){
+        File temporaryFile=null;
+        try{
+            temporaryFile=File.createTempFile("snapshot-", ".tmp", snapshot.getAbsoluteFile().getParentFile());
+            try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 16))){
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeBoolean(root.getLocalName()!=null);
+                writeNode(out, root, new HashMap<String, Integer>());
+            }
+            try{
+                Files.move(temporaryFile.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }catch(AtomicMoveNotSupportedException ex){
+                Files.move(temporaryFile.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }catch(IOException ex){
+            if(temporaryFile!=null){
+                temporaryFile.delete();
+            }
+            throw exception("Unable to write the input snapshot "+snapshot, ex);
+        }
+    }
+
+    /** Builds the tree of the given snapshot file.
+     *
+     * @param snapshot the snapshot file
+     * @return the root element of the tree */
+    public static Element read(File snapshot){
+        try(RandomAccessFile file=new RandomAccessFile(snapshot, "r")){
+            SnapshotReader in=new SnapshotReader(file.getChannel());
+            if(!Arrays.equals(MAGIC, in.readBytes(MAGIC.length)) || in.readInt()!=VERSION){
+                throw exception("The file "+snapshot+" is not an input snapshot of this version");
+            }
+            boolean namespaceAware=in.readByte()!=0;
+            DocumentBuilderFactory factory=DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(namespaceAware);
+            Document document=factory.newDocumentBuilder().newDocument();
+            List<String[]> names=new ArrayList<>();
+            Node parent=document;
+            while(in.hasRemaining()){
+                byte kind=in.readByte();
+                switch(kind){
+                    case ELEMENT:
+                        String[] name=readName(in, names);
+                        Element element=namespaceAware?document.createElementNS(name[1], name[0]):document.createElement(name[0]);
+                        for(int attributes=in.readInt(); attributes>0; attributes--){
+                            String[] attribute=readName(in, names);
+                            if(namespaceAware){
+                                element.setAttributeNS(attribute[1], attribute[0], in.readString());
+                            }else{
+                                element.setAttribute(attribute[0], in.readString());
+                            }
+                        }
+                        parent=parent.appendChild(element);
+                        break;
+                    case END:
+                        parent=parent.getParentNode();
+                        break;
+                    case TEXT:
+                        parent.appendChild(document.createTextNode(in.readString()));
+                        break;
+                    case CDATA:
+                        parent.appendChild(document.createCDATASection(in.readString()));
+                        break;
+                    case COMMENT:
+                        parent.appendChild(document.createComment(in.readString()));
+                        break;
+                    case INSTRUCTION:
+                        parent.appendChild(document.createProcessingInstruction(in.readString(), in.readString()));
+                        break;
+                    default:
+                        throw exception("The input snapshot "+snapshot+" is corrupted");
+                }
+            }
+            return document.getDocumentElement();
+        }catch(IOException | ParserConfigurationException ex){
+            throw exception("Unable to read the input snapshot "+snapshot, ex);
+        }
+    }
+
+    /* the hash of the contents of the files (and the names of their zip entries); every file is read 
+     * once, even if many of the inputs are entries of the same zip file */
+    private static String key(List<LazyFileInputStream> inputs, boolean namespaceAware){
+        try{
+            MessageDigest digest=MessageDigest.getInstance("SHA-256");
+            digest.update((byte)VERSION);
+            digest.update((byte)(namespaceAware?1:0));
+            byte[] buffer=new byte[1 << 16];
+            Map<File, byte[]> fileHashes=new HashMap<>();
+            for(LazyFileInputStream input : inputs){
+                byte[] fileHash=fileHashes.get(input.getFile());
+                if(fileHash==null){
+                    fileHash=hash(input.getFile(), buffer);
+                    fileHashes.put(input.getFile(), fileHash);
+                }
+                digest.update(fileHash);
+                if(input.getEntry()!=null){
+                    digest.update(input.getEntry().getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte)0);
+            }
+            StringBuilder key=new StringBuilder();
+            for(byte value : digest.digest()){
+                key.append(String.format("%02x", value));
+            }
+            return key.toString();
+        }catch(NoSuchAlgorithmException | IOException ex){
+            throw exception("Unable to compute the hash of the input files", ex);
+        }
+    }
+
+    private static byte[] hash(File file, byte[] buffer) throws NoSuchAlgorithmException, IOException {
+        MessageDigest digest=MessageDigest.getInstance("SHA-256");
+        try(InputStream in=new FileInputStream(file)){
+            for(int count=in.read(buffer); count>=0; count=in.read(buffer)){
+                digest.update(buffer, 0, count);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void writeNode(DataOutputStream out, Node node, Map<String, Integer> names) throws IOException {
+        switch(node.getNodeType()){
+            case Node.ELEMENT_NODE:
+                out.writeByte(ELEMENT);
+                writeName(out, node, names);
+                NamedNodeMap attributes=node.getAttributes();
+                out.writeInt(attributes.getLength());
+                for(int i=0;i<attributes.getLength();i++){
+                    Attr attribute=(Attr)attributes.item(i);
+                    writeName(out, attribute, names);
+                    writeString(out, attribute.getValue());
+                }
+                for(Node child=node.getFirstChild(); child!=null; child=child.getNextSibling()){
+                    writeNode(out, child, names);
+                }
+                out.writeByte(END);
+                break;
+            case Node.TEXT_NODE:
+                out.writeByte(TEXT);
+                writeString(out, node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                out.writeByte(CDATA);
+                writeString(out, node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                out.writeByte(COMMENT);
+                writeString(out, node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                out.writeByte(INSTRUCTION);
+                writeString(out, node.getNodeName());
+                writeString(out, node.getNodeValue());
+                break;
+            default:    //the entity references have already been expanded by the parser
+                for(Node child=node.getFirstChild(); child!=null; child=child.getNextSibling()){
+                    writeNode(out, child, names);
+                }
+        }
+    }
+
+    /* a name is written once (with its namespace), and then it is referenced by its number */
+    private static void writeName(DataOutputStream out, Node node, Map<String, Integer> names) throws IOException {
+        String namespace=(node.getNamespaceURI()==null)?"":node.getNamespaceURI();
+        String key=node.getNodeName()+" "+namespace;
+        Integer number=names.get(key);
+        if(number!=null){
+            out.writeInt(number);
+            return;
+        }
+        out.writeInt(names.size());
+        names.put(key, names.size());
+        writeString(out, node.getNodeName());
+        writeString(out, namespace);
+    }
+
+    private static String[] readName(SnapshotReader in, List<String[]> names) throws IOException {
+        int number=in.readInt();
+        if(number<names.size()){
+            return names.get(number);
+        }
+        String name=in.readString();
+        String namespace=in.readString();
+        String[] qualifiedName={name, namespace.isEmpty()?null:namespace};
+        names.add(qualifiedName);
+        return qualifiedName;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes=value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /* reads a snapshot through memory-mapped windows, so snapshots larger than 2GB can be read as well */
+    private static class SnapshotReader {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        SnapshotReader(FileChannel channel) throws IOException {
+            this.channel=channel;
+            this.size=channel.size();
+            this.map(0);
+        }
+
+        boolean hasRemaining(){
+            return this.windowStart+this.window.position()<this.size;
+        }
+
+        byte readByte() throws IOException {
+            this.ensure(1);
+            return this.window.get();
+        }
+
+        int readInt() throws IOException {
+            this.ensure(4);
+            return this.window.getInt();
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes=new byte[length];
+            int read=0;
+            while(read<length){
+                this.ensure(1);
+                int count=Math.min(length-read, this.window.remaining());
+                this.window.get(bytes, read, count);
+                read+=count;
+            }
+            return bytes;
+        }
+
+        String readString() throws IOException {
+            return new String(this.readBytes(this.readInt()), StandardCharsets.UTF_8);
+        }
+
+        /* maps the next window, if the current one has less than the given number of bytes */
+        private void ensure(int bytes) throws IOException {
+            if(this.window.remaining()<bytes){
+                long position=this.windowStart+this.window.position();
+                if(position+bytes>this.size){
+                    throw exception("The input snapshot is incomplete");
+                }
+                this.map(position);
+            }
+        }
+
+        private void map(long position) throws IOException {
+            this.windowStart=position;
+            this.window=this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, this.size-position));
+        }
+    }
+}
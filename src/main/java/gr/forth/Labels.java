@@ -86,6 +86,12 @@ public class Labels {
     public static final String UUID_TEST_SIZE="uuidTestSize";
     public static final String MERGE_WITH_ASSOCIATION_TABLE="mergeAssocWithRDF";
     public static final String TERMS="terms";
+    public static final String RECORD_ELEMENT="recordElement";
+    public static final String PARSING_THREADS="parsingThreads";
+    public static final String SNAPSHOTS="snapshots";
+    public static final String BATCH="batch";
+    public static final String BATCH_THREADS="batchThreads";
+    public static final String TINY_TREE="tinyTree";
     public static final String ASSOC_TABLE_SHORT="a";
     public static final String INPUT_SHORT="i";
     public static final String X3ML_SHORT="x";
@@ -96,6 +102,12 @@ public class Labels {
     public static final String UUID_TEST_SIZE_SHORT="u";
     public static final String MERGE_WITH_ASSOCIATION_TABLE_SHORT="m";
     public static final String TERMS_SHORT="t";    
+    public static final String RECORD_ELEMENT_SHORT="e";
+    public static final String PARSING_THREADS_SHORT="j";
+    public static final String SNAPSHOTS_SHORT="s";
+    public static final String BATCH_SHORT="b";
+    public static final String BATCH_THREADS_SHORT="w";
+    public static final String TINY_TREE_SHORT="tt";
     
     /* Labels related to the output */
     public static final String OUTPUT_FORMAT_NTRIPLE="N-TRIPLE";
@@ -0,0 +1,260 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
+
+/** An input stream over a file, that opens the file when it is read for the first time
+ * and closes it as soon as it has been read completely. Large numbers of input files can
+ * be given as streams this way, without holding a file descriptor for each one of them
+ * until the end of the execution.
+ * <p>
+ * Compressed files are decompressed while they are read: files with the .gz extension are
+ * read with gzip, and the XML entries of zip files are read as separate streams
+ * (see {@link #of(java.io.File)}). The streams of the entries of a zip file share a single
+ * ZipFile, which is opened when the first of them is read and closed when all of them have
+ * been read (or closed).
+ */
+public class LazyFileInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final File file;
+    private final String entry;
+    private final Archive archive;
+    private InputStream stream;
+    private boolean closed;
+
+    /** Creates a stream over the given file, without opening it.
+     *
+     * @param file the file (an exception is thrown if it does not exist) */
+    public LazyFileInputStream(File file){
+        this(file, null);
+    }
+
+    /** Creates a stream over the given entry of a zip file, without opening it.
+     *
+     * @param file the zip file (an exception is thrown if it does not exist)
+     * @param entry the name of the entry of the zip file */
+    public LazyFileInputStream(File file, String entry){
+        this(file, entry, (entry==null)?null:new Archive(file, 1));
+    }
+
+    private LazyFileInputStream(File file, String entry, Archive archive){
+        if(!file.isFile()){
+            throw exception("Cannot find input file "+file.getAbsolutePath());
+        }
+        this.file=file;
+        this.entry=entry;
+        this.archive=archive;
+    }
+
+    /** Creates the streams of the XML documents of the given file. A zip file gives a stream
+     * for each one of its XML entries (in the order of their names), while any other file gives
+     * a single stream.
+     *
+     * @param file the file
+     * @return the streams of the XML documents of the file */
+    public static List<LazyFileInputStream> of(File file){
+        List<LazyFileInputStream> streams=new ArrayList<>();
+        if(!isZip(file)){
+            streams.add(new LazyFileInputStream(file));
+            return streams;
+        }
+        List<String> entries=new ArrayList<>();
+        try(ZipFile zip=new ZipFile(file)){
+            for(Enumeration<? extends ZipEntry> it=zip.entries(); it.hasMoreElements();){
+                ZipEntry zipEntry=it.nextElement();
+                if(!zipEntry.isDirectory() && isXML(zipEntry.getName())){
+                    entries.add(zipEntry.getName());
+                }
+            }
+        }catch(IOException ex){
+            throw exception("Cannot read the zip file "+file.getAbsolutePath(), ex);
+        }
+        Collections.sort(entries);
+        Archive archive=new Archive(file, entries.size());
+        for(String entryName : entries){
+            streams.add(new LazyFileInputStream(file, entryName, archive));
+        }
+        return streams;
+    }
+
+    /** Checks whether the given name is the name of an XML document, which can be compressed
+     * with gzip (e.g. input.xml or input.xml.gz).
+     *
+     * @param name the name of a file
+     * @return true if the name ends with xml (before the .gz extension, if it exists) */
+    public static boolean isXML(String name){
+        String lowerCaseName=name.toLowerCase();
+        return lowerCaseName.endsWith("xml") || lowerCaseName.endsWith("xml.gz");
+    }
+
+    /** Checks whether the given file is a zip file (based on its extension).
+     *
+     * @param file the file
+     * @return true if the name of the file has the .zip extension */
+    public static boolean isZip(File file){
+        return file.getName().toLowerCase().endsWith(".zip");
+    }
+
+    /** Returns the file of the stream.
+     *
+     * @return the file of the stream */
+    public File getFile(){
+        return this.file;
+    }
+
+    /** Returns the name of the zip entry of the stream.
+     *
+     * @return the name of the zip entry, or null if the stream is not over a zip entry */
+    public String getEntry(){
+        return this.entry;
+    }
+
+    /** Checks whether the file is currently open.
+     *
+     * @return true if the file has been opened and it has not been closed yet */
+    public boolean isOpen(){
+        return this.stream!=null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!this.open()){
+            return -1;
+        }
+        int value=this.stream.read();
+        if(value<0){
+            this.close();
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if(!this.open()){
+            return -1;
+        }
+        int count=this.stream.read(bytes, offset, length);
+        if(count<0){
+            this.close();
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        return this.open()?this.stream.skip(count):0;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.open()?this.stream.available():0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(this.closed){
+            return;
+        }
+        this.closed=true;
+        try{
+            if(this.stream!=null){
+                this.stream.close();
+                this.stream=null;
+            }
+        }finally{
+            if(this.archive!=null){
+                this.archive.release();
+            }
+        }
+    }
+
+    @Override
+    public String toString(){
+        return (this.entry==null)?this.file.getPath():this.file.getPath()+"!"+this.entry;
+    }
+
+    /* opens the file, unless it has already been read (or closed) */
+    private boolean open() throws IOException {
+        if(this.closed){
+            return false;
+        }
+        if(this.stream==null){
+            if(this.entry!=null){
+                InputStream entryStream;
+                try{
+                    entryStream=this.archive.open(this.entry);
+                }catch(IOException | RuntimeException ex){
+                    this.close();
+                    throw ex;
+                }
+                this.stream=new BufferedInputStream(entryStream, BUFFER_SIZE);
+            }else if(this.file.getName().toLowerCase().endsWith(".gz")){
+                this.stream=new GZIPInputStream(new FileInputStream(this.file), BUFFER_SIZE);
+            }else{
+                this.stream=new FileInputStream(this.file);
+            }
+        }
+        return true;
+    }
+
+    /* The zip file of the streams of its entries. It is opened once for all of them, 
+     * and it is closed when all of them have been released. */
+    private static final class Archive {
+        private final File file;
+        private int streams;
+        private ZipFile zipFile;
+
+        private Archive(File file, int streams){
+            this.file=file;
+            this.streams=streams;
+        }
+
+        private synchronized InputStream open(String entry) throws IOException {
+            if(this.zipFile==null){
+                this.zipFile=new ZipFile(this.file);
+            }
+            ZipEntry zipEntry=this.zipFile.getEntry(entry);
+            if(zipEntry==null){
+                throw exception("Cannot find the entry "+entry+" of the zip file "+this.file.getAbsolutePath());
+            }
+            return this.zipFile.getInputStream(zipEntry);
+        }
+
+        private synchronized void release() throws IOException {
+            this.streams--;
+            if(this.streams<=0 && this.zipFile!=null){
+                this.zipFile.close();
+                this.zipFile=null;
+            }
+        }
+    }
+}
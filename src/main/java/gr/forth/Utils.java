@@ -21,6 +21,7 @@ package gr.forth;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import gr.forth.ics.isl.x3ml.X3MLEngine;
+import gr.forth.ics.isl.x3ml.engine.ExecutionContext;
 import gr.forth.ics.isl.x3ml.engine.X3ML;
 import gr.forth.ics.isl.x3ml.engine.X3ML.Mapping;
 import gr.forth.ics.isl.x3ml.engine.X3ML.RootElement;
@@ -30,12 +31,23 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
@@ -45,6 +57,21 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.expr.parser.ExplicitLocation;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.CopyOptions;
+import net.sf.saxon.om.NameOfNode;
+import net.sf.saxon.om.NamespaceBinding;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.tiny.TinyBuilder;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.Untyped;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -74,6 +101,7 @@ public class Utils {
      * @return a string representation of the error message.
      */
     public static String produceLabelGeneratorMissingArgumentError(X3ML.GeneratorElement generator, String expectedValue){
+        ExecutionContext execution=ExecutionContext.current();
         return new StringBuilder().append("LabelGenerator Error: ")
                                   .append("The attribute ")
                                   .append("\"")
@@ -81,9 +109,9 @@ public class Utils {
                                   .append("\"")
                                   .append(" is missing from the generator. ")
                                   .append("[Mapping #: ")
-                                  .append(X3ML.RootElement.mappingCounter)
+                                  .append(execution==null?0:execution.getMappingCounter())
                                   .append(", Link #: ")
-                                  .append(X3ML.RootElement.linkCounter)
+                                  .append(execution==null?0:execution.getLinkCounter())
                                   .append("]. ")
                                   .append(generator).toString();
     }
@@ -98,6 +126,7 @@ public class Utils {
      * @return a string representation of the error message.
      */
     public static String produceLabelGeneratorEmptyArgumentError(X3ML.GeneratorElement generator){
+        ExecutionContext execution=ExecutionContext.current();
         return new StringBuilder().append("LabelGenerator Error: ") 
                                   .append("The label generator with name ")
                                   .append("\"")
@@ -105,9 +134,9 @@ public class Utils {
                                   .append("\"")
                                   .append(" does not contain any value. ")
                                   .append("[Mapping #: ")
-                                  .append(X3ML.RootElement.mappingCounter)
+                                  .append(execution==null?0:execution.getMappingCounter())
                                   .append(", Link #: ")
-                                  .append(X3ML.RootElement.linkCounter)
+                                  .append(execution==null?0:execution.getLinkCounter())
                                   .append("]. ")
                                   .append(generator).toString();
     }
@@ -126,7 +155,7 @@ public class Utils {
     /** It reads the contents of the given folder, it concatenates the contents of the XML documents 
      * that exist in the folder and it produces the XML tree (using DOM structures) and returns the root element.
      * The method searches for files either in the given folder only or contents that might exist in sub-folders as well.
-     * Furthermore it takes into account only files with extension .xml.
+     * Furthermore it takes into account only files with extension .xml (or .xml.gz), and the XML entries of .zip files.
      * 
      * @param folderPath the path of the corresponding folder containing XML input data
      * @param recursiveSearch if true it will search in the closure of the folder for XML files, 
@@ -135,16 +164,17 @@ public class Utils {
      * @throws Exception if the given path does not respond to a folder
      */
     public static Element parseFolderWithXmlFiles(String folderPath, boolean recursiveSearch) throws Exception{
-        Collection<InputStream> xmlInputFilesCollection=new HashSet<>();
+        Collection<InputStream> xmlInputFilesCollection=new ArrayList<>();
         for(File file : Utils.retrieveXMLfiles(new File(folderPath), recursiveSearch)){
-            xmlInputFilesCollection.add(new FileInputStream(file));
+            xmlInputFilesCollection.addAll(LazyFileInputStream.of(file));
         }
         return Utils.parseMultipleXMLFiles(xmlInputFilesCollection);
     }
     
     /** Returns the XML files that exist under the given folder. If the recursiveSearch parameter 
      * is enabled the instead of listing the direct contents of the given directory, all the 
-     * XML files that are descendants of this directory will be returned.
+     * XML files that are descendants of this directory will be returned. Files that are compressed 
+     * with gzip (.xml.gz) and zip files (.zip) are also returned. 
      * 
      * @param folder the folder that contains XML input data
      * @param recursiveSearch if true it will search in the closure of the folder for XML files, 
@@ -154,31 +184,18 @@ public class Utils {
         if(!folder.isDirectory()){
             throw exception("The given path (\""+folder.getAbsolutePath()+"\") does not correspond to a directory");
         }
-        Collection<File> retCol=new HashSet<>();
-        List<File> foldersLeftToCheck=new ArrayList<>();
-        for(File file : folder.listFiles()){
-            if(file.isFile() && file.getName().toLowerCase().endsWith("xml")){
-                retCol.add(file);
-            }else if(file.isDirectory()){
-                foldersLeftToCheck.add(file);
-            }else{
-                log.debug("Skipping file \""+file.getPath()+"\" - It might not be an XML file");
-            }
-        }
-        if(recursiveSearch){
-            while(!foldersLeftToCheck.isEmpty()){
-                File subFolder=foldersLeftToCheck.remove(0);
-                File[] subFolderContents=subFolder.listFiles();
-                for(File f : subFolderContents){
-                    if(f.isFile() && f.getName().toLowerCase().endsWith("xml")){
-                        retCol.add(f);
-                    }else if(f.isDirectory()){
-                        foldersLeftToCheck.add(f);
-                    }else{
-                        log.debug("Skipping file \""+f.getPath()+"\" - It might not be an XML file");
-                    }
+        Collection<File> retCol=new TreeSet<>();
+        try(Stream<Path> paths=Files.walk(folder.toPath(), recursiveSearch?Integer.MAX_VALUE:1)){
+            for(Iterator<Path> it=paths.iterator(); it.hasNext();){
+                Path path=it.next();
+                if(Files.isRegularFile(path) && (LazyFileInputStream.isXML(path.getFileName().toString()) || LazyFileInputStream.isZip(path.toFile()))){
+                    retCol.add(path.toFile());
+                }else if(!Files.isDirectory(path)){
+                    log.debug("Skipping file \""+path+"\" - It might not be an XML file");
                 }
             }
+        }catch(IOException | UncheckedIOException ex){
+            throw exception("Cannot list the contents of the directory \""+folder.getAbsolutePath()+"\"", ex);
         }
         return retCol;
     }
@@ -186,29 +203,46 @@ public class Utils {
     /** The method takes as input a set of XML input files and produces an XML tree (using DOM structures)
      * that corresponds to the concatenation of the contents of the given XML input files. 
      * If the root element of the given XML inputs is not the same then an exception is thrown.
+     * The files are parsed in parallel into separate documents, and the contents of their root elements 
+     * are then moved (not copied) under the root element of the first one.
      * 
      * @param xmlFileInputStreams a collection of XML input files as InputStreams
      * @return the root element of the XML tree that is being created from the concatenation of the given XML InputStreams
      */
     public static Element parseMultipleXMLFiles(Collection<InputStream> xmlFileInputStreams){
-        try{
-            Document masterDoc=DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-            for(InputStream is : xmlFileInputStreams){
-                if(masterDoc.getDocumentElement()==null){   //only for the first file
-                    masterDoc=DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
-                }else{
-                    Document singleDoc=DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
-                    Element rootElement=singleDoc.getDocumentElement();
-                    if(!rootElement.getNodeName().equals(masterDoc.getDocumentElement().getNodeName())){
-                        throw exception("The given XML input files have different root nodes: ["
-                                       +rootElement.getNodeName()+" , "+masterDoc.getDocumentElement().getNodeName()
-                                       +"]");
+        List<Callable<Document>> parsers=new ArrayList<>();
+        for(final InputStream is : xmlFileInputStreams){
+            parsers.add(new Callable<Document>(){
+                @Override
+                public Document call() throws Exception {
+                    try{
+                        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+                    }finally{
+                        is.close();
                     }
-                    NodeList children=rootElement.getChildNodes();
-                    for(int i=0;i<children.getLength();i++){
-                        Node childClone=masterDoc.importNode(children.item(i), true);
-                        masterDoc.getDocumentElement().appendChild(childClone);
+                }
+            });
+        }
+        try{
+            List<Document> documents=invokeAll(parsers);
+            if(documents.isEmpty()){
+                return null;
+            }
+            Document masterDoc=documents.get(0);
+            for(Document singleDoc : documents.subList(1, documents.size())){
+                Element rootElement=singleDoc.getDocumentElement();
+                if(!rootElement.getNodeName().equals(masterDoc.getDocumentElement().getNodeName())){
+                    throw exception("The given XML input files have different root nodes: ["
+                                   +rootElement.getNodeName()+" , "+masterDoc.getDocumentElement().getNodeName()
+                                   +"]");
+                }
+                for(Node child=rootElement.getFirstChild(); child!=null; child=rootElement.getFirstChild()){
+                    Node adoptedChild=masterDoc.adoptNode(child);
+                    if(adoptedChild==null){     //the DOM implementation cannot move the node, so it is copied
+                        adoptedChild=masterDoc.importNode(child, true);
+                        rootElement.removeChild(child);
                     }
+                    masterDoc.getDocumentElement().appendChild(adoptedChild);
                 }
             }
             return masterDoc.getDocumentElement();
@@ -217,6 +251,159 @@ public class Utils {
         }
     }
     
+    /* runs the given parsers with as many threads as the available processors, 
+    and returns their results in the order of the parsers */
+    private static <T> List<T> invokeAll(List<Callable<T>> parsers) throws IOException, SAXException, ParserConfigurationException{
+        List<T> results=new ArrayList<>();
+        if(parsers.size()<=1){      //no need for other threads
+            for(Callable<T> parser : parsers){
+                try{
+                    results.add(parser.call());
+                }catch(IOException | SAXException | ParserConfigurationException | RuntimeException ex){
+                    throw ex;
+                }catch(Exception ex){
+                    throw exception("An error occured while parsing the XML documents", ex);
+                }
+            }
+            return results;
+        }
+        ExecutorService executor=Executors.newFixedThreadPool(Math.min(parsers.size(), Runtime.getRuntime().availableProcessors()));
+        try{
+            for(Future<T> future : executor.invokeAll(parsers)){
+                results.add(future.get());
+            }
+            return results;
+        }catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw exception("Interrupted while parsing the XML documents", ex);
+        }catch(ExecutionException ex){
+            Throwable cause=ex.getCause();
+            if(cause instanceof IOException){
+                throw (IOException)cause;
+            }else if(cause instanceof SAXException){
+                throw (SAXException)cause;
+            }else if(cause instanceof ParserConfigurationException){
+                throw (ParserConfigurationException)cause;
+            }else if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }
+            throw exception("An error occured while parsing the XML documents", cause);
+        }finally{
+            executor.shutdown();
+        }
+    }
+    
+    /** The method takes as input a set of XML input files and parses them straight into Saxon's 
+     * TinyTree, without creating any DOM structures. If more than one inputs are given, the contents of their 
+     * root elements are concatenated under the root element of the first one (as it happens with 
+     * {@link #parseMultipleXMLFiles(java.util.Collection)}). If the root element of the given XML inputs 
+     * is not the same then an exception is thrown.
+     * The returned element is a read-only DOM view over the TinyTree, that can be given directly 
+     * to the X3MLEngine. 
+     * 
+     * @param xmlFileInputStreams a collection of XML input files as InputStreams
+     * @return the root element of the TinyTree that is being created from the given XML InputStreams
+     */
+    public static Element parseMultipleXMLFilesAsTinyTree(Collection<InputStream> xmlFileInputStreams){
+        return parseMultipleXMLFilesAsTinyTree(xmlFileInputStreams, new Configuration());
+    }
+    
+    /** Parses the given XML inputs into Saxon's TinyTree using the given Saxon configuration. 
+     * Inputs that are parsed with the configuration of the engine (see X3MLEngine.getSaxonConfiguration()) 
+     * share its name pool with the compiled XPath expressions of the mappings. 
+     * 
+     * @param xmlFileInputStreams a collection of XML input files as InputStreams
+     * @param configuration the Saxon configuration that will be used for building the tree
+     * @return the root element of the TinyTree that is being created from the given XML InputStreams
+     */
+    public static Element parseMultipleXMLFilesAsTinyTree(Collection<InputStream> xmlFileInputStreams, final Configuration configuration){
+        try{
+            List<Callable<NodeInfo>> parsers=new ArrayList<>();
+            for(final InputStream is : xmlFileInputStreams){
+                parsers.add(new Callable<NodeInfo>(){
+                    @Override
+                    public NodeInfo call() throws XPathException, IOException {
+                        try{
+                            return documentElement(configuration.buildDocumentTree(new StreamSource(is)).getRootNode());
+                        }finally{
+                            is.close();
+                        }
+                    }
+                });
+            }
+            List<NodeInfo> rootElements=new ArrayList<>();
+            for(NodeInfo rootElement : invokeAll(parsers)){
+                if(!rootElements.isEmpty() && !rootElement.getDisplayName().equals(rootElements.get(0).getDisplayName())){
+                    throw exception("The given XML input files have different root nodes: ["
+                                   +rootElement.getDisplayName()+" , "+rootElements.get(0).getDisplayName()
+                                   +"]");
+                }
+                rootElements.add(rootElement);
+            }
+            if(rootElements.isEmpty()){
+                throw exception("The XML input file list is empty");
+            }
+            if(rootElements.size()==1){
+                return (Element)NodeOverNodeInfo.wrap(rootElements.get(0));
+            }
+            NodeInfo firstRoot=rootElements.get(0);
+            TinyBuilder builder=new TinyBuilder(configuration.makePipelineConfiguration());
+            builder.open();
+            builder.startDocument(0);
+            builder.startElement(NameOfNode.makeName(firstRoot), Untyped.getInstance(), ExplicitLocation.UNKNOWN_LOCATION, 0);
+            for(NamespaceBinding namespace : firstRoot.getDeclaredNamespaces(null)){
+                if(namespace!=null){
+                    builder.namespace(namespace, 0);
+                }
+            }
+            AxisIterator attributes=firstRoot.iterateAxis(AxisInfo.ATTRIBUTE);
+            for(NodeInfo attribute=attributes.next(); attribute!=null; attribute=attributes.next()){
+                builder.attribute(NameOfNode.makeName(attribute), BuiltInAtomicType.UNTYPED_ATOMIC, attribute.getStringValueCS(), ExplicitLocation.UNKNOWN_LOCATION, 0);
+            }
+            builder.startContent();
+            for(NodeInfo rootElement : rootElements){
+                AxisIterator children=rootElement.iterateAxis(AxisInfo.CHILD);
+                for(NodeInfo child=children.next(); child!=null; child=children.next()){
+                    child.copy(builder, CopyOptions.ALL_NAMESPACES, ExplicitLocation.UNKNOWN_LOCATION);
+                }
+            }
+            builder.endElement();
+            builder.endDocument();
+            builder.close();
+            return (Element)NodeOverNodeInfo.wrap(documentElement(builder.getCurrentRoot()));
+        }catch(XPathException | IOException | SAXException | ParserConfigurationException ex){
+            throw exception("An error occured while parsing the XML documents", ex);
+        }
+    }
+    
+    /** Parses the given XML input straight into Saxon's TinyTree. 
+     * 
+     * @param xmlInputStream the XML input
+     * @return the root element of the TinyTree (as a read-only DOM view)
+     */
+    public static Element parseXMLFileAsTinyTree(InputStream xmlInputStream){
+        return parseMultipleXMLFilesAsTinyTree(Arrays.asList(xmlInputStream));
+    }
+    
+    /** Parses the given XML input straight into Saxon's TinyTree using the given Saxon configuration. 
+     * 
+     * @param xmlInputStream the XML input
+     * @param configuration the Saxon configuration that will be used for building the tree
+     * @return the root element of the TinyTree (as a read-only DOM view)
+     */
+    public static Element parseXMLFileAsTinyTree(InputStream xmlInputStream, Configuration configuration){
+        return parseMultipleXMLFilesAsTinyTree(Arrays.asList(xmlInputStream), configuration);
+    }
+    
+    private static NodeInfo documentElement(NodeInfo documentNode){
+        AxisIterator children=documentNode.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
+        NodeInfo element=children.next();
+        if(element==null){
+            throw exception("The given XML input does not contain any elements");
+        }
+        return element;
+    }
+    
     /**The method validates the X3ML mappings file as regards the variables it contains.
      * More specifically it validates that all the entities that have variables declared, 
      * either contain the necessary details (i.e. type, instance and label generator) or there is 
@@ -32,8 +32,6 @@ import java.util.regex.Pattern;
 
 public class UtilsTime {
 
-    private static Pattern pattern;
-    private static Matcher matcher;
     private static final String swedishMonths[] = {"Januari", "Februari", "Mars", "April", "Maj", "Juni", "Juli", "Augusti", "September", "Oktober", "November", "December"};
     private static final String englishMonths[] = {"January", "February", "March", "April", "May", "June", "July", "August", "September", "October", "November", "December"};
     private static final String englishMonthsAbbr[] = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
@@ -71,8 +69,8 @@ public class UtilsTime {
         boolean isValid = false;
         for (int i = 0; i < DATE_PATTERNS.length; i++) {
             String DATE_PATTERN = DATE_PATTERNS[i];
-            pattern = Pattern.compile(DATE_PATTERN);
-            matcher = pattern.matcher(date);
+            Pattern pattern = Pattern.compile(DATE_PATTERN);
+            Matcher matcher = pattern.matcher(date);
 
             if (matcher.matches()) {
                 matcher.reset();
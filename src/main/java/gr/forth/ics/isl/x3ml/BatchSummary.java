@@ -0,0 +1,175 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
+
+/**
+ * The summary of a batch execution (see X3MLEngine.executeBatch), with the output, the
+ * timings and the error (if any) of every input. The inputs are kept in the order they
+ * were given, regardless of the order they were transformed.
+ */
+public class BatchSummary {
+    /** The name of the file of the summary, in the output directory of the batch. */
+    public static final String FILE_NAME = "batch-summary.tsv";
+    private final List<Entry> entries;
+    private final long millis;
+
+    BatchSummary(List<Entry> entries, long millis) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.millis = millis;
+    }
+
+    /** Returns the entries of all the inputs of the batch.
+     *
+     * @return the entries in the order of the inputs */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /** Returns the entries of the inputs that could not be transformed.
+     *
+     * @return the failed entries in the order of the inputs */
+    public List<Entry> getFailures() {
+        List<Entry> failures = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.isFailed()) {
+                failures.add(entry);
+            }
+        }
+        return failures;
+    }
+
+    /** Returns the time of the whole batch (which is less than the sum of the times of
+     * the inputs, since the inputs are transformed in parallel).
+     *
+     * @return the elapsed time in milliseconds */
+    public long getMillis() {
+        return millis;
+    }
+
+    /** Writes the summary as tab separated values, with a line for every input (input, output,
+     * triples, parsing, transformation and writing time in milliseconds, and error).
+     *
+     * @param outputStream the stream of the summary (it is not closed) */
+    public void write(OutputStream outputStream) {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.println("input\toutput\ttriples\tparse_ms\ttransform_ms\twrite_ms\terror");
+        for (Entry entry : entries) {
+            writer.println(entry.input + "\t" + (entry.output == null ? "" : entry.output.getName()) + "\t" + entry.triples
+                    + "\t" + entry.parseMillis + "\t" + entry.transformMillis + "\t" + entry.writeMillis
+                    + "\t" + (entry.error == null ? "" : entry.error.replaceAll("\\s+", " ")));
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw exception("Cannot write the summary of the batch execution");
+        }
+    }
+
+    @Override
+    public String toString() {
+        long triples = 0;
+        for (Entry entry : entries) {
+            triples += entry.triples;
+        }
+        return "Transformed " + (entries.size() - getFailures().size()) + " of " + entries.size() + " inputs ("
+                + getFailures().size() + " failed, " + triples + " triples) in " + millis + " ms";
+    }
+
+    /** The outcome of the transformation of a single input of the batch. */
+    public static class Entry {
+        private final String input;
+        private File output;
+        private long triples;
+        private long parseMillis;
+        private long transformMillis;
+        private long writeMillis;
+        private String error;
+
+        Entry(String input) {
+            this.input = input;
+        }
+
+        public String getInput() {
+            return input;
+        }
+
+        /** Returns the output file of the input.
+         *
+         * @return the output file, or null if the input could not be transformed */
+        public File getOutput() {
+            return output;
+        }
+
+        public long getTriples() {
+            return triples;
+        }
+
+        public long getParseMillis() {
+            return parseMillis;
+        }
+
+        public long getTransformMillis() {
+            return transformMillis;
+        }
+
+        public long getWriteMillis() {
+            return writeMillis;
+        }
+
+        /** Returns the error of the input. The errors of single mappings, which do not stop
+         * the transformation, are not included (they are logged).
+         *
+         * @return the error that stopped the transformation of the input, or null */
+        public String getError() {
+            return error;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        void parsed(long millis) {
+            this.parseMillis = millis;
+        }
+
+        void transformed(long millis, long triples) {
+            this.transformMillis = millis;
+            this.triples = triples;
+        }
+
+        void written(long millis, File output) {
+            this.writeMillis = millis;
+            this.output = output;
+        }
+
+        void failed(String error) {
+            this.error = error;
+            this.output = null;
+        }
+    }
+}
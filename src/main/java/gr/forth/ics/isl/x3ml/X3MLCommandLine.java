@@ -32,17 +32,24 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.PrintStream;
 import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
 import gr.forth.ics.isl.x3ml.engine.GeneratorContext;
+import gr.forth.ics.isl.x3ml.engine.ModelOutput;
+import gr.forth.InputSnapshotCache;
 import gr.forth.Labels;
+import gr.forth.LazyFileInputStream;
 import gr.forth.Utils;
 import gr.forth.ics.isl.x3ml_reverse_utils.AssociationTableResources;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import lombok.extern.log4j.Log4j;
 import org.apache.commons.lang3.tuple.Pair;
@@ -82,7 +89,8 @@ public class X3MLCommandLine {
                                    +" Option C-folder: --"+Labels.INPUT+" #_folder_path\n"
                                    +" Option D-URL: --"+Labels.INPUT+" @input_url\n"
                                    +" Option E-multiple URLs: --"+Labels.INPUT+" @input_url1,input_url2,input_url3\n"
-                                   +" Option F-stdin: --"+Labels.INPUT+" @\n");
+                                   +" Option F-stdin: --"+Labels.INPUT+" @\n"
+                                   +" Files with the .gz extension are decompressed, and the XML entries of .zip files are separate inputs\n");
         inputOption.setRequired(true);
         
         Option x3mlOption = new Option(Labels.X3ML_SHORT, Labels.X3ML, true,
@@ -93,7 +101,8 @@ public class X3MLCommandLine {
         x3mlOption.setRequired(true);
         
         Option outputOption = new Option(Labels.OUTPUT_SHORT, Labels.OUTPUT, true,
-                "The output file name: --"+Labels.OUTPUT+" output.rdf"
+                "The output file name: --"+Labels.OUTPUT+" output.rdf \n"
+               +" The output is compressed with gzip if the name has the .gz extension: --"+Labels.OUTPUT+" output.nt.gz"
         );
         
         Option policyOption = new Option(Labels.POLICY_SHORT, Labels.POLICY, true,
@@ -128,6 +137,37 @@ public class X3MLCommandLine {
                 "reports the progress of the transformations"
         );
         
+        Option recordElementOption = new Option(Labels.RECORD_ELEMENT_SHORT, Labels.RECORD_ELEMENT, true, 
+                "executes the mappings one record at a time, instead of parsing the complete input. \n"
+               +" The records are the elements with the given name: --"+Labels.RECORD_ELEMENT+" lido:lido"
+        );
+        
+        Option parsingThreadsOption = new Option(Labels.PARSING_THREADS_SHORT, Labels.PARSING_THREADS, true, 
+                "parses the records of a single input file in chunks, with the given number of threads. \n"
+               +" It requires the --"+Labels.RECORD_ELEMENT+" option: --"+Labels.PARSING_THREADS+" 4"
+        );
+        
+        Option snapshotsOption = new Option(Labels.SNAPSHOTS_SHORT, Labels.SNAPSHOTS, true, 
+                "keeps snapshots of the parsed input files in the given folder, and loads the input \n"
+               +" from its snapshot when the same input files are given again: --"+Labels.SNAPSHOTS+" snapshotsFolder"
+        );
+        
+        Option batchOption = new Option(Labels.BATCH_SHORT, Labels.BATCH, true, 
+                "transforms every input file separately, and writes its output into a file of its own \n"
+               +" in the given folder, with a summary of the batch (batch-summary.tsv): --"+Labels.BATCH+" outputFolder"
+        );
+        
+        Option batchThreadsOption = new Option(Labels.BATCH_THREADS_SHORT, Labels.BATCH_THREADS, true, 
+                "the number of input files that are transformed at the same time. \n"
+               +" It requires the --"+Labels.BATCH+" option: --"+Labels.BATCH_THREADS+" 4"
+        );
+        
+        Option tinyTreeOption = new Option(Labels.TINY_TREE_SHORT, Labels.TINY_TREE, false, 
+                "parses the input straight into Saxon's TinyTree instead of a DOM tree (faster, with less memory). \n"
+               +" It is used for the complete input and for the --"+Labels.BATCH+" option; the records of the --"+Labels.RECORD_ELEMENT+" option \n"
+               +" are always parsed into DOM trees, and the --"+Labels.SNAPSHOTS+" option is not used with it"
+        );
+        
         options.addOption(inputOption)
                .addOption(x3mlOption)
                .addOption(outputOption)
@@ -137,7 +177,13 @@ public class X3MLCommandLine {
                .addOption(assocTableOption)
                .addOption(mergeAssocWithRDFOption)
                .addOption(termsOption)
-               .addOption(reportProgressOption);
+               .addOption(reportProgressOption)
+               .addOption(recordElementOption)
+               .addOption(parsingThreadsOption)
+               .addOption(snapshotsOption)
+               .addOption(batchOption)
+               .addOption(batchThreadsOption)
+               .addOption(tinyTreeOption);
     }
 
     public static void main(String[] args) {
@@ -149,6 +195,16 @@ public class X3MLCommandLine {
             if (uuidTestSizeString != null) {
                 uuidTestSizeValue = Integer.parseInt(uuidTestSizeString);
             }
+            int parsingThreadsValue = 1;
+            String parsingThreadsString = cli.getOptionValue(Labels.PARSING_THREADS);
+            if (parsingThreadsString != null) {
+                parsingThreadsValue = Integer.parseInt(parsingThreadsString);
+            }
+            int batchThreadsValue = Runtime.getRuntime().availableProcessors();
+            String batchThreadsString = cli.getOptionValue(Labels.BATCH_THREADS);
+            if (batchThreadsString != null) {
+                batchThreadsValue = Integer.parseInt(batchThreadsString);
+            }
             go(
                 cli.getOptionValue(Labels.INPUT),
                 cli.getOptionValue(Labels.X3ML),
@@ -159,7 +215,13 @@ public class X3MLCommandLine {
                 cli.getOptionValue(Labels.MERGE_WITH_ASSOCIATION_TABLE),
                 cli.hasOption(Labels.ASSOC_TABLE),
                 cli.hasOption(Labels.REPORT_PROGRESS),
-                uuidTestSizeValue
+                uuidTestSizeValue,
+                cli.getOptionValue(Labels.RECORD_ELEMENT),
+                parsingThreadsValue,
+                cli.getOptionValue(Labels.SNAPSHOTS),
+                cli.getOptionValue(Labels.BATCH),
+                batchThreadsValue,
+                cli.hasOption(Labels.TINY_TREE)
             );
         }
         catch (Exception e) {
@@ -217,6 +279,9 @@ public class X3MLCommandLine {
     static PrintStream rdf(String file) {
         if (file != null) {
             try {
+                if (isGzip(file)) {
+                    return new PrintStream(ModelOutput.compressed(new FileOutputStream(file), ModelOutput.DEFAULT_BUFFER_SIZE));
+                }
                 return new PrintStream(new File(file));
             }
             catch (FileNotFoundException e) {
@@ -229,7 +294,18 @@ public class X3MLCommandLine {
         }
     }
 
-    static void go(String input, String x3ml, String policy, String rdf, String rdfFormat, String terms, String assocTableFilename, boolean mergeAssocTableWithRDF, boolean reportProgress, int uuidTestSize) throws Exception {
+    /* checks whether the given input file is compressed (with gzip or zip) */
+    static boolean isCompressed(String file) {
+        String lowerCaseFile = file.toLowerCase();
+        return isGzip(file) || lowerCaseFile.endsWith(".zip");
+    }
+
+    /* checks whether the given file is compressed with gzip; the output is only compressed with gzip */
+    static boolean isGzip(String file) {
+        return file.toLowerCase().endsWith(".gz");
+    }
+
+    static void go(String input, String x3ml, String policy, String rdf, String rdfFormat, String terms, String assocTableFilename, boolean mergeAssocTableWithRDF, boolean reportProgress, int uuidTestSize, String recordElement, int parsingThreads, String snapshots, String batch, int batchThreads, boolean tinyTree) throws Exception {
         log.debug("Started executing X3MLEngine with the following parameters: "
                  +"\n\tInput: "+input
                  +"\n\tX3ML Mappings: "+x3ml
@@ -240,13 +316,67 @@ public class X3MLCommandLine {
                  +"\n\tAssociation table: "+assocTableFilename
                  +"\n\tReport progress: "+reportProgress
                  +"\n\tUUID Test Size: "+uuidTestSize
+                 +"\n\tRecord element: "+recordElement
+                 +"\n\tParsing threads: "+parsingThreads
+                 +"\n\tInput snapshots: "+snapshots
+                 +"\n\tBatch output: "+batch
+                 +"\n\tBatch threads: "+batchThreads
+                 +"\n\tTinyTree input: "+tinyTree
                  +"\n\tMerge Association table with output: "+mergeAssocTableWithRDF) ;
         final String INPUT_FOLDER_PREFIX="#_";
         final String INPUT_PIPED="@";
-        Element xmlElement;
+        Element xmlElement=null;
+        Set<InputStream> recordStreams=new LinkedHashSet<>();
+        List<LazyFileInputStream> batchInputs=new ArrayList<>();
+        List<InputStream> tinyTreeInputs=new ArrayList<>();
         
-        /* Read the input resource */
-        if (INPUT_PIPED.equals(input)) {
+        /* Read the input resource (or only open it, if it is read one record at a time or in a batch) */
+        if (batch!=null) {
+            if(input.startsWith(INPUT_FOLDER_PREFIX)){
+                for(File file : Utils.retrieveXMLfiles(new File(input.replace(INPUT_FOLDER_PREFIX, "")), false)){
+                    batchInputs.addAll(LazyFileInputStream.of(file));
+                }
+            }else{
+                for(String filePath : input.split(",")){
+                    batchInputs.addAll(LazyFileInputStream.of(file(filePath)));
+                }
+            }
+        }else if (recordElement!=null) {
+            if (INPUT_PIPED.equals(input)) {
+                recordStreams.add(System.in);
+            }else if(input.startsWith("@")){
+                for(String remoteURL : input.replace("@", "").split(",")){
+                    recordStreams.add(new URL(remoteURL).openStream());
+                }
+            }else if(input.startsWith(INPUT_FOLDER_PREFIX)){
+                for(File file : Utils.retrieveXMLfiles(new File(input.replace(INPUT_FOLDER_PREFIX, "")), false)){
+                    recordStreams.addAll(LazyFileInputStream.of(file));
+                }
+            }else if(input.contains(",") || parsingThreads<=1 || isCompressed(input)){
+                for(String filePath : input.split(",")){
+                    recordStreams.addAll(LazyFileInputStream.of(file(filePath)));
+                }
+            }
+        }else if (tinyTree) {  //the inputs are parsed with the Saxon configuration of the engine, after it is loaded
+            if(snapshots!=null){
+                log.warn("The input snapshots are not used with the TinyTree input");
+            }
+            if (INPUT_PIPED.equals(input)) {
+                tinyTreeInputs.add(System.in);
+            }else if(input.startsWith("@")){
+                for(String remoteURL : input.replace("@", "").split(",")){
+                    tinyTreeInputs.add(new URL(remoteURL).openStream());
+                }
+            }else if(input.startsWith(INPUT_FOLDER_PREFIX)){
+                for(File file : Utils.retrieveXMLfiles(new File(input.replace(INPUT_FOLDER_PREFIX, "")), false)){
+                    tinyTreeInputs.addAll(LazyFileInputStream.of(file));
+                }
+            }else{
+                for(String filePath : input.split(",")){
+                    tinyTreeInputs.addAll(LazyFileInputStream.of(file(filePath)));
+                }
+            }
+        }else if (INPUT_PIPED.equals(input)) {
             xmlElement = xml(System.in);
         }else if(input.startsWith("@")){  //It contains URLs
             if(input.contains(",")){  // it contains multiple URLs
@@ -258,19 +388,31 @@ public class X3MLCommandLine {
             }else{  //it contains one URL
                 xmlElement = xml(new URL(input.replace("@", "")).openStream());
             }
-        }else if(input.contains(",")){
-            Set<InputStream> listOfStreams=new HashSet<>();
-            try{
+        }else if(snapshots!=null){
+            List<LazyFileInputStream> inputFiles=new ArrayList<>();
+            if(input.startsWith(INPUT_FOLDER_PREFIX)){
+                for(File file : Utils.retrieveXMLfiles(new File(input.replace(INPUT_FOLDER_PREFIX, "")), false)){
+                    inputFiles.addAll(LazyFileInputStream.of(file));
+                }
+            }else{
                 for(String filePath : input.split(",")){
-                    listOfStreams.add(new FileInputStream(new File(filePath)));
+                    inputFiles.addAll(LazyFileInputStream.of(file(filePath)));
                 }
-                xmlElement=Utils.parseMultipleXMLFiles(listOfStreams);
-            }catch(FileNotFoundException ex){
-                throw exception("Cannot find input files",ex);
             }
+            boolean namespaceAware=!input.contains(",") && !input.startsWith(INPUT_FOLDER_PREFIX) && !isCompressed(input);
+            xmlElement=new InputSnapshotCache(new File(snapshots)).parse(inputFiles, namespaceAware);
+        }else if(input.contains(",")){
+            Set<InputStream> listOfStreams=new LinkedHashSet<>();
+            for(String filePath : input.split(",")){
+                listOfStreams.addAll(LazyFileInputStream.of(new File(filePath)));
+            }
+            xmlElement=Utils.parseMultipleXMLFiles(listOfStreams);
         }else if(input.startsWith(INPUT_FOLDER_PREFIX)){
             xmlElement=Utils.parseFolderWithXmlFiles(input.replace(INPUT_FOLDER_PREFIX, ""), false);
         }
+        else if(isCompressed(input)){
+            xmlElement=Utils.parseMultipleXMLFiles(new ArrayList<InputStream>(LazyFileInputStream.of(file(input))));
+        }
         else{
             xmlElement = xml(file(input));
         }
@@ -317,12 +459,31 @@ public class X3MLCommandLine {
             engine = X3MLEngine.load(x3mlStream);
         }
         
-        X3MLEngine.REPORT_PROGRESS=reportProgress;
+        engine = engine.withProgressReporting(reportProgress);
+        if (!tinyTreeInputs.isEmpty()) {
+            xmlElement = Utils.parseMultipleXMLFilesAsTinyTree(tinyTreeInputs, engine.getSaxonConfiguration());
+        }else if (tinyTree && batch==null) {
+            log.warn("The records are parsed into DOM trees, the TinyTree input is not used for them");
+        }
         
-        X3MLEngine.Output output = engine.execute(
-                xmlElement,
-                getValuePolicy(policy, X3MLGeneratorPolicy.createUUIDSource(uuidTestSize))
-        );
+        Generator generatorPolicy = getValuePolicy(policy, X3MLGeneratorPolicy.createUUIDSource(uuidTestSize));
+        if (batch!=null) {
+            File batchFolder=new File(batch);
+            BatchSummary summary=engine.executeBatch(batchInputs, batchFolder, rdfFormat, batchThreads, tinyTree, generatorPolicy);
+            try(FileOutputStream summaryStream=new FileOutputStream(new File(batchFolder, BatchSummary.FILE_NAME))){
+                summary.write(summaryStream);
+            }
+            log.info(summary);
+            return;
+        }
+        X3MLEngine.Output output;
+        if (recordElement==null) {
+            output = engine.execute(xmlElement, generatorPolicy);
+        }else if(recordStreams.isEmpty()){  //a single input file that is parsed in parallel
+            output = engine.execute(file(input), recordElement, parsingThreads, generatorPolicy);
+        }else{
+            output = engine.execute(recordStreams, recordElement, generatorPolicy);
+        }
         if(assocTableFilename!=null){
             try{
                 GeneratorContext.exportAssociationTable(assocTableFilename);
@@ -337,6 +498,10 @@ public class X3MLCommandLine {
                                                                                    .replace(AssociationTableResources.ASSOCIATION_TABLE_START_TAG, "")
                                                                                    .replace(AssociationTableResources.ASSOCIATION_TABLE_END_TAG, ""));
         }
-        output.write(rdf(rdf), rdfFormat);
+        PrintStream rdfStream = rdf(rdf);
+        output.write(rdfStream, rdfFormat);
+        if (rdf != null) {
+            rdfStream.close();
+        }
     }
 }
@@ -18,8 +18,13 @@ under the License.
 ==============================================================================*/
 package gr.forth.ics.isl.x3ml;
 
+import gr.forth.ics.isl.x3ml.engine.CompiledMapping;
 import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.ChunkedRecordReader;
+import gr.forth.ics.isl.x3ml.engine.ModelOutput;
+import gr.forth.ics.isl.x3ml.engine.RecordReader;
 import gr.forth.ics.isl.x3ml.engine.Root;
+import gr.forth.ics.isl.x3ml.engine.TerminologyModel;
 import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.ls.LSInput;
@@ -28,14 +33,19 @@ import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import com.hp.hpl.jena.rdf.model.Model;
-import gr.forth.ics.isl.x3ml.engine.Domain;
+import gr.forth.ics.isl.x3ml.engine.ExecutionContext;
 import gr.forth.ics.isl.x3ml.engine.X3ML;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import gr.forth.LazyFileInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -43,10 +53,24 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.Helper.x3mlStream;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.MappingNamespace;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.RootElement;
@@ -59,8 +83,8 @@ import java.net.URL;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
+import net.sf.saxon.Configuration;
 import lombok.extern.log4j.Log4j;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.riot.Lang;
 
 /**
@@ -68,6 +92,15 @@ import org.apache.jena.riot.Lang;
  *
  * It has an execute method which takes a DOM root node and a value generator
  * and produces a graph in its output.
+ * <p>
+ * The mappings (and the SKOS terminology, if any) are loaded and compiled once. The options 
+ * of an engine are fixed when it is created; the with... methods (e.g. withParallelDomains(int)) 
+ * return a configured copy of the engine, which shares the compiled mappings. A loaded engine 
+ * is not changed by its executions, so the same engine can execute the mappings from many 
+ * threads at the same time. Every execution has its own 
+ * state (see ExecutionContext) and its own copy of the generator policy, so the given 
+ * X3MLGeneratorPolicy is not changed either (other Generator implementations are configured 
+ * in place, and they should be thread-safe themselves).
  *
  * @author Gerald de Jong &lt;gerald@delving.eu&gt;
  * @author Nikos Minadakis &lt;minadakn@ics.forth.gr&gt;
@@ -79,13 +112,29 @@ public class X3MLEngine {
     private static final String X3ML_SCHEMA_FOLDER="/schema/";
     private static final String X3ML_SCHEMA_FILENAME="x3ml.xsd";
     private static final String GENERATOR_POLICY_SCHEMA_FILENAME="generatorPolicy.xsd";
+    /** @deprecated the association table is used per engine, see useAssociationTable(boolean) */
+    @Deprecated
     public static boolean ENABLE_ASSOCIATION_TABLE=false;
+    /** @deprecated the progress is reported per engine, see reportProgress(boolean) */
+    @Deprecated
     public static boolean REPORT_PROGRESS=false;
-    private RootElement rootElement;
-    private NamespaceContext namespaceContext = new XPathContext();
-    private List<String> prefixes = new ArrayList<>();
-    public static String exceptionMessagesList="";
-    private static Pair<InputStream,Lang> terminologyStream=null;
+    private final RootElement rootElement;
+    private final NamespaceContext namespaceContext;
+    private final List<String> prefixes;
+    private final TerminologyModel terminology;
+    private final Configuration saxonConfiguration;
+    private final CompiledMapping compiledMapping;
+    private final boolean useElementNameIndex;
+    private final int joinIndexSpillThreshold;
+    private final File joinIndexDirectory;
+    private final boolean reportProgress;
+    private final boolean associationTable;
+    private final ForkJoinPool domainPool;
+    private final ForkJoinPool mappingPool;
+    /** @deprecated the error messages are kept per execution, see ExecutionContext.getExceptionMessages(). 
+     * The engine does not update this field. */
+    @Deprecated
+    public static volatile String exceptionMessagesList="";
 
     public static List<String> validate(InputStream inputStream) {
         try{
@@ -99,26 +148,27 @@ public class X3MLEngine {
 
     /** The method is responsible for loading X3ML mappings, that are given as 
      * an InputStream, and then: (a) validate them with respect to the X3ML schema and
-     * (b) construct the corresponding X3MLEngine instance. 
+     * (b) construct the corresponding X3MLEngine instance. The XPath expressions 
+     * of the mappings are compiled once at this point, so invalid expressions are 
+     * reported here rather than during the execution. 
      * 
      * @param mappingsStream the X3ML mappings contents as a stream
      * @return an X3MLEngine instance
      * @throws X3MLException for any error that might occur during validation, instantiation. */
     public static X3MLEngine load(InputStream mappingsStream) throws X3MLException {
-        X3MLEngine.terminologyStream=null;
         InputStream is=validateX3MLMappings(mappingsStream);
         RootElement rootElement = (RootElement) x3mlStream().fromXML(is);
         rootElement=Utils.parseX3MLAgainstVariables(rootElement);
         if (!VERSION.equals(rootElement.version)) {
             throw exception("Incorrect X3ML Version "+rootElement.version+ ", expected "+VERSION);
         }
-        return new X3MLEngine(rootElement);
+        return new X3MLEngine(rootElement, null);
     }
     
     /** The method is responsible for loading X3ML mappings and SKOS terminology, that are given as 
      *  InputStream instances and then: 
      * (a) validate the X3ML mappings with respect to the X3ML schema, 
-     * (b) load the SKOS terminology 
+     * (b) load the SKOS terminology (once, it is shared by all the executions of the engine)
      * (c) construct the corresponding X3MLEngine instance. 
      * 
      * @param mappingsStream the X3ML mappings contents as a stream
@@ -127,14 +177,13 @@ public class X3MLEngine {
      * @return an X3MLEngine instance
      * @throws X3MLException for any error that might occur during validation, instantiation. */
     public static X3MLEngine load(InputStream mappingsStream, InputStream terminologyStream, Lang terminologyLang) throws X3MLException {
-        X3MLEngine.terminologyStream=Pair.of(terminologyStream, terminologyLang);
         InputStream is=validateX3MLMappings(mappingsStream);
         RootElement rootElement = (RootElement) x3mlStream().fromXML(is);
         rootElement=Utils.parseX3MLAgainstVariables(rootElement);
         if (!VERSION.equals(rootElement.version)) {
             throw exception("Incorrect X3ML Version "+rootElement.version+ ", expected "+VERSION);
         }
-        return new X3MLEngine(rootElement);
+        return new X3MLEngine(rootElement, new TerminologyModel(terminologyStream, terminologyLang));
     }
     
     /** Validate that the X3ML mappings file is a valid XML file and is compliant with 
@@ -182,8 +231,91 @@ public class X3MLEngine {
         }
     }
     
-    public void useAssociationTable(boolean flag){
-        X3MLEngine.ENABLE_ASSOCIATION_TABLE=flag;
+    /** Returns a copy of the engine that uses (or does not use) the association table. The entries 
+     * of all the executions are added to the same table (see GeneratorContext.exportAssociationTable(String)). 
+     * The domain nodes and the mappings are not processed in parallel when the association table is used.
+     * 
+     * @param flag true for adding the generated values to the association table
+     * @return the configured copy of the engine */
+    public X3MLEngine withAssociationTable(boolean flag){
+        return new X3MLEngine(this, useElementNameIndex, joinIndexSpillThreshold, joinIndexDirectory, reportProgress, flag, domainPool, mappingPool);
+    }
+
+    /** Returns a copy of the engine that reports (or does not report) the progress of its executions.
+     * 
+     * @param flag true for reporting the progress
+     * @return the configured copy of the engine */
+    public X3MLEngine withProgressReporting(boolean flag){
+        return new X3MLEngine(this, useElementNameIndex, joinIndexSpillThreshold, joinIndexDirectory, flag, associationTable, domainPool, mappingPool);
+    }
+
+    /** Returns a copy of the engine that uses (or does not use) an index of the input elements by 
+     * name. When it is used, the XPath expressions that only select descendants by their name 
+     * (e.g. //foo or descendant::foo) are answered from the index.
+     * 
+     * @param flag true for using the element name index
+     * @return the configured copy of the engine */
+    public X3MLEngine withElementNameIndex(boolean flag){
+        return new X3MLEngine(this, flag, joinIndexSpillThreshold, joinIndexDirectory, reportProgress, associationTable, domainPool, mappingPool);
+    }
+
+    /** Returns a copy of the engine that keeps the join indexes of the large range tables in 
+     * memory-mapped files instead of the heap. The indexes of smaller range tables remain in memory.
+     * 
+     * @param rangeNodes the number of range nodes above which a join index is written to the disk (negative for never)
+     * @param directory the directory of the index files (null for the default temporary directory)
+     * @return the configured copy of the engine */
+    public X3MLEngine withJoinIndexSpilling(int rangeNodes, File directory){
+        return new X3MLEngine(this, useElementNameIndex, rangeNodes, directory, reportProgress, associationTable, domainPool, mappingPool);
+    }
+
+    /** Returns a copy of the engine that processes the domain nodes of every mapping in parallel, 
+     * with the given number of threads. The threads are shared by all the executions of the copy. 
+     * The domain nodes are processed in parallel only for the inputs that are parsed into a TinyTree 
+     * (see getSaxonConfiguration()), and only if the association table is not used; the 
+     * output is the same as the output of a sequential execution. The values of the custom 
+     * generators should not depend on the order of the domain nodes.
+     * 
+     * @param threads the number of threads (1 or less for processing the domain nodes sequentially)
+     * @return the configured copy of the engine */
+    public X3MLEngine withParallelDomains(int threads){
+        return new X3MLEngine(this, useElementNameIndex, joinIndexSpillThreshold, joinIndexDirectory, reportProgress, associationTable, pool(threads), mappingPool);
+    }
+
+    /** Returns a copy of the engine that applies the groups of independent mappings concurrently, 
+     * with the given number of threads. Two mappings are independent if they do not share global 
+     * variables and they do not generate values for input nodes with the same name (see CompiledMapping). 
+     * The same restrictions as for the parallel processing of the domain nodes apply 
+     * (see withParallelDomains(int)), and the output is the same as the output of a sequential 
+     * execution.
+     * 
+     * @param threads the number of threads (1 or less for applying the mappings in order)
+     * @return the configured copy of the engine */
+    public X3MLEngine withParallelMappings(int threads){
+        return new X3MLEngine(this, useElementNameIndex, joinIndexSpillThreshold, joinIndexDirectory, reportProgress, associationTable, domainPool, pool(threads));
+    }
+
+    /* the threads of the parallel processing start when they are first needed */
+    private static ForkJoinPool pool(int threads){
+        return (threads > 1) ? new ForkJoinPool(threads) : null;
+    }
+
+    /** Returns the Saxon configuration of the engine. The XPath expressions of the mappings 
+     * are compiled with it, and it is shared by all the executions of the engine. Inputs 
+     * that are parsed into a TinyTree with this configuration share its name pool 
+     * (e.g. see Utils.parseXMLFileAsTinyTree(InputStream, Configuration)).
+     * 
+     * @return the Saxon configuration of the engine */
+    public Configuration getSaxonConfiguration(){
+        return saxonConfiguration;
+    }
+
+    /** Returns the compiled form of the mappings, which is shared by all the executions 
+     * of the engine (e.g. for finding the groups of independent mappings).
+     * 
+     * @return the compiled mappings */
+    public CompiledMapping getCompiledMapping(){
+        return compiledMapping;
     }
 
     public static void save(X3MLEngine engine, OutputStream outputStream) throws X3MLException {
@@ -198,8 +330,379 @@ public class X3MLEngine {
         return new X3MLException(message, throwable);
     }
 
+    /** Executes the mappings over the given input. Every execution has its own state (see 
+     * ExecutionContext), which can be retrieved from the returned output.
+     * 
+     * @param sourceRoot the root of the input
+     * @param generator the generator policy
+     * @return the output of the execution
+     * @throws X3MLException if the mappings cannot be applied */
     public Output execute(Element sourceRoot, Generator generator) throws X3MLException {
-        Root rootContext = new Root(sourceRoot, generator, namespaceContext, prefixes, terminologyStream);
+        ModelOutput modelOutput = Root.createModelOutput(namespaceContext, prefixes, this.createExecutionContext());
+        Root rootContext = new Root(sourceRoot, this.configureGenerator(generator), namespaceContext, compiledMapping, modelOutput, terminology);
+        this.configureInput(rootContext);
+        this.apply(rootContext);
+        log.debug("Compiled XPath expressions: "+rootContext.getXPathInput().getExpressionCache());
+        log.debug("Join indexes: "+rootContext.getXPathInput().getJoinIndexes());
+        return rootContext.getModelOutput();
+    }
+
+    /** Executes the mappings one record at a time. The records are the elements with the given
+     * name (e.g. lido:lido), that are read from the input with StAX. Every record is parsed into a
+     * small tree of its own, the mappings are applied on it, and then it is released, so only one 
+     * record is kept in memory. The results of all the records are added to the same output, 
+     * and the global variables are shared by all the records. The URIs that are generated for 
+     * the ancestors of the records (e.g. for a lido:lidoWrap element) are generated once, and 
+     * they are also shared by all the records of the ancestor. 
+     * <p>
+     * The mappings should not depend on other records (e.g. joins between records). The tree of a 
+     * record also contains the ancestors of the record element, so absolute paths can be used.
+     * <p>
+     * The records are always built as DOM trees (the copies of their ancestors keep the identities 
+     * of the ancestors in the DOM user data), so they are not processed as TinyTrees and their 
+     * domain nodes are processed sequentially.
+     * 
+     * @param input the XML input
+     * @param recordElement the name of the record elements (prefixed with a prefix of the mappings, or in {uri}localName form)
+     * @param generator the generator policy
+     * @return the output of all the records
+     * @throws X3MLException if the input cannot be read */
+    public Output execute(InputStream input, String recordElement, Generator generator) throws X3MLException {
+        return execute(Arrays.asList(input), recordElement, generator);
+    }
+
+    /** Executes the mappings one record at a time, over several inputs (see execute(InputStream, String, Generator)).
+     * The ancestors of the records of different inputs are different nodes, so their URIs are 
+     * not shared, even if they have the same names and attributes.
+     * 
+     * @param inputs the XML inputs
+     * @param recordElement the name of the record elements
+     * @param generator the generator policy
+     * @return the output of all the records of all the inputs
+     * @throws X3MLException if an input cannot be read */
+    public Output execute(Collection<InputStream> inputs, String recordElement, Generator generator) throws X3MLException {
+        QName recordName = RecordReader.recordName(recordElement, namespaceContext);
+        ExecutionContext execution = this.createExecutionContext();
+        ModelOutput modelOutput = Root.createModelOutput(namespaceContext, prefixes, execution);
+        Generator executionGenerator = this.configureGenerator(generator);
+        int records = 0;
+        for (InputStream input : inputs) {
+            try (RecordReader reader = new RecordReader(input, recordName, execution.getAncestorIdentities())) {
+                for (Element record = reader.next(); record != null; record = reader.next()) {
+                    this.applyRecord(record, executionGenerator, modelOutput);
+                    records++;
+                }
+            }
+        }
+        log.debug("Executed the mappings on "+records+" records of "+recordName);
+        return modelOutput;
+    }
+
+    /** Executes the mappings over a single large XML file, which is split into chunks of records 
+     * that are parsed in parallel (see ChunkedRecordReader). The mappings are applied on the chunks 
+     * one at a time, in the order of the file, while the next chunks are parsed. The same restrictions 
+     * as in execute(InputStream, String, Generator) apply, since every chunk is a tree of its own, 
+     * and the chunks are also built as DOM trees.
+     * 
+     * @param input the XML input file
+     * @param recordElement the name of the record elements
+     * @param threads the number of threads that parse the chunks
+     * @param generator the generator policy
+     * @return the output of all the records
+     * @throws X3MLException if the input cannot be read */
+    public Output execute(File input, String recordElement, int threads, Generator generator) throws X3MLException {
+        QName recordName = RecordReader.recordName(recordElement, namespaceContext);
+        ExecutionContext execution = this.createExecutionContext();
+        ModelOutput modelOutput = Root.createModelOutput(namespaceContext, prefixes, execution);
+        Generator executionGenerator = this.configureGenerator(generator);
+        try (ChunkedRecordReader reader = new ChunkedRecordReader(input, recordName, threads, 
+                ChunkedRecordReader.DEFAULT_CHUNK_SIZE, execution.getAncestorIdentities())) {
+            for (Element chunk = reader.next(); chunk != null; chunk = reader.next()) {
+                this.applyRecord(chunk, executionGenerator, modelOutput);
+            }
+            log.debug("Executed the mappings on "+reader.getChunks()+" chunks of "+recordName+" records");
+        }
+        return modelOutput;
+    }
+
+    /** Executes the mappings over every input separately, in a pipeline of three stages that 
+     * run in parallel: a thread parses the inputs, the calling thread applies the mappings 
+     * on every parsed input, and another thread writes the output of every input. The stages 
+     * are connected with queues of the given size, so a stage waits when the next one falls behind, 
+     * and only a few inputs are kept in memory at the same time. 
+     * <p>
+     * If an output stream is given, the whole output is written to it and the returned output is 
+     * empty. If the mappings declare no named graphs, the triples of every input are written as 
+     * N-Triples as soon as the input has been transformed; the inputs are not merged, so a triple 
+     * that several inputs produce is written once for each of them. If the mappings declare named 
+     * graphs, the outputs of all the inputs are merged and written as TriG at the end. Without an 
+     * output stream, the outputs of all the inputs are merged into the returned output. 
+     * <p>
+     * Since the inputs are not concatenated, the mappings should not join elements of different inputs. 
+     * The global variables are shared by all the inputs. The inputs are parsed into DOM trees. 
+     * 
+     * @param inputs the XML inputs
+     * @param generator the generator policy
+     * @param queueSize the number of inputs that can wait between two stages
+     * @param ntriplesOutput the stream of the output (N-Triples, or TriG for named graphs), or null for returning the output
+     * @return the output of all the inputs (empty if the output has been written to the stream)
+     * @throws X3MLException if an input cannot be parsed or transformed */
+    public Output executePipelined(Collection<InputStream> inputs, Generator generator, int queueSize, final OutputStream ntriplesOutput) throws X3MLException {
+        final List<InputStream> inputList = new ArrayList<>(inputs);
+        final BlockingQueue<Element> parsed = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        final BlockingQueue<ModelOutput> transformed = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        final ExecutionContext execution = this.createExecutionContext();
+        final ModelOutput modelOutput = Root.createModelOutput(namespaceContext, prefixes, execution);
+        final ModelOutput endOfOutputs = Root.createModelOutput(namespaceContext, prefixes, execution);
+        final Element endOfInputs = endOfInputs();
+        Generator executionGenerator = this.configureGenerator(generator);
+        final boolean streamTriples = ntriplesOutput != null && !this.declaresNamedGraphs();
+        ExecutorService stages = Executors.newFixedThreadPool(2);
+        try {
+            Future<Void> parser = stages.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    try {
+                        for (InputStream input : inputList) {
+                            parsed.put(Utils.parseMultipleXMLFiles(Arrays.asList(input)));
+                        }
+                    } finally {
+                        parsed.put(endOfInputs);
+                    }
+                    return null;
+                }
+            });
+            Future<Void> writer = stages.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    for (ModelOutput output = transformed.take(); output != endOfOutputs; output = transformed.take()) {
+                        if (streamTriples) {
+                            output.writeNTRIPLE(ntriplesOutput);
+                        } else {
+                            modelOutput.getModel().add(output.getModel());
+                        }
+                    }
+                    return null;
+                }
+            });
+            int units = 0;
+            for (Element input = parsed.take(); input != endOfInputs; input = parsed.take()) {
+                ModelOutput output = Root.createModelOutput(namespaceContext, prefixes, execution);
+                this.applyRecord(input, executionGenerator, output);
+                handOver(transformed, output, writer);
+                units++;
+            }
+            parser.get();
+            handOver(transformed, endOfOutputs, writer);
+            writer.get();
+            if (ntriplesOutput != null && !streamTriples) {
+                modelOutput.writeQuads(ntriplesOutput);
+                modelOutput.getModel().removeAll();
+                execution.getQuadGraph().clear();
+            }
+            log.debug("Executed the mappings on "+units+" inputs in a pipeline");
+            return modelOutput;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw exception("Interrupted while executing the pipeline", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof X3MLException) {
+                throw (X3MLException) ex.getCause();
+            }
+            throw exception("A stage of the pipeline has failed", ex.getCause());
+        } finally {
+            stages.shutdownNow();
+        }
+    }
+
+    /* the element that the parser of a pipeline puts after the last input */
+    private static Element endOfInputs() {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument().createElement("end-of-inputs");
+        } catch (ParserConfigurationException ex) {
+            throw exception("Cannot create the end of the inputs of the pipeline", ex);
+        }
+    }
+
+    /* checks whether the mappings, their domains or their links declare named graphs */
+    private boolean declaresNamedGraphs() {
+        if (rootElement.mappings.namedgraph != null) {
+            return true;
+        }
+        for (X3ML.Mapping mapping : rootElement.mappings.mappings) {
+            if (mapping.namedgraph != null || (mapping.domain != null && mapping.domain.namedgraph != null)) {
+                return true;
+            }
+            if (mapping.links != null) {
+                for (X3ML.LinkElement link : mapping.links) {
+                    if (link.namedgraph != null) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /* waits until the next stage has room for the given item, unless the next stage has stopped */
+    private static <T> void handOver(BlockingQueue<T> queue, T item, Future<Void> nextStage) throws InterruptedException, ExecutionException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (nextStage.isDone()) {
+                nextStage.get();
+                throw exception("A stage of the pipeline has stopped");
+            }
+        }
+    }
+
+    /** Executes the mappings over many independent inputs, and writes the output of every input 
+     * into a file of its own in the given directory. The inputs are parsed, transformed and written 
+     * by a pool of the given number of threads, one input per thread at a time, and every input is 
+     * a separate execution (with its own global variables), so the result of an input does not 
+     * depend on the other inputs of the batch. The mappings and the terminology are loaded once, 
+     * and the generator policy is copied for every input. 
+     * <p>
+     * The output file of an input has the name of the input (or of its zip entry) with the extension 
+     * of the format. The outputs that contain named graphs are written as TriG. An input that cannot be 
+     * parsed, transformed or written does not stop the batch; its error is kept in the summary, 
+     * and its (partial) output file is removed.
+     * 
+     * @param inputs the XML input files
+     * @param outputDirectory the directory of the output files (it is created if it does not exist)
+     * @param rdfFormat the mime type of the output format (see Output.write(OutputStream, String))
+     * @param threads the number of inputs that are transformed at the same time
+     * @param tinyTree true for parsing the inputs into Saxon's TinyTree (see Utils.parseXMLFileAsTinyTree)
+     * @param generator the generator policy
+     * @return the summary of the batch, with the output, the timings and the error of every input
+     * @throws X3MLException if the output directory cannot be created */
+    public BatchSummary executeBatch(Collection<LazyFileInputStream> inputs, File outputDirectory, final String rdfFormat, 
+                                     int threads, final boolean tinyTree, final Generator generator) throws X3MLException {
+        if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs()){
+            throw exception("Cannot create the output directory \""+outputDirectory.getAbsolutePath()+"\"");
+        }
+        long start = System.currentTimeMillis();
+        List<BatchSummary.Entry> entries = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        Set<String> outputNames = new HashSet<>();
+        for (final LazyFileInputStream input : inputs) {
+            final BatchSummary.Entry entry = new BatchSummary.Entry(input.toString());
+            final File outputBase = new File(outputDirectory, outputName(input, outputNames));
+            entries.add(entry);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    executeBatchInput(input, outputBase, rdfFormat, tinyTree, generator, entry);
+                    return null;
+                }
+            });
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        try {
+            for (Future<Void> task : workers.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw exception("Interrupted while executing the batch", ex);
+        } catch (ExecutionException ex) {
+            throw exception("An input of the batch has failed unexpectedly", ex.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        BatchSummary summary = new BatchSummary(entries, System.currentTimeMillis() - start);
+        log.debug(summary);
+        return summary;
+    }
+
+    /* parses, transforms and writes a single input of a batch, keeping its timings and its error in the given entry */
+    private void executeBatchInput(LazyFileInputStream input, File outputBase, String rdfFormat, boolean tinyTree, Generator generator, BatchSummary.Entry entry){
+        File outputFile = null;
+        try {
+            long start = System.currentTimeMillis();
+            Element sourceRoot = tinyTree ? Utils.parseXMLFileAsTinyTree(input, saxonConfiguration)
+                                          : Utils.parseMultipleXMLFiles(Arrays.asList((InputStream) input));
+            entry.parsed(System.currentTimeMillis() - start);
+            start = System.currentTimeMillis();
+            ModelOutput output = (ModelOutput) this.execute(sourceRoot, generator);
+            entry.transformed(System.currentTimeMillis() - start, output.getModel().size());
+            start = System.currentTimeMillis();
+            String format = output.getExecutionContext().hasNamedGraphs() ? Labels.OUTPUT_MIME_TYPE_TRIG : rdfFormat;
+            outputFile = new File(outputBase.getPath()+"."+outputExtension(format));
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                output.write(outputStream, format);
+            }
+            entry.written(System.currentTimeMillis() - start, outputFile);
+        } catch (RuntimeException | IOException ex) {
+            log.error("Cannot transform the input "+input, ex);
+            entry.failed(ex.getMessage() == null ? ex.toString() : ex.getMessage());
+            if (outputFile != null && outputFile.exists() && !outputFile.delete()) {
+                log.warn("Cannot remove the partial output "+outputFile);
+            }
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ex) {
+                log.warn("Cannot close the input "+input, ex);
+            }
+        }
+    }
+
+    /* the name of the output of an input (without extension), which is unique among the outputs of the batch */
+    private static String outputName(LazyFileInputStream input, Set<String> outputNames){
+        String name = (input.getEntry() == null) ? input.getFile().getName() : input.getEntry().replace('/', '_');
+        name = name.replaceAll("(?i)\\.gz$", "").replaceAll("(?i)\\."+Labels.OUTPUT_EXTENSION_XML+"$", "");
+        String unique = name;
+        for (int i = 2; !outputNames.add(unique); i++) {
+            unique = name+"-"+i;
+        }
+        return unique;
+    }
+
+    /* the file extension of the given output format */
+    private static String outputExtension(String rdfFormat){
+        if (Labels.OUTPUT_MIME_TYPE_NTRIPLES.equalsIgnoreCase(rdfFormat)) {
+            return Labels.OUTPUT_EXTENSION_NTRIPLES;
+        } else if (Labels.OUTPUT_MIME_TYPE_TURTLE.equalsIgnoreCase(rdfFormat)) {
+            return Labels.OUTPUT_EXTENSION_TURTLE;
+        } else if (Labels.OUTPUT_MIME_TYPE_TRIG.equalsIgnoreCase(rdfFormat)) {
+            return Labels.OUTPUT_EXTENSION_TRIG;
+        }
+        return Labels.OUTPUT_EXTENSION_RDF;
+    }
+
+    private void applyRecord(Element record, Generator generator, ModelOutput modelOutput){
+        Root rootContext = new Root(record, generator, namespaceContext, compiledMapping, modelOutput, terminology);
+        this.configureInput(rootContext);
+        this.apply(rootContext);
+    }
+
+    private ExecutionContext createExecutionContext(){
+        return new ExecutionContext(this.reportProgress || REPORT_PROGRESS);
+    }
+
+    /* applies the mappings on an input, within the context of its execution */
+    private void apply(Root rootContext){
+        ExecutionContext execution = rootContext.getExecutionContext();
+        ExecutionContext previous = execution.enter();
+        try {
+            execution.setMappingCounter(0);
+            rootElement.apply(rootContext);
+        } finally {
+            execution.leave(previous);
+        }
+    }
+
+    private void configureInput(Root rootContext){
+        rootContext.getXPathInput().useElementNameIndex(this.useElementNameIndex);
+        rootContext.getXPathInput().getJoinIndexes().spillAbove(this.joinIndexSpillThreshold, this.joinIndexDirectory);
+        rootContext.useAssociationTable(this.associationTable || ENABLE_ASSOCIATION_TABLE);
+        rootContext.parallelDomains(this.domainPool);
+        rootContext.parallelMappings(this.mappingPool);
+    }
+
+    /* returns the generator of an execution, configured with the namespaces and the defaults of the 
+     * mappings; a generator policy is copied first, so that it can be shared by concurrent executions */
+    private Generator configureGenerator(Generator policy){
+        Generator generator = (policy instanceof X3MLGeneratorPolicy) ? ((X3MLGeneratorPolicy) policy).copy() : policy;
         generator.setDefaultArgType(rootElement.sourceType);
         generator.setLanguageFromMapping(rootElement.language);
         if (rootElement.namespaces != null) {
@@ -223,16 +726,7 @@ public class X3MLEngine {
                 }
             }
         }
-        this.initializeAll();  
-        rootElement.apply(rootContext);
-        return rootContext.getModelOutput();
-    }
-    
-    private void initializeAll(){
-        X3MLEngine.exceptionMessagesList="";  
-        RootElement.mappingCounter=0;
-        RootElement.linkCounter=0;
-        Domain.globalVariables.clear();
+        return generator;
     }
 
     @Override
@@ -246,14 +740,43 @@ public class X3MLEngine {
 
         void writeXML(OutputStream outputStream);
 
+        /** Exports the output in the given format (see write(OutputStream, String)), compressed 
+         * with gzip. The compressed contents are buffered with the given buffer size, and the 
+         * given stream is not closed.
+         * 
+         * @param outputStream the output stream that will be used for exporting the compressed contents
+         * @param rdfFormat the export format
+         * @param bufferSize the size of the buffers of the compression (in bytes) */
+        default void writeCompressed(OutputStream outputStream, String rdfFormat, int bufferSize) {
+            try{
+                GZIPOutputStream compressedOut=ModelOutput.compressed(outputStream, bufferSize);
+                write(compressedOut, rdfFormat);
+                compressedOut.finish();
+                compressedOut.flush();
+            }catch(IOException ex){
+                throw exception("An error occurred while compressing the output",ex);
+            }
+        }
+
         Model getModel();
         
         String[] toStringArray();
 
     }
 
-    private X3MLEngine(RootElement rootElement) {
+    private X3MLEngine(RootElement rootElement, TerminologyModel terminology) {
         this.rootElement = rootElement;
+        this.terminology = terminology;
+        this.namespaceContext = new XPathContext();
+        this.prefixes = new ArrayList<>();
+        this.saxonConfiguration = new Configuration();
+        this.useElementNameIndex = false;
+        this.joinIndexSpillThreshold = -1;
+        this.joinIndexDirectory = null;
+        this.reportProgress = false;
+        this.associationTable = false;
+        this.domainPool = null;
+        this.mappingPool = null;
         if (this.rootElement.namespaces != null) {
             for (MappingNamespace namespace : this.rootElement.namespaces) {
                 ((XPathContext) namespaceContext).addNamespace(namespace.prefix, namespace.uri);
@@ -282,6 +805,25 @@ public class X3MLEngine {
             }
         }
         this.addDefaultNamespaces();
+        this.compiledMapping = CompiledMapping.compile(this.rootElement, namespaceContext, saxonConfiguration);
+    }
+
+    /* a copy of the given engine with other options, that shares the compiled mappings and the terminology */
+    private X3MLEngine(X3MLEngine engine, boolean useElementNameIndex, int joinIndexSpillThreshold, File joinIndexDirectory, 
+                       boolean reportProgress, boolean associationTable, ForkJoinPool domainPool, ForkJoinPool mappingPool) {
+        this.rootElement = engine.rootElement;
+        this.terminology = engine.terminology;
+        this.namespaceContext = engine.namespaceContext;
+        this.prefixes = engine.prefixes;
+        this.saxonConfiguration = engine.saxonConfiguration;
+        this.compiledMapping = engine.compiledMapping;
+        this.useElementNameIndex = useElementNameIndex;
+        this.joinIndexSpillThreshold = joinIndexSpillThreshold;
+        this.joinIndexDirectory = joinIndexDirectory;
+        this.reportProgress = reportProgress;
+        this.associationTable = associationTable;
+        this.domainPool = domainPool;
+        this.mappingPool = mappingPool;
     }
     
     private void addDefaultNamespaces(){
@@ -22,6 +22,10 @@ package gr.forth.ics.isl.x3ml;
 import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
 import gr.forth.ics.isl.x3ml.engine.Generator;
 import gr.forth.ics.isl.x3ml.engine.GeneratorContext;
+import gr.forth.ics.isl.x3ml.engine.ModelOutput;
+import gr.forth.InputSnapshotCache;
+import gr.forth.Labels;
+import gr.forth.LazyFileInputStream;
 import gr.forth.Utils;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -36,8 +40,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.riot.Lang;
 import org.apache.log4j.Level;
@@ -97,6 +103,19 @@ public class X3MLEngineFactory {
     private String associationTableFile;
     private Pair<OutputStream,OutputFormat> output;
     private boolean progressReporting;
+    private boolean tinyTreeInput;
+    private boolean elementNameIndex;
+    private int joinIndexSpillThreshold;
+    private String recordElement;
+    private File chunkedInputFile;
+    private int parsingThreads;
+    private int domainThreads;
+    private int mappingThreads;
+    private int pipelineQueueSize;
+    private int compressedOutputBufferSize;
+    private File snapshotDirectory;
+    private File batchOutputDirectory;
+    private int batchThreads;
     private static final Logger LOGGER=Logger.getLogger(X3MLEngineFactory.class);
     
     public enum OutputFormat{
@@ -111,11 +130,22 @@ public class X3MLEngineFactory {
     private X3MLEngineFactory(){
         this.mappingsFiles=new HashSet<>();
         this.mappingStreams=new ArrayList<>();
-        this.inputStreams=new HashSet<>();
+        this.inputStreams=new LinkedHashSet<>();
         this.inputFolders=new HashSet<>();
         this.generatorPolicyStream=null;
         this.uuidSize=-1;
         this.progressReporting=false;
+        this.tinyTreeInput=false;
+        this.elementNameIndex=false;
+        this.joinIndexSpillThreshold=-1;
+        this.recordElement=null;
+        this.chunkedInputFile=null;
+        this.parsingThreads=1;
+        this.domainThreads=1;
+        this.mappingThreads=1;
+        this.pipelineQueueSize=0;
+        this.compressedOutputBufferSize=0;
+        this.snapshotDirectory=null;
         this.associationTableFile=null;
         this.output=Pair.of(null, OutputFormat.RDF_XML);
     }
@@ -192,15 +222,11 @@ public class X3MLEngineFactory {
      * @return the updated X3MLEngineFactory instance
      */
     public X3MLEngineFactory withInputFiles(File ... inputFiles){
-        try{
-            for(File f : inputFiles){
-                LOGGER.debug("Added the XML input file ("+f.getAbsolutePath()+")");
-                this.inputStreams.add(new FileInputStream(f));
-            }
-            return this;
-        }catch(FileNotFoundException ex){
-            throw exception("Cannot find input file",ex);
+        for(File f : inputFiles){
+            LOGGER.debug("Added the XML input file ("+f.getAbsolutePath()+")");
+            this.inputStreams.addAll(LazyFileInputStream.of(f));
         }
+        return this;
     }
     
     /** Adds the collection of input files in the X3MLEngineFactory.
@@ -210,15 +236,11 @@ public class X3MLEngineFactory {
      * @return the updated X3MLEngineFactory instance
      */
     public X3MLEngineFactory withInputFiles(Collection<File> inputFilesCollection){
-        try{
-            for(File f : inputFilesCollection){
-                LOGGER.debug("Added the XML input file ("+f.getAbsolutePath()+")");
-                this.inputStreams.add(new FileInputStream(f));
-            }
-            return this;
-        }catch(FileNotFoundException ex){
-            throw exception("Cannot find input file",ex);
+        for(File f : inputFilesCollection){
+            LOGGER.debug("Added the XML input file ("+f.getAbsolutePath()+")");
+            this.inputStreams.addAll(LazyFileInputStream.of(f));
         }
+        return this;
     }
     
     /**Adds the folder that contains the input files (in XML format). 
@@ -380,6 +402,9 @@ public class X3MLEngineFactory {
             try{
                 OutputStream os=new FileOutputStream(new File(filename));
                 this.output=Pair.of(os, format);
+                if(filename.toLowerCase().endsWith(".gz")){
+                    this.withCompressedOutput(ModelOutput.DEFAULT_BUFFER_SIZE);
+                }
             }catch(FileNotFoundException ex){
                 throw exception("Cannot find the output file, "+filename,ex);
             }
@@ -403,6 +428,9 @@ public class X3MLEngineFactory {
             try{
                 OutputStream os=new FileOutputStream(outputFile);
                 this.output=Pair.of(os, format);
+                if(outputFile.getName().toLowerCase().endsWith(".gz")){
+                    this.withCompressedOutput(ModelOutput.DEFAULT_BUFFER_SIZE);
+                }
             }catch(FileNotFoundException ex){
                 throw exception("Cannot find the output file, "+outputFile.getAbsolutePath(),ex);
             }
@@ -463,6 +491,148 @@ public class X3MLEngineFactory {
         return this;
     }
     
+    /** Parses the input into Saxon's TinyTree instead of a DOM tree. The XPath 
+     * expressions of the mappings are then evaluated directly on the TinyTree, 
+     * which is faster and uses less memory for large inputs. 
+     * It is used when the whole input is parsed at once and in the batch execution; 
+     * the records (see withRecordElement and withParallelParsing) and the inputs of 
+     * the pipeline are always parsed into DOM trees, and the input snapshots are not used. 
+     * 
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withTinyTreeInput(){
+        LOGGER.debug("Enabled the parsing of the input as a Saxon TinyTree");
+        this.tinyTreeInput=true;
+        return this;
+    }
+    
+    /** Answers the XPath expressions that select descendants by their name 
+     * (e.g. //foo) from an index of the input elements, that is built once for the whole input. 
+     * 
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withElementNameIndex(){
+        LOGGER.debug("Enabled the element name index");
+        this.elementNameIndex=true;
+        return this;
+    }
+    
+    /** Keeps the join indexes of the range tables that have more than the given number 
+     * of nodes in memory-mapped files (in the temporary directory), instead of the heap. 
+     * 
+     * @param rangeNodes the number of range nodes above which a join index is written to the disk
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withJoinIndexSpilling(int rangeNodes){
+        LOGGER.debug("Enabled the disk join indexes for more than "+rangeNodes+" range nodes");
+        this.joinIndexSpillThreshold=rangeNodes;
+        return this;
+    }
+    
+    /** Executes the mappings one record at a time, instead of parsing the complete input. 
+     * The records are the elements with the given name (e.g. lido:lido, using a prefix 
+     * that is declared in the mappings), and only one of them is kept in memory. 
+     * The mappings should not join elements of different records.
+     * 
+     * @param recordElement the name of the record elements
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withRecordElement(String recordElement){
+        LOGGER.debug("Enabled the streaming of the input records with name "+recordElement);
+        this.recordElement=recordElement;
+        return this;
+    }
+    
+    /** Adds a single large input file, whose records are parsed in chunks by the given 
+     * number of threads, instead of one at a time. It requires the name of the 
+     * record elements (see withRecordElement). 
+     * 
+     * @param inputFile the input (XML) file
+     * @param threads the number of threads that parse the chunks of records
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withParallelParsing(File inputFile, int threads){
+        LOGGER.debug("Added the XML input file ("+inputFile.getAbsolutePath()+") that is parsed in chunks by "+threads+" threads");
+        this.chunkedInputFile=inputFile;
+        this.parsingThreads=threads;
+        return this;
+    }
+    
+    /** Processes the domain nodes of every mapping in parallel, with the given number of 
+     * threads. It requires the TinyTree input (see withTinyTreeInput); the domain nodes of 
+     * a DOM input are processed sequentially.
+     * 
+     * @param threads the number of threads that process the domain nodes
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withParallelDomains(int threads){
+        LOGGER.debug("Enabled the parallel processing of the domain nodes with "+threads+" threads");
+        this.domainThreads=threads;
+        return this;
+    }
+    
+    /** Applies the groups of mappings that do not depend on each other concurrently, with 
+     * the given number of threads. It requires the TinyTree input (see withTinyTreeInput); 
+     * the mappings of a DOM input are applied in order.
+     * 
+     * @param threads the number of threads that apply the mappings
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withParallelMappings(int threads){
+        LOGGER.debug("Enabled the concurrent application of independent mappings with "+threads+" threads");
+        this.mappingThreads=threads;
+        return this;
+    }
+    
+    /** Transforms every input file (or stream) separately, in a pipeline that parses the next 
+     * inputs and writes the output of the previous ones while an input is being transformed. 
+     * The stages of the pipeline are connected with queues of the given size. If the output 
+     * format is N-Triples, the output of every input is written as soon as it is ready (or 
+     * as TriG at the end, if the mappings declare named graphs).
+     * The mappings should not join elements of different input files.
+     * 
+     * @param queueSize the number of inputs that can wait between two stages of the pipeline
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withPipelinedExecution(int queueSize){
+        LOGGER.debug("Enabled the pipelined execution with queues of size "+queueSize);
+        this.pipelineQueueSize=queueSize;
+        return this;
+    }
+    
+    /** Compresses the output with gzip, using buffers of the given size. The output is 
+     * compressed by default, if the name of the output file has the .gz extension.
+     * 
+     * @param bufferSize the size of the buffers of the compression (in bytes)
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withCompressedOutput(int bufferSize){
+        LOGGER.debug("Enabled the compression of the output with buffers of "+bufferSize+" bytes");
+        this.compressedOutputBufferSize=bufferSize;
+        return this;
+    }
+    
+    /** Keeps snapshots of the parsed input files in the given directory. The first time that 
+     * the input files are parsed, their tree is written into a binary snapshot, named after 
+     * the hash of their contents. The next executions over the same input files load their 
+     * tree from the snapshot, instead of parsing them again. The snapshots are used only for 
+     * input files and folders (not for input streams) and not with the TinyTree input.
+     * 
+     * @param snapshotDirectory the directory of the snapshots
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withInputSnapshots(File snapshotDirectory){
+        LOGGER.debug("Enabled the input snapshots in the directory "+snapshotDirectory);
+        this.snapshotDirectory=snapshotDirectory;
+        return this;
+    }
+    
+    /** Transforms every input file separately, and writes its output into a file of its own 
+     * in the given directory, instead of the output stream (see X3MLEngine.executeBatch). The 
+     * input files are transformed by the given number of threads, and an input that cannot be 
+     * transformed does not stop the others. The summary of the batch (the timings and the errors 
+     * of every input) is written in the file batch-summary.tsv of the output directory.
+     * 
+     * @param outputDirectory the directory of the output files
+     * @param threads the number of input files that are transformed at the same time
+     * @return the updated X3MLEngineFactory instance */
+    public X3MLEngineFactory withBatchOutput(File outputDirectory, int threads){
+        LOGGER.debug("Enabled the batch execution into the directory "+outputDirectory+" with "+threads+" threads");
+        this.batchOutputDirectory=outputDirectory;
+        this.batchThreads=threads;
+        return this;
+    }
+    
     /** Execute the X3ML Engine with the given configuration. If the mandatory resources 
      * have not been defined (the X3ML mappings file and the XML input file(s)/folder) then 
      * an exception is thrown, and the execution is terminated.
@@ -472,15 +642,79 @@ public class X3MLEngineFactory {
     public void execute(){
         this.validateConfig();
         this.informUserAboutConfiguration();
-        X3MLEngine engine=this.createX3MLEngine();
-        X3MLEngine.REPORT_PROGRESS=this.progressReporting;
+        X3MLEngine engine=this.createX3MLEngine()
+                .withElementNameIndex(this.elementNameIndex)
+                .withJoinIndexSpilling(this.joinIndexSpillThreshold, null)
+                .withProgressReporting(this.progressReporting);
+        if(this.domainThreads>1 && !this.tinyTreeInput){
+            LOGGER.warn("The domain nodes are processed sequentially, because the parallel processing requires the TinyTree input");
+        }
+        if(this.mappingThreads>1 && !this.tinyTreeInput){
+            LOGGER.warn("The mappings are applied in order, because their concurrent application requires the TinyTree input");
+        }
+        if(this.tinyTreeInput && this.batchOutputDirectory==null && (this.recordElement!=null || this.pipelineQueueSize>0)){
+            LOGGER.warn("The input is parsed into DOM trees, because the TinyTree input is not used for the records and the pipeline");
+        }
+        engine=engine.withParallelDomains(this.domainThreads).withParallelMappings(this.mappingThreads);
         Generator policy=X3MLGeneratorPolicy.load(this.getGeneratorPolicy(), X3MLGeneratorPolicy.createUUIDSource(this.uuidSize));
-        Element sourceRoot=this.getInput();
-        X3MLEngine.Output engineOutput = engine.execute(sourceRoot, policy);
+        X3MLEngine.Output engineOutput;
+        if(this.batchOutputDirectory!=null){
+            this.executeBatch(engine, policy);
+            return;
+        }else if(this.chunkedInputFile!=null){
+            engineOutput = engine.execute(this.chunkedInputFile, this.recordElement, this.parsingThreads, policy);
+        }else if(this.recordElement!=null){
+            engineOutput = engine.execute(this.getInputStreams(), this.recordElement, policy);
+        }else if(this.pipelineQueueSize>0 && this.output.getRight()==OutputFormat.NTRIPLES){   //the output is written by the pipeline, the returned output is empty
+            OutputStream ntriplesOutput=(this.output.getLeft()==null)?System.out:this.output.getLeft();
+            if(this.compressedOutputBufferSize>0){
+                GZIPOutputStream compressedOutput=ModelOutput.compressed(ntriplesOutput, this.compressedOutputBufferSize);
+                engine.executePipelined(this.getInputStreams(), policy, this.pipelineQueueSize, compressedOutput);
+                try{
+                    compressedOutput.finish();
+                    compressedOutput.flush();
+                }catch(IOException ex){
+                    throw exception("An error occurred while compressing the output",ex);
+                }
+            }else{
+                engine.executePipelined(this.getInputStreams(), policy, this.pipelineQueueSize, ntriplesOutput);
+            }
+            this.outputAssociationTable();
+            return;
+        }else if(this.pipelineQueueSize>0){
+            engineOutput = engine.executePipelined(this.getInputStreams(), policy, this.pipelineQueueSize, null);
+        }else{
+            Element sourceRoot=this.getInput(engine);
+            engineOutput = engine.execute(sourceRoot, policy);
+        }
         this.outputResults(engineOutput);
         this.outputAssociationTable();
     }
     
+    /* transforms every input file into its own output file, and writes the summary of the batch */
+    private void executeBatch(X3MLEngine engine, Generator policy){
+        List<LazyFileInputStream> inputFiles=new ArrayList<>();
+        for(InputStream inputStream : this.getInputStreams()){
+            if(!(inputStream instanceof LazyFileInputStream)){
+                throw exception("The batch execution requires input files or folders (not input streams)");
+            }
+            inputFiles.add((LazyFileInputStream)inputStream);
+        }
+        BatchSummary summary=engine.executeBatch(inputFiles, this.batchOutputDirectory, mimeType(this.output.getRight()), 
+                                                 this.batchThreads, this.tinyTreeInput, policy);
+        File summaryFile=new File(this.batchOutputDirectory, BatchSummary.FILE_NAME);
+        try(OutputStream summaryStream=new FileOutputStream(summaryFile)){
+            summary.write(summaryStream);
+        }catch(IOException ex){
+            throw exception("Cannot write the summary of the batch execution in "+summaryFile.getAbsolutePath(), ex);
+        }
+        LOGGER.info(summary);
+        for(BatchSummary.Entry failure : summary.getFailures()){
+            LOGGER.warn("Failed input "+failure.getInput()+": "+failure.getError());
+        }
+        this.outputAssociationTable();
+    }
+    
     /* creates an instance of the X3ML engine using the provided X3ML mappings file */
     private X3MLEngine createX3MLEngine(){
         try{
@@ -506,18 +740,35 @@ public class X3MLEngineFactory {
     
     /* parses the input (either it is a single file, multiple files, single folder or multiple folders).
     It uses all the given resources to produce a single input element (DOM) */
-    private Element getInput(){
-        try{
-            for(String filepath : this.getInputFilesListing()){
-                this.inputStreams.add(new FileInputStream(new File(filepath)));
+    private Element getInput(X3MLEngine engine){
+        this.getInputStreams();
+        if(this.snapshotDirectory!=null && !this.tinyTreeInput){
+            List<LazyFileInputStream> inputFiles=new ArrayList<>();
+            for(InputStream inputStream : this.inputStreams){
+                if(inputStream instanceof LazyFileInputStream){
+                    inputFiles.add((LazyFileInputStream)inputStream);
+                }
             }
-        }catch(FileNotFoundException ex){
-            throw exception("Cannot find XML input file",ex);
+            if(inputFiles.size()==this.inputStreams.size()){
+                return new InputSnapshotCache(this.snapshotDirectory).parse(inputFiles, false);
+            }
+            LOGGER.warn("The input snapshots are not used, because some inputs are not files");
+        }
+        if(this.tinyTreeInput){
+            return Utils.parseMultipleXMLFilesAsTinyTree(this.inputStreams, engine.getSaxonConfiguration());
+        }
+        return Utils.parseMultipleXMLFiles(this.inputStreams);
+    }
+    
+    /* collects the input streams of all the given resources (files, folders and streams) */
+    private Collection<InputStream> getInputStreams(){
+        for(String filepath : this.getInputFilesListing()){
+            this.inputStreams.addAll(LazyFileInputStream.of(new File(filepath)));
         }
         if(inputStreams.isEmpty()){
             throw exception("The XML input file list is empty");
         }
-        return Utils.parseMultipleXMLFiles(this.inputStreams);
+        return this.inputStreams;
     }
     
     /* Validates that the mandatory elements (input and mappings) have been provided */
@@ -525,12 +776,20 @@ public class X3MLEngineFactory {
         if(this.mappingsFiles.isEmpty() && this.mappingStreams.isEmpty()){
             throw exception("The X3ML mappings x3ml are missing.");
         }
-        if(this.inputStreams.isEmpty() && this.inputFolders.isEmpty()){
+        if(this.inputStreams.isEmpty() && this.inputFolders.isEmpty() && this.chunkedInputFile==null){
             throw exception("The input file(s) or folder(s) are missing.");
         }
+        if(this.chunkedInputFile!=null && (this.recordElement==null || !this.inputStreams.isEmpty() || !this.inputFolders.isEmpty())){
+            throw exception("The parallel parsing requires the record element and a single input file.");
+        }
     }
     
     private void outputResults(X3MLEngine.Output engineOutput){
+        if(this.compressedOutputBufferSize>0){
+            OutputStream outputStream=(this.output.getLeft()==null)?System.out:this.output.getLeft();
+            engineOutput.writeCompressed(outputStream, mimeType(this.output.getRight()), this.compressedOutputBufferSize);
+            return;
+        }
         switch(this.output.getRight()){
             case RDF_XML:
                 if(this.output.getLeft()==null){
@@ -571,6 +830,21 @@ public class X3MLEngineFactory {
     }
     
     /* Outputs (if configured to do so) the contents of the association table */
+    private static String mimeType(OutputFormat format){
+        switch(format){
+            case RDF_XML_PLAIN:
+                return Labels.OUTPUT_MIME_TYPE_RDF_XML_ABBREV;
+            case NTRIPLES:
+                return Labels.OUTPUT_MIME_TYPE_NTRIPLES;
+            case TURTLE:
+                return Labels.OUTPUT_MIME_TYPE_TURTLE;
+            case TRIG:
+                return Labels.OUTPUT_MIME_TYPE_TRIG;
+            default:
+                return Labels.OUTPUT_MIME_TYPE_RDF_XML;
+        }
+    }
+    
     private void outputAssociationTable(){
         try{
             if(this.associationTableFile!=null && !this.associationTableFile.isEmpty()){
@@ -592,6 +866,17 @@ public class X3MLEngineFactory {
         LOGGER.info("Output: "+outputMsg);
         LOGGER.info("Output format: "+this.output.getRight());
         LOGGER.info("Report Progress: "+this.progressReporting);
+        LOGGER.info("TinyTree input: "+this.tinyTreeInput);
+        LOGGER.info("Element name index: "+this.elementNameIndex);
+        LOGGER.info("Record element: "+(this.recordElement==null?"None (the complete input is parsed)":this.recordElement));
+        LOGGER.info("Compressed output: "+(this.compressedOutputBufferSize>0?"gzip, buffers of "+this.compressedOutputBufferSize+" bytes":"Disabled"));
+        LOGGER.info("Pipelined execution: "+(this.pipelineQueueSize>0?"queues of size "+this.pipelineQueueSize:"Disabled"));
+        LOGGER.info("Input snapshots: "+(this.snapshotDirectory==null?"Disabled":this.snapshotDirectory.getPath()));
+        LOGGER.info("Parallel mappings: "+(this.mappingThreads>1?this.mappingThreads+" threads":"Disabled"));
+        LOGGER.info("Parallel domain nodes: "+(this.domainThreads>1?this.domainThreads+" threads":"Disabled"));
+        LOGGER.info("Batch output: "+(this.batchOutputDirectory==null?"Disabled":this.batchOutputDirectory.getPath()+", "+this.batchThreads+" threads"));
+        LOGGER.info("Parallel parsing: "+(this.chunkedInputFile==null?"Disabled":this.parsingThreads+" threads"));
+        LOGGER.info("Disk join indexes: "+(this.joinIndexSpillThreshold<0?"Disabled":"more than "+this.joinIndexSpillThreshold+" range nodes"));
         String associationTableExportMsg=(this.associationTableFile==null || !this.associationTableFile.isEmpty())?"Disabled":"Enabled, file: "+this.associationTableFile;
         LOGGER.info("Export sssociation table: "+associationTableExportMsg);
     }
@@ -599,7 +884,7 @@ public class X3MLEngineFactory {
     /* returns the input files (their absolute paths) taking into account all the files and the folders
     that has been provided by the user */
     private Collection<String> getInputFilesListing(){
-        Set<String> retSet=new HashSet<>();
+        Set<String> retSet=new LinkedHashSet<>();
         for(Pair<File,Boolean> folder : this.inputFolders){
             for(File f : Utils.retrieveXMLfiles(folder.getLeft(), folder.getRight())){
                 retSet.add(f.getAbsolutePath());
@@ -21,6 +21,7 @@ package gr.forth.ics.isl.x3ml;
 import com.damnhandy.uri.template.MalformedUriTemplateException;
 import com.damnhandy.uri.template.UriTemplate;
 import com.damnhandy.uri.template.VariableExpansionException;
+import gr.forth.ics.isl.x3ml.engine.ExecutionContext;
 import gr.forth.ics.isl.x3ml.engine.Generator;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
@@ -140,6 +141,25 @@ public class X3MLGeneratorPolicy implements Generator {
         if ((this.uuidSource = uuidSource) == null) throw exception("UUID Source needed");
     }
 
+    private X3MLGeneratorPolicy(Map<String, GeneratorSpec> generatorMap, UUIDSource uuidSource) {
+        this.generatorMap = generatorMap;
+        this.uuidSource = uuidSource;
+    }
+
+    /** Creates a copy of the policy, which shares the generators and the UUID source of 
+     * the policy. The engine configures a copy for every execution (with the namespaces and 
+     * the defaults of the mappings), so the policy can be used by executions that run at the 
+     * same time. 
+     * 
+     * @return a copy of the policy, with the same namespaces and defaults */
+    public X3MLGeneratorPolicy copy() {
+        X3MLGeneratorPolicy copy = new X3MLGeneratorPolicy(this.generatorMap, this.uuidSource);
+        copy.namespaceMap.putAll(this.namespaceMap);
+        copy.defaultSourceType = this.defaultSourceType;
+        copy.languageFromMapping = this.languageFromMapping;
+        return copy;
+    }
+
     @Override
     public void setDefaultArgType(SourceType sourceType) {
         this.defaultSourceType = sourceType;
@@ -240,9 +260,10 @@ public class X3MLGeneratorPolicy implements Generator {
                     if(instance.mergeMultipleValues()){ /*Do not stop if there are elements missing only for specific generators (i.e.  ConcatMultipleTerms)*/
                         argValue=new ArgValue("", "en");
                     }else{
+                        ExecutionContext execution=ExecutionContext.current();
                         throw exception("Cannot find arg with name \""+customArg.name+"\""+
                                     " in generator with name \""+generator.name+"\""+
-                                    "[Mapping: "+RootElement.mappingCounter+", Link: "+RootElement.linkCounter+"]");
+                                    "[Mapping: "+(execution==null?0:execution.getMappingCounter())+", Link: "+(execution==null?0:execution.getLinkCounter())+"]");
                     }
                 }
                 instance.setArg(customArg.name, argValue.string);
@@ -376,7 +397,7 @@ public class X3MLGeneratorPolicy implements Generator {
         }
 
         @Override
-        public String generateUUID() {
+        public synchronized String generateUUID() {
             StringBuilder uuid = new StringBuilder();
             if (count == max) throw new RuntimeException("Too many test UUIDs at " + count + ". Use a larger size.");
             int c = count++;
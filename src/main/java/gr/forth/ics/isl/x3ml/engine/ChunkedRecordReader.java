@@ -0,0 +1,439 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import gr.forth.ics.isl.x3ml.X3MLEngine;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import lombok.extern.log4j.Log4j;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
+
+/** Reads the records of a single large XML file in chunks, that are parsed in parallel.
+ * <p>
+ * The file is memory-mapped and split into chunks of about the same size. The boundaries
+ * of the chunks are found by scanning the bytes for the start tags of the record elements,
+ * so every chunk holds a sequence of complete records. Every chunk is wrapped into the
+ * ancestors of the records (with their attributes and namespace declarations) and parsed
+ * into a DOM tree of its own, by a pool of threads. The trees are returned in the order of
+ * the file, and only a few of them are kept in memory at the same time.
+ * <p>
+ * The ancestors are copied from the ones of the first record, so all the records must be
+ * children of the same element (e.g. of lido:lidoWrap). A chunk that contains an end tag of
+ * an ancestor (i.e. records with different parents) is reported as an error; such inputs can
+ * be read one record at a time with RecordReader. As in RecordReader, the copies of the
+ * ancestors are marked (see RecordReader.ancestorKey(Node)), so the URIs that are generated
+ * for them are shared by all the chunks (and not with the ancestors of other inputs of the same 
+ * execution, see ExecutionContext.getAncestorIdentities()), and the other content of the parent of the records
+ * (e.g. elements or text between the records) is dropped.
+ * <p>
+ * The scanning works on the bytes of the file, so the encoding of the file must be ASCII
+ * compatible (e.g. UTF-8 or ISO-8859-1), the records must always use the same tag (e.g.
+ * lido:lido) and the tag must not be used elsewhere (e.g. in comments or CDATA sections
+ * or by nested elements of the records). Entities that are declared in a DTD are not supported.
+ */
+@Log4j
+public class ChunkedRecordReader implements Closeable {
+    public static final int DEFAULT_CHUNK_SIZE = 16 << 20;
+    private static final int WINDOW = 1 << 20;
+    private static final Pattern ENCODING = Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+    private final QName recordName;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final byte[] startTag;
+    private final byte[] endTag;
+    private final byte[] head;
+    private final byte[] tail;
+    private final long first;
+    private final long last;
+    private final long chunkSize;
+    private final long chunkCount;
+    private final int depth;
+    private final long firstAncestor;
+    private final int threads;
+    private final ExecutorService executor;
+    private final Deque<Future<Element>> parsing = new ArrayDeque<>();
+    private final DocumentBuilderFactory factory;
+    private final ThreadLocal<DocumentBuilder> builders;
+    private long submitted;
+    private int chunks;
+
+    public ChunkedRecordReader(File input, QName recordName, int threads) {
+        this(input, recordName, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedRecordReader(File input, QName recordName, int threads, long chunkSize) {
+        this(input, recordName, threads, chunkSize, new AtomicLong());
+    }
+
+    /** Creates a reader that takes the identities of the ancestors of the records from the given counter.
+     *
+     * @param input the XML input file
+     * @param recordName the name of the record elements
+     * @param threads the number of threads that parse the chunks
+     * @param chunkSize the size of the chunks (in bytes)
+     * @param ancestorCount the last identity that has been given to an ancestor (see ExecutionContext.getAncestorIdentities()) */
+    public ChunkedRecordReader(File input, QName recordName, int threads, long chunkSize, AtomicLong ancestorCount) {
+        this.recordName = recordName;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.factory = DocumentBuilderFactory.newInstance();
+        this.factory.setNamespaceAware(true);
+        this.builders = new ThreadLocal<DocumentBuilder>() {
+            @Override
+            protected DocumentBuilder initialValue() {
+                synchronized (factory) {
+                    try {
+                        return factory.newDocumentBuilder();
+                    } catch (ParserConfigurationException ex) {
+                        throw exception("Unable to create a parser for the XML input", ex);
+                    }
+                }
+            }
+        };
+        Charset charset = charset(input);
+        Element record = firstRecord(input, recordName);
+        int ancestors = 0;
+        try {
+            this.file = new RandomAccessFile(input, "r");
+            this.channel = file.getChannel();
+            if (record == null) {
+                this.startTag = this.endTag = this.head = this.tail = new byte[0];
+                this.first = this.last = 0;
+            } else {
+                this.startTag = ("<" + record.getNodeName()).getBytes(charset);
+                this.endTag = ("</" + record.getNodeName()).getBytes(charset);
+                StringBuilder openTags = new StringBuilder("<?xml version=\"1.0\" encoding=\"" + charset.name() + "\"?>");
+                StringBuilder closeTags = new StringBuilder();
+                for (Node ancestor = record.getOwnerDocument().getDocumentElement(); ancestor != record; ancestor = ancestor.getFirstChild()) {
+                    openTags.append(startTag((Element) ancestor));
+                    closeTags.insert(0, "</" + ancestor.getNodeName() + ">");
+                    ancestors++;
+                }
+                this.head = openTags.toString().getBytes(charset);
+                this.tail = closeTags.toString().getBytes(charset);
+                this.first = nextRecord(0, channel.size());
+                this.last = endOfRecords();
+            }
+        } catch (IOException ex) {
+            throw exception("Unable to read the XML input " + input, ex);
+        }
+        this.depth = ancestors;
+        this.firstAncestor = ancestorCount.addAndGet(ancestors) - ancestors + 1;
+        this.chunkCount = (last - first + this.chunkSize - 1) / this.chunkSize;
+        this.executor = Executors.newFixedThreadPool(this.threads);
+        log.debug("Reading " + (last - first) + " bytes of records in " + chunkCount + " chunks with " + this.threads + " threads");
+    }
+
+    /** Returns the tree of the next chunk. The root of the tree is the outermost ancestor of
+     * the records, and the records of the chunk are the children of the innermost ancestor.
+     *
+     * @return the root element of the next chunk, or null if there are no more chunks */
+    public Element next() {
+        while (true) {
+            while (submitted < chunkCount && parsing.size() < 2 * threads) {
+                final long chunk = submitted++;
+                parsing.add(executor.submit(new Callable<Element>() {
+                    @Override
+                    public Element call() throws Exception {
+                        return parse(chunk);
+                    }
+                }));
+            }
+            if (parsing.isEmpty()) {
+                return null;
+            }
+            Element root;
+            try {
+                root = parsing.poll().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw exception("Interrupted while parsing the XML input", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof X3MLEngine.X3MLException) {
+                    throw (X3MLEngine.X3MLException) ex.getCause();
+                }
+                throw exception("Unable to parse a chunk of the XML input", ex.getCause());
+            }
+            if (root != null) {
+                chunks++;
+                return root;
+            }
+        }
+    }
+
+    /** Returns the number of chunks that have been returned so far.
+     *
+     * @return the number of chunks */
+    public int getChunks() {
+        return chunks;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            file.close();
+        } catch (IOException ex) {
+            throw exception("Unable to close the XML input", ex);
+        }
+    }
+
+    /* the records of a chunk start with the first record that starts inside its share of the file */
+    private Element parse(long chunk) throws Exception {
+        long start = nextRecord(first + chunk * chunkSize, last);
+        long end = (chunk + 1 == chunkCount) ? last : nextRecord(first + (chunk + 1) * chunkSize, last);
+        if (start >= end) {
+            return null;
+        }
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        InputStream input = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(head), new ByteBufferInputStream(records), new ByteArrayInputStream(tail))));
+        Element root;
+        try {
+            root = builders.get().parse(input).getDocumentElement();
+        } catch (SAXException ex) {
+            throw exception("Unable to parse the records between the bytes " + start + " and " + end 
+                    + " of the XML input (all the records must be children of the same element)", ex);
+        }
+        return (depth == 0) ? root : records(root, start);
+    }
+
+    /* marks the copies of the ancestors and keeps only the records in the innermost one; an ancestor 
+     * with more elements means that the chunk contains an end tag of an ancestor */
+    private Element records(Element root, long start) {
+        Element ancestor = root;
+        RecordReader.markAncestor(ancestor, firstAncestor);
+        for (int level = 2; level <= depth; level++) {
+            Element child = null;
+            for (Node node = ancestor.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node.getNodeType() == Node.ELEMENT_NODE) {
+                    if (child != null) {
+                        throw differentParents(ancestor, start);
+                    }
+                    child = (Element) node;
+                }
+            }
+            if (child == null) {
+                throw differentParents(ancestor, start);
+            }
+            ancestor = child;
+            RecordReader.markAncestor(ancestor, firstAncestor + level - 1);
+        }
+        Node node = ancestor.getFirstChild();
+        while (node != null) {
+            Node next = node.getNextSibling();
+            if (!isRecord(node, recordName)) {
+                ancestor.removeChild(node);
+            }
+            node = next;
+        }
+        return root;
+    }
+
+    /* returns the position of the first start tag of a record from the given position, or the limit */
+    private long nextRecord(long from, long limit) throws IOException {
+        long position = from;
+        while (position < limit) {
+            int length = (int) Math.min(WINDOW + startTag.length, channel.size() - position);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i + startTag.length < length && position + i < limit; i++) {
+                if (matches(window, i, startTag) && isNameEnd(window.get(i + startTag.length))) {
+                    return position + i;
+                }
+            }
+            position += WINDOW;
+        }
+        return limit;
+    }
+
+    /* returns the position after the end of the last record */
+    private long endOfRecords() throws IOException {
+        long size = channel.size();
+        long lastEnd = -1;
+        long lastStart = -1;
+        for (long position = Math.max(0, size - WINDOW); lastEnd < 0 && lastStart < 0; position = Math.max(0, position - WINDOW)) {
+            int length = (int) Math.min(WINDOW + endTag.length + 1, size - position);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = length - startTag.length - 1; i >= 0; i--) {
+                if (i + endTag.length < length && matches(window, i, endTag) && isNameEnd(window.get(i + endTag.length))) {
+                    lastEnd = position + i;
+                    break;
+                }
+                if (lastStart < 0 && matches(window, i, startTag) && isNameEnd(window.get(i + startTag.length))) {
+                    lastStart = position + i;
+                }
+            }
+            if (position == 0) {
+                break;
+            }
+        }
+        /* the last record is an empty element, if there is no end tag after its start tag */
+        long from = (lastStart > lastEnd) ? lastStart : lastEnd;
+        ByteBuffer rest = channel.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+        for (int i = 0; i < rest.limit(); i++) {
+            if (rest.get(i) == '>') {
+                return from + i + 1;
+            }
+        }
+        throw exception("The last record of the XML input is not complete");
+    }
+
+    private static boolean matches(ByteBuffer buffer, int position, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameEnd(byte next) {
+        return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+    }
+
+    /* the ancestors of the records, as they are found before the first record */
+    private static Element firstRecord(File input, QName recordName) {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(input));
+             RecordReader reader = new RecordReader(stream, recordName)) {
+            Element root = reader.next();
+            if (root == null) {
+                return null;
+            }
+            Node record = root;
+            while (!isRecord(record, recordName)) {
+                record = record.getFirstChild();
+            }
+            return (Element) record;
+        } catch (IOException ex) {
+            throw exception("Unable to read the XML input " + input, ex);
+        }
+    }
+
+    private static X3MLEngine.X3MLException differentParents(Element ancestor, long start) {
+        return exception("The records after the byte " + start + " of the XML input are not children of the same element "
+                + "as the first record (an end tag of " + ancestor.getNodeName() + " or of its descendants was found "
+                + "between the records). Such inputs can only be read one record at a time without parallel parsing");
+    }
+
+    private static boolean isRecord(Node node, QName recordName) {
+        return node.getNodeType() == Node.ELEMENT_NODE && recordName.getLocalPart().equals(node.getLocalName()) 
+                && recordName.getNamespaceURI().equals(namespace(node));
+    }
+
+    private static String namespace(Node node) {
+        return node.getNamespaceURI() == null ? "" : node.getNamespaceURI();
+    }
+
+    private static Charset charset(File input) {
+        byte[] prolog = new byte[256];
+        int length;
+        try (InputStream stream = new FileInputStream(input)) {
+            length = Math.max(0, stream.read(prolog));
+        } catch (IOException ex) {
+            throw exception("Unable to read the XML input " + input, ex);
+        }
+        if (length >= 2 && ((prolog[0] == (byte) 0xFE && prolog[1] == (byte) 0xFF) || (prolog[0] == (byte) 0xFF && prolog[1] == (byte) 0xFE))) {
+            throw exception("The XML input is encoded in UTF-16, it can only be read one record at a time without parallel parsing");
+        }
+        Matcher matcher = ENCODING.matcher(new String(prolog, 0, length, StandardCharsets.ISO_8859_1));
+        return matcher.find() ? Charset.forName(matcher.group(1)) : StandardCharsets.UTF_8;
+    }
+
+    private static String startTag(Element element) {
+        StringBuilder tag = new StringBuilder("<").append(element.getNodeName());
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            tag.append(' ').append(attribute.getName()).append("=\"");
+            for (char character : attribute.getValue().toCharArray()) {
+                switch (character) {
+                    case '&': tag.append("&amp;"); break;
+                    case '<': tag.append("&lt;"); break;
+                    case '"': tag.append("&quot;"); break;
+                    case '\t': tag.append("&#9;"); break;
+                    case '\n': tag.append("&#10;"); break;
+                    case '\r': tag.append("&#13;"); break;
+                    default: tag.append(character);
+                }
+            }
+            tag.append('"');
+        }
+        return tag.append('>').toString();
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
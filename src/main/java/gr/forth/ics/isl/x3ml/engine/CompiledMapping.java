@@ -0,0 +1,637 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import lombok.extern.log4j.Log4j;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.xpath.XPathFactoryImpl;
+import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
+import static gr.forth.ics.isl.x3ml.engine.X3ML.*;
+
+/** The compiled form of the XPath expressions of an X3ML mapping. The mapping tree
+ * is walked once (when the mappings are loaded) and every XPath expression that
+ * can be found (source nodes, source relations, join keys, generator arguments
+ * and conditions) is compiled. The compiled expressions are then reused by every
+ * execution of the mappings. Invalid XPath expressions are reported at load time.
+ * <p>
+ * The expressions are compiled with the Saxon configuration of the engine, which is
+ * shared by all the executions, together with the cache for the expressions that are
+ * not part of the mappings (e.g. the ones that are built for the joins) and the
+ * compiled expressions for the inputs that have been parsed into a TinyTree with the
+ * same configuration. The compiled mappings can be shared by concurrent executions.
+ * <p>
+ * The join indexes that every mapping uses are also found while walking the mappings,
+ * so that every execution knows when an index is no longer needed.
+ * <p>
+ * Finally the mappings are grouped by their dependencies: two mappings depend on each other 
+ * if they use the same global variable, or if they can generate values for the same input 
+ * nodes (the generated values of a node are shared by all the mappings). The input nodes 
+ * of a mapping are approximated by the names of the last steps of its source nodes and 
+ * relations; a mapping whose expressions cannot be approximated this way (e.g. *, or a 
+ * union) depends on every other mapping. The mappings of different groups can be applied 
+ * concurrently.
+ */
+@Log4j
+public class CompiledMapping {
+    private final Configuration configuration;
+    private final XPathExpressionCache expressionCache;
+    private final NamespaceContext namespaceContext;
+    private final Map<String, XPathExpression> expressions;
+    private final Map<String, SimpleXPath> simplePaths;
+    private final Map<Mapping, Set<JoinIndexes.Key>> joinIndexKeys;
+    private final Map<JoinIndexes.Key, Integer> joinIndexUsers;
+    private final Map<Mapping, Set<String>> globalVariables;
+    private final List<List<Integer>> mappingGroups;
+    private TinyTreeInput tinyTreeInput;
+
+    private CompiledMapping(Configuration configuration, XPathExpressionCache expressionCache, NamespaceContext namespaceContext,
+                            Map<String, XPathExpression> expressions, Map<String, SimpleXPath> simplePaths,
+                            Map<Mapping, Set<JoinIndexes.Key>> joinIndexKeys, Map<Mapping, Set<String>> globalVariables,
+                            List<List<Integer>> mappingGroups) {
+        this.configuration = configuration;
+        this.expressionCache = expressionCache;
+        this.namespaceContext = namespaceContext;
+        this.expressions = Collections.unmodifiableMap(expressions);
+        this.simplePaths = Collections.unmodifiableMap(simplePaths);
+        this.joinIndexKeys = Collections.unmodifiableMap(joinIndexKeys);
+        Map<JoinIndexes.Key, Integer> users = new HashMap<>();
+        for (Set<JoinIndexes.Key> keys : joinIndexKeys.values()) {
+            for (JoinIndexes.Key key : keys) {
+                Integer count = users.get(key);
+                users.put(key, count == null ? 1 : count + 1);
+            }
+        }
+        this.joinIndexUsers = Collections.unmodifiableMap(users);
+        this.globalVariables = Collections.unmodifiableMap(globalVariables);
+        this.mappingGroups = Collections.unmodifiableList(mappingGroups);
+    }
+
+    /** Walks the given mappings and compiles all the XPath expressions they contain.
+     *
+     * @param rootElement the mappings
+     * @param namespaceContext the namespaces declared in the mappings
+     * @return the compiled mappings
+     * @throws gr.forth.ics.isl.x3ml.X3MLEngine.X3MLException if any of the XPath expressions of the mappings cannot be compiled */
+    public static CompiledMapping compile(RootElement rootElement, NamespaceContext namespaceContext) {
+        return compile(rootElement, namespaceContext, new Configuration());
+    }
+
+    /** Walks the given mappings and compiles all the XPath expressions they contain, 
+     * using the given Saxon configuration.
+     *
+     * @param rootElement the mappings
+     * @param namespaceContext the namespaces declared in the mappings
+     * @param configuration the Saxon configuration of the engine
+     * @return the compiled mappings
+     * @throws gr.forth.ics.isl.x3ml.X3MLEngine.X3MLException if any of the XPath expressions of the mappings cannot be compiled */
+    public static CompiledMapping compile(RootElement rootElement, NamespaceContext namespaceContext, Configuration configuration) {
+        XPathExpressionCache expressionCache = new XPathExpressionCache(new XPathFactoryImpl(configuration));
+        Compiler compiler = new Compiler(rootElement, namespaceContext, expressionCache);
+        compiler.compileMappings();
+        if (!compiler.errors.isEmpty()) {
+            StringBuilder message = new StringBuilder("Invalid XPath expressions found in the mappings:");
+            for (String error : compiler.errors) {
+                message.append("\n").append(error);
+            }
+            throw exception(message.toString());
+        }
+        log.debug("Compiled " + compiler.compiled.size() + " XPath expressions of the mappings ("
+                + compiler.simplePaths.size() + " of them are simple paths)");
+        List<List<Integer>> mappingGroups = compiler.groupMappings();
+        log.debug("Found " + mappingGroups.size() + " groups of independent mappings");
+        return new CompiledMapping(configuration, expressionCache, namespaceContext, compiler.compiled, compiler.simplePaths, compiler.joinIndexKeys, compiler.globalVariables, mappingGroups);
+    }
+
+    /** Returns the compiled form of the given expression if it was found in the mappings.
+     *
+     * @param expression the XPath expression
+     * @param namespaceContext the namespace context the expression is going to be evaluated with
+     * @return the compiled expression, or null if the expression was not precompiled */
+    public XPathExpression get(String expression, NamespaceContext namespaceContext) {
+        if (namespaceContext != this.namespaceContext) {
+            return null;
+        }
+        return expressions.get(expression);
+    }
+
+    /** Returns the given expression as a simple path that can be evaluated by walking
+     * the tree directly, if it was found in the mappings and it is a simple path.
+     *
+     * @param expression the XPath expression
+     * @param namespaceContext the namespace context the expression is going to be evaluated with
+     * @return the simple path, or null if the expression is not a simple path of the mappings */
+    public SimpleXPath getSimplePath(String expression, NamespaceContext namespaceContext) {
+        if (namespaceContext != this.namespaceContext) {
+            return null;
+        }
+        return simplePaths.get(expression);
+    }
+
+    /** Checks if the given expression was found in the mappings.
+     *
+     * @param expression the XPath expression
+     * @param namespaceContext the namespace context the expression is going to be evaluated with
+     * @return true if the expression was compiled together with the mappings */
+    public boolean contains(String expression, NamespaceContext namespaceContext) {
+        return namespaceContext == this.namespaceContext && expressions.containsKey(expression);
+    }
+
+    /** Returns the cache that is shared by all the executions, for the expressions that 
+     * are not part of the mappings. The cache has a fixed size (see XPathExpressionCache).
+     *
+     * @return the shared expressions cache */
+    public XPathExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
+
+    /** Returns the evaluator for an input that has been parsed into a TinyTree with the given
+     * configuration. If the configuration is the one of the engine, the evaluator (and the
+     * expressions it has compiled) is shared by all the executions.
+     *
+     * @param treeConfiguration the configuration that was used for building the input tree
+     * @param namespaceContext the namespace context the expressions are going to be evaluated with
+     * @return the TinyTree evaluator */
+    public TinyTreeInput getTinyTreeInput(Configuration treeConfiguration, NamespaceContext namespaceContext) {
+        if (treeConfiguration != configuration || namespaceContext != this.namespaceContext) {
+            return new TinyTreeInput(treeConfiguration, namespaceContext);
+        }
+        synchronized (this) {
+            if (tinyTreeInput == null) {
+                tinyTreeInput = new TinyTreeInput(configuration, namespaceContext, expressions.keySet(), XPathExpressionCache.DEFAULT_CAPACITY);
+            }
+            return tinyTreeInput;
+        }
+    }
+
+    /** Returns the keys of the join indexes that are used by the links of the given mapping.
+     *
+     * @param mapping one of the compiled mappings
+     * @return the keys of the join indexes of the mapping (empty if the mapping has no joins) */
+    public Set<JoinIndexes.Key> getJoinIndexKeys(Mapping mapping) {
+        Set<JoinIndexes.Key> keys = joinIndexKeys.get(mapping);
+        return (keys == null) ? Collections.<JoinIndexes.Key>emptySet() : keys;
+    }
+
+    /** Returns the global variables that are declared in the entities of the given mapping 
+     * (either in its domain or in its links).
+     *
+     * @param mapping one of the compiled mappings
+     * @return the names of the global variables of the mapping (empty if it declares none) */
+    public Set<String> getGlobalVariables(Mapping mapping) {
+        Set<String> variables = globalVariables.get(mapping);
+        return (variables == null) ? Collections.<String>emptySet() : variables;
+    }
+
+    /** Returns the number of mappings that use every join index.
+     *
+     * @return the number of mappings per join index key */
+    public Map<JoinIndexes.Key, Integer> getJoinIndexUsers() {
+        return joinIndexUsers;
+    }
+
+    /** Returns the groups of the mappings that do not depend on the mappings of the other 
+     * groups. The mappings are identified by their position in the mappings (starting from 0), 
+     * every group keeps them in the order they are declared, and the groups are ordered by 
+     * their first mapping. The skipped mappings do not belong to any group.
+     *
+     * @return the groups of independent mappings */
+    public List<List<Integer>> getMappingGroups() {
+        return mappingGroups;
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    public int size() {
+        return expressions.size();
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledMapping[expressions=" + size() + "]";
+    }
+
+    private static class Compiler {
+        private static final Pattern NAME = Pattern.compile("^(?:([\\p{L}_][\\p{L}\\p{N}._\\-]*):)?([\\p{L}_][\\p{L}\\p{N}._\\-]*)$");
+        private static final Pattern UNION = Pattern.compile("\\sunion\\s");
+        private static final Pattern AXIS = Pattern.compile("^(child|descendant|descendant-or-self|attribute)::(.*)$");
+        private final RootElement rootElement;
+        private final NamespaceContext namespaceContext;
+        private final XPathExpressionCache cache;
+        private final Map<String, XPathExpression> compiled = new HashMap<>();
+        private final Map<String, SimpleXPath> simplePaths = new HashMap<>();
+        private final Map<Mapping, Set<JoinIndexes.Key>> joinIndexKeys = new IdentityHashMap<>();
+        private final Map<Mapping, Set<String>> globalVariables = new IdentityHashMap<>();
+        private final List<String> errors = new ArrayList<>();
+        private final Map<Integer, Set<String>> dependencies = new LinkedHashMap<>();
+        private Set<String> mappingDependencies;
+        private int mappingCounter;
+        private Mapping mapping;
+
+        private Compiler(RootElement rootElement, NamespaceContext namespaceContext, XPathExpressionCache cache) {
+            this.rootElement = rootElement;
+            this.namespaceContext = namespaceContext;
+            this.cache = cache;
+        }
+
+        private void compileMappings() {
+            if (rootElement.mappings == null || rootElement.mappings.mappings == null) {
+                return;
+            }
+            for (Mapping mapping : rootElement.mappings.mappings) {
+                mappingCounter++;
+                if (mapping.skipMapping() || mapping.domain == null) {
+                    continue;
+                }
+                this.mappingDependencies = new HashSet<>();
+                dependencies.put(mappingCounter - 1, mappingDependencies);
+                this.mapping = mapping;
+                addNodeDependency(mapping.domain.source_node == null ? null : mapping.domain.source_node.expression, false);
+                compileSource(mapping.domain.source_node);
+                compileTargetNode(mapping.domain.target_node);
+                if (mapping.links == null) {
+                    continue;
+                }
+                for (LinkElement link : mapping.links) {
+                    if (!link.skipLink()) {
+                        compileLink(link);
+                    }
+                }
+            }
+        }
+
+        /* groups the mappings that depend on each other (directly or through other mappings) */
+        private List<List<Integer>> groupMappings() {
+            Map<Integer, Integer> parents = new HashMap<>();
+            Map<String, Integer> firstUsers = new HashMap<>();
+            Integer dependsOnAll = null;
+            for (Map.Entry<Integer, Set<String>> entry : dependencies.entrySet()) {
+                Integer position = entry.getKey();
+                parents.put(position, position);
+                for (String dependency : entry.getValue()) {
+                    Integer firstUser = firstUsers.get(dependency);
+                    if (firstUser == null) {
+                        firstUsers.put(dependency, position);
+                    } else {
+                        union(parents, firstUser, position);
+                    }
+                }
+                if (entry.getValue().contains(null)) {
+                    dependsOnAll = position;
+                }
+            }
+            if (dependsOnAll != null) {
+                for (Integer position : dependencies.keySet()) {
+                    union(parents, dependsOnAll, position);
+                }
+            }
+            Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+            for (Integer position : dependencies.keySet()) {
+                Integer root = find(parents, position);
+                List<Integer> group = groups.get(root);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(root, group);
+                }
+                group.add(position);
+            }
+            return new ArrayList<>(groups.values());
+        }
+
+        private static Integer find(Map<Integer, Integer> parents, Integer position) {
+            Integer root = position;
+            while (!parents.get(root).equals(root)) {
+                root = parents.get(root);
+            }
+            Integer current = position;
+            while (!current.equals(root)) {
+                Integer next = parents.get(current);
+                parents.put(current, root);
+                current = next;
+            }
+            return root;
+        }
+
+        /* the group of the earlier mapping becomes the group of both, so the groups are ordered by their first mapping */
+        private static void union(Map<Integer, Integer> parents, Integer first, Integer second) {
+            Integer firstRoot = find(parents, first);
+            Integer secondRoot = find(parents, second);
+            if (firstRoot < secondRoot) {
+                parents.put(secondRoot, firstRoot);
+            } else if (secondRoot < firstRoot) {
+                parents.put(firstRoot, secondRoot);
+            }
+        }
+
+        /* Adds the name of the nodes that the given expression selects to the dependencies of the 
+         * mapping, or null if the name cannot be found (e.g. for unions and function calls, which 
+         * may select nodes of more than one name). Relative expressions that select the context 
+         * node (.) select a node that has already been added (the domain node or the path node). */
+        private void addNodeDependency(String expression, boolean relative) {
+            if (expression == null) {
+                return;
+            }
+            String step = expression.trim();
+            if (selectsManyNames(step)) {
+                mappingDependencies.add(null);
+                return;
+            }
+            while (step.endsWith("]")) {
+                int depth = 0;
+                int start = step.length() - 1;
+                for (; start >= 0; start--) {
+                    char character = step.charAt(start);
+                    if (character == ']') {
+                        depth++;
+                    } else if (character == '[' && --depth == 0) {
+                        break;
+                    }
+                }
+                if (start <= 0) {
+                    mappingDependencies.add(null);
+                    return;
+                }
+                step = step.substring(0, start).trim();
+            }
+            step = step.substring(step.lastIndexOf('/') + 1).trim();
+            Matcher axis = AXIS.matcher(step);
+            if (axis.matches()) {
+                step = axis.group(1).equals("attribute") ? "@" + axis.group(2) : axis.group(2);
+            }
+            if (relative && step.equals(".")) {
+                return;
+            }
+            if (step.equals("text()")) {
+                mappingDependencies.add(step);
+                return;
+            }
+            boolean attribute = step.startsWith("@");
+            Matcher name = NAME.matcher(attribute ? step.substring(1) : step);
+            String namespace = "";
+            if (name.matches() && name.group(1) != null) {
+                namespace = namespaceContext == null ? null : namespaceContext.getNamespaceURI(name.group(1));
+            }
+            if (!name.matches() || namespace == null || (name.group(1) != null && namespace.isEmpty())) {
+                mappingDependencies.add(null);
+                return;
+            }
+            mappingDependencies.add((attribute ? "@" : "") + "{" + namespace + "}" + name.group(2));
+        }
+
+        /* checks whether the expression has a union or a function call outside its predicates 
+         * (the text() of the last step is not a function call) */
+        private static boolean selectsManyNames(String expression) {
+            String path = (expression.equals("text()") || expression.endsWith("/text()")) ? expression.substring(0, expression.length() - 6) : expression;
+            StringBuilder outside = new StringBuilder();
+            int depth = 0;
+            for (char character : path.toCharArray()) {
+                if (character == '[') {
+                    depth++;
+                } else if (character == ']') {
+                    depth--;
+                } else if (depth == 0) {
+                    outside.append(character);
+                }
+            }
+            return outside.indexOf("|") >= 0 || outside.indexOf("(") >= 0 || UNION.matcher(outside).find();
+        }
+
+        private void compileLink(LinkElement link) {
+            if (link.path != null) {
+                if (link.path.source_relation != null && link.path.source_relation.relation != null) {
+                    List<Relation> relations = link.path.source_relation.relation;
+                    for (Relation relation : relations) {
+                        compileRelation(relation);
+                    }
+                    Source nodeInside = link.path.source_relation.node;
+                    if (nodeInside != null) {
+                        addNodeDependency(nodeInside.expression, true);
+                    }
+                    if (nodeInside != null && nodeInside.expression != null && !relations.isEmpty()
+                            && relations.get(0).expression != null && relations.get(0).expression.contains("==")) {
+                        String intermediateFirst = relations.get(0).expression.substring(relations.get(0).expression.indexOf("==") + 2).trim();
+                        compile(nodeInside.expression.trim() + "//" + intermediateFirst + "/text()", true);
+                    }
+                }
+                if (link.path.target_relation != null) {
+                    compileCondition(link.path.target_relation.condition);
+                    if (link.path.target_relation.entities != null) {
+                        for (EntityElement entity : link.path.target_relation.entities) {
+                            compileEntity(entity);
+                        }
+                    }
+                }
+            }
+            if (link.range != null) {
+                addNodeDependency(link.range.source_node == null ? null : link.range.source_node.expression, true);
+                compileSource(link.range.source_node);
+                compileTargetNode(link.range.target_node);
+                addJoinIndexKey(link);
+            }
+        }
+
+        /* the same range expression and key path that Domain.createLinkContexts uses for the joins */
+        private void addJoinIndexKey(LinkElement link) {
+            if (link.path == null || link.path.source_relation == null || link.path.source_relation.relation == null
+                    || link.path.source_relation.relation.isEmpty() || link.range.source_node == null
+                    || link.range.source_node.expression == null) {
+                return;
+            }
+            List<Relation> relations = link.path.source_relation.relation;
+            String first = relations.get(0).expression;
+            if (first == null || !first.contains("==")) {
+                return;
+            }
+            Set<JoinIndexes.Key> keys = joinIndexKeys.get(mapping);
+            if (keys == null) {
+                keys = new LinkedHashSet<>();
+                joinIndexKeys.put(mapping, keys);
+            }
+            String rangePrimaryKey;
+            Source nodeInside = link.path.source_relation.node;
+            if (nodeInside != null) {
+                if (nodeInside.expression == null || relations.size() < 2 || relations.get(1).expression == null
+                        || !relations.get(1).expression.contains("==")) {
+                    return;
+                }
+                String second = relations.get(1).expression.trim();
+                rangePrimaryKey = second.substring(second.indexOf("==") + 2).trim();
+                keys.add(new JoinIndexes.Key(nodeInside.expression,
+                        first.trim().substring(first.trim().indexOf("==") + 2).trim(),
+                        second.substring(0, second.indexOf("==")).trim()));
+            } else {
+                rangePrimaryKey = first.substring(first.indexOf("==") + 2).trim();
+            }
+            keys.add(new JoinIndexes.Key(link.range.source_node.expression, rangePrimaryKey + "/text()"));
+        }
+
+        /* join relations (e.g. "fk == pk") are not XPath expressions themselves,
+         * but both of their sides are evaluated as XPath expressions */
+        private void compileRelation(Relation relation) {
+            if (relation.expression == null) {
+                return;
+            }
+            int equals = relation.expression.indexOf("==");
+            if (equals >= 0) {
+                addNodeDependency(relation.expression.substring(0, equals), true);
+                addNodeDependency(relation.expression.substring(equals + 2), true);
+                compile(relation.expression.substring(0, equals).trim() + "/text()", true);
+                compile(relation.expression.substring(equals + 2).trim() + "/text()", true);
+            } else {
+                addNodeDependency(relation.expression, true);
+                compile(relation.expression, true);
+            }
+        }
+
+        private void compileSource(Source source) {
+            if (source != null && (source.skip == null || !source.skip.equalsIgnoreCase("true"))) {
+                compile(source.expression, true);
+            }
+        }
+
+        private void compileTargetNode(TargetNode targetNode) {
+            if (targetNode != null) {
+                compileCondition(targetNode.condition);
+                compileEntity(targetNode.entityElement);
+            }
+        }
+
+        private void compileEntity(EntityElement entity) {
+            if (entity == null) {
+                return;
+            }
+            if (entity.globalVariable != null) {
+                mappingDependencies.add("$" + entity.globalVariable);
+                Set<String> variables = globalVariables.get(mapping);
+                if (variables == null) {
+                    variables = new LinkedHashSet<>();
+                    globalVariables.put(mapping, variables);
+                }
+                variables.add(entity.globalVariable);
+            }
+            compileGenerator(entity.instanceGenerator);
+            if (entity.labelGenerators != null) {
+                for (LabelGeneratorElement labelGenerator : entity.labelGenerators) {
+                    compileGenerator(labelGenerator);
+                }
+            }
+            if (entity.additionals != null) {
+                for (Additional additional : entity.additionals) {
+                    if (additional.entityElement != null) {
+                        for (EntityElement additionalEntity : additional.entityElement) {
+                            compileEntity(additionalEntity);
+                        }
+                    }
+                }
+            }
+        }
+
+        /* Arguments that are explicitly declared as XPath expressions must be valid.
+         * Arguments without a type follow the type of the generator policy, so they
+         * are only compiled opportunistically. */
+        private void compileGenerator(GeneratorElement generator) {
+            if (generator == null || generator.getArgs() == null) {
+                return;
+            }
+            for (GeneratorArg arg : generator.getArgs()) {
+                if (arg.type == null) {
+                    if (rootElement.sourceType == SourceType.xpath) {
+                        compile(arg.value, false);
+                    }
+                } else if (arg.type.equals(SourceType.xpath.name())) {
+                    compile(arg.value, true);
+                }
+            }
+        }
+
+        private void compileCondition(Condition condition) {
+            if (condition == null) {
+                return;
+            }
+            if (condition.exists != null) {
+                compile(condition.exists.expression, true);
+            }
+            if (condition.equals != null) {
+                compile(condition.equals.expression, true);
+            }
+            if (condition.broader != null) {
+                compile(condition.broader.expression, true);
+            }
+            if (condition.exact_match != null) {
+                compile(condition.exact_match.expression, true);
+            }
+            if (condition.and != null && condition.and.list != null) {
+                for (Condition inner : condition.and.list) {
+                    compileCondition(inner);
+                }
+            }
+            if (condition.or != null && condition.or.list != null) {
+                for (Condition inner : condition.or.list) {
+                    compileCondition(inner);
+                }
+            }
+            if (condition.not != null) {
+                compileCondition(condition.not.condition);
+            }
+        }
+
+        private void compile(String expression, boolean mandatory) {
+            if (expression == null || expression.isEmpty() || compiled.containsKey(expression)) {
+                return;
+            }
+            try {
+                compiled.put(expression, cache.compile(expression, namespaceContext));
+                SimpleXPath simplePath = SimpleXPath.parse(expression, namespaceContext);
+                if (simplePath != null) {
+                    simplePaths.put(expression, simplePath);
+                }
+            } catch (XPathExpressionException ex) {
+                if (mandatory) {
+                    errors.add("Mapping " + mappingCounter + ": \"" + expression + "\" (" + rootCause(ex) + ")");
+                } else {
+                    log.debug("Argument \"" + expression + "\" of mapping " + mappingCounter + " is not an XPath expression");
+                }
+            }
+        }
+
+        private static String rootCause(Throwable throwable) {
+            Throwable cause = throwable;
+            while (cause.getCause() != null && cause.getCause() != cause) {
+                cause = cause.getCause();
+            }
+            return cause.getMessage();
+        }
+    }
+}
@@ -40,11 +40,9 @@ import static org.joox.JOOX.$;
  * @author Yannis Marketakis &lt;marketak@ics.forth.gr&gt;
  */
 public class Domain extends GeneratorContext {
-    public static Node domainNode;
     public final DomainElement domain;
     public EntityResolver entityResolver;
     private Map<String, X3ML.GeneratedValue> variables = new TreeMap<>();
-    public static Map<String, X3ML.GeneratedValue> globalVariables = new TreeMap<>();
 
     public Domain(Root.Context context, DomainElement domain, Node node, int index) {
         super(context, null, node, index);
@@ -55,7 +53,7 @@ public class Domain extends GeneratorContext {
     public GeneratedValue get(String variable, VariableScope scope){
         switch(scope){
             case GLOBAL:
-                return globalVariables.get(variable);
+                return context.execution().getGlobalVariables().get(variable);
             case WITHIN_MAPPING:
             default: 
                 return variables.get(variable);
@@ -66,7 +64,7 @@ public class Domain extends GeneratorContext {
     public void put(String variable, VariableScope scope, GeneratedValue generatedValue){
         switch(scope){
             case GLOBAL:
-                globalVariables.put(variable, generatedValue);
+                context.execution().getGlobalVariables().put(variable, generatedValue);
             case WITHIN_MAPPING:
             default:
                 variables.put(variable, generatedValue);
@@ -74,7 +72,7 @@ public class Domain extends GeneratorContext {
     }
 
     public boolean resolve(String mappingNamedGraph) {
-        domainNode=node;
+        context.execution().setDomainNode(node);
         if (conditionFails(domain.target_node.condition, this)) {
             return false;
         }
@@ -101,47 +99,57 @@ public class Domain extends GeneratorContext {
         int index = 1;
 
 
-        int size = context.input().countNodes(node.getParentNode(), node_inside + "//" + intermediateFirst + "/text()");
+        String foreignKeyValue = context.input().valueAt(node, domainForeignKey + "/text()");
+        JoinIndexes.Intermediate intermediate = context.input().intermediate(node_inside, intermediateFirst, intermediateSecond);
+        List<Integer> positions;
+        if (intermediate != null) {
+            positions = intermediate.positions(foreignKeyValue);
+        } else {
+            positions = new ArrayList<>();
+            int size = context.input().countNodes(node.getParentNode(), node_inside + "//" + intermediateFirst + "/text()");
+            for (int count = 1; count <= size; count++) {
+                if (context.input().valueAt(node.getParentNode(),
+                        node_inside + "[" + count + "]//" + intermediateFirst + "/text()")
+                        .equals(foreignKeyValue)) {
+                    positions.add(count);
+                }
+            }
+        }
 
-        for (int count = 1; count <= size; count++) {
-            if (context.input().valueAt(node.getParentNode(),
-                    node_inside + "[" + count + "]//" + intermediateFirst + "/text()")
-                    .equals(context.input().valueAt(node, domainForeignKey + "/text()"))) {
-                
-                String intermediateValue=context.input().valueAt(node, node_inside + "[" + count + "]//" + intermediateSecond + "/text()");
-                if(intermediateValue.isEmpty()){
-                    Utils.printErrorMessages("Empty value for "+node_inside+"/"+intermediateSecond+". The node from the XML input is:\n"+$(node).toString());
+        for (int count : positions) {
+            String intermediateValue = (intermediate != null) ? intermediate.valueAt(count)
+                    : context.input().valueAt(node, node_inside + "[" + count + "]//" + intermediateSecond + "/text()");
+            if(intermediateValue.isEmpty()){
+                Utils.printErrorMessages("Empty value for "+node_inside+"/"+intermediateSecond+". The node from the XML input is:\n"+$(node).toString());
+            }
+            List<Node> rangeNodes = context.input().rootNodeList(
+                    domain.source_node.expression,
+                    pathExpression,
+                    intermediateValue,
+                    rangeExpression,
+                    rangePrimaryKey + "/text()"
+            );
+
+            for (Node rangeNode : rangeNodes) {
+
+                Path path = new Path(context, this, pathElement, node, index);
+
+                Range range = new Range(context, path, rangeElement, rangeNode, index);
+                String node_inside_path=node_inside;
+                if(node_inside_path.startsWith("/"+node.getParentNode().getNodeName())){
+                    node_inside_path=node_inside_path.replace("/"+node.getParentNode().getNodeName(),"");
                 }
-                List<Node> rangeNodes = context.input().rootNodeList(
-                        domain.source_node.expression,
-                        pathExpression,
-                        context.input().valueAt(node, node_inside + "[" + count + "]//" + intermediateSecond + "/text()"),
-                        rangeExpression,
-                        rangePrimaryKey + "/text()"
-                );
-
-                for (Node rangeNode : rangeNodes) {
-
-                    Path path = new Path(context, this, pathElement, node, index);
-
-                    Range range = new Range(context, path, rangeElement, rangeNode, index);
-                    String node_inside_path=node_inside;
-                    if(node_inside_path.startsWith("/"+node.getParentNode().getNodeName())){
-                        node_inside_path=node_inside_path.replace("/"+node.getParentNode().getNodeName(),"");
-                    }
-                        
-                    GeneratorContext.appendAssociationTable("/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]/" + intermediateFirst.replaceAll("//", "/"), context.input().valueAt(node, domainForeignKey + "/text()"));
-                    GeneratorContext.appendAssociationTable("/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]//" + intermediateSecond.replaceAll("//", "/"), context.input().valueAt(rangeNode, rangePrimaryKey + "/text()"));
-                    GeneratorContext.appendAssociationTable(path.toStringAssoc()+"/"+domainForeignKey+"=="+"/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]/" + intermediateFirst.replaceAll("//", "/")+"-DJOIN_FOREIGNKEY", context.input().valueAt(node, domainForeignKey + "/text()"));
-                    GeneratorContext.appendAssociationTable("/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]//" + intermediateSecond.replaceAll("//", "/")+"=="+range.toStringAssoc()+"/"+rangePrimaryKey+"-DJOIN_FOREIGNKEY", context.input().valueAt(rangeNode, rangePrimaryKey + "/text()"));
                     
-                    Link link = new Link(path, range);
-                    if (link.resolve()) {
-                        links.add(link);
-                    }
-                    index++;
+                GeneratorContext.appendAssociationTable("/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]/" + intermediateFirst.replaceAll("//", "/"), foreignKeyValue);
+                GeneratorContext.appendAssociationTable("/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]//" + intermediateSecond.replaceAll("//", "/"), context.input().valueAt(rangeNode, rangePrimaryKey + "/text()"));
+                GeneratorContext.appendAssociationTable(path.toStringAssoc()+"/"+domainForeignKey+"=="+"/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]/" + intermediateFirst.replaceAll("//", "/")+"-DJOIN_FOREIGNKEY", foreignKeyValue);
+                GeneratorContext.appendAssociationTable("/"+node.getParentNode().getNodeName()+"[1]"+"/"+node_inside_path + "[" + count + "]//" + intermediateSecond.replaceAll("//", "/")+"=="+range.toStringAssoc()+"/"+rangePrimaryKey+"-DJOIN_FOREIGNKEY", context.input().valueAt(rangeNode, rangePrimaryKey + "/text()"));
+                
+                Link link = new Link(path, range);
+                if (link.resolve()) {
+                    links.add(link);
                 }
-
+                index++;
             }
 
         }
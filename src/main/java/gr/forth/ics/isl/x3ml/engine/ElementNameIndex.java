@@ -0,0 +1,247 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.namespace.NamespaceContext;
+import lombok.extern.log4j.Log4j;
+import org.w3c.dom.Node;
+
+/** An index of the elements of the input by their (namespace-qualified) name.
+ * The index is built once for the whole input document, with a single pass
+ * that keeps the elements of every name in document order.
+ * <p>
+ * Expressions that only select the descendants with a given name
+ * (e.g. "//foo", "descendant::foo", ".//prefix:foo") are answered from the index,
+ * instead of scanning the subtree of the context node. The descendants of a node are
+ * found with a binary search, because the elements of every name are kept in document
+ * order together with the position where the subtree of every element ends.
+ * Any other expression is left to the XPath processor.
+ * <p>
+ * The index is shared by the workers that process the domain nodes in parallel:
+ * it is built by the first of them that needs it, and it is only read after that.
+ */
+@Log4j
+public class ElementNameIndex {
+    private static final Pattern DESCENDANT_STEP = Pattern.compile(
+            "^(//|\\.//|descendant::|descendant-or-self::|\\./descendant::|\\./descendant-or-self::)"
+            + "([\\p{L}_][\\p{L}\\p{N}._\\-]*(?::[\\p{L}_][\\p{L}\\p{N}._\\-]*)?)$");
+    private static final Step NOT_INDEXED = new Step(null, false, false);
+    private final Node rootNode;
+    private final NamespaceContext namespaceContext;
+    private final NodeIdentity nodeIdentity;
+    private final Map<String, Step> steps = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private Map<String, Entries> entries;
+    private Map<Long, Long> subtreeEnds;
+    private boolean unusable;
+    private volatile boolean built;
+
+    public ElementNameIndex(Node rootNode, NamespaceContext namespaceContext, NodeIdentity nodeIdentity) {
+        this.rootNode = rootNode;
+        this.namespaceContext = namespaceContext;
+        this.nodeIdentity = nodeIdentity;
+    }
+
+    /** Returns the nodes selected by the given expression, if the expression only
+     * selects descendants by their name.
+     *
+     * @param context the context node
+     * @param expression the XPath expression
+     * @return the selected nodes in document order, or null if the expression cannot be answered from the index */
+    public List<Node> select(Node context, String expression) {
+        Step step = step(expression);
+        if (step == NOT_INDEXED) {
+            return null;
+        }
+        if (!built) {
+            build();
+        }
+        if (unusable) {
+            return null;
+        }
+        long from;
+        long to;
+        if (step.absolute || context.getNodeType() == Node.DOCUMENT_NODE) {
+            from = Long.MIN_VALUE;
+            to = Long.MAX_VALUE;
+        } else if (context.getNodeType() == Node.ELEMENT_NODE) {
+            long ordinal = nodeIdentity.of(context);
+            Long end = subtreeEnds.get(ordinal);
+            if (end == null) {
+                return null;
+            }
+            from = step.includeSelf ? ordinal : ordinal + 1;
+            to = end;
+        } else {
+            return null;
+        }
+        hits.incrementAndGet();
+        Entries named = entries.get(step.name);
+        List<Node> nodes = new ArrayList<>();
+        if (named == null) {
+            return nodes;
+        }
+        for (int index = named.firstAtOrAfter(from); index < named.size && named.ordinals[index] <= to; index++) {
+            nodes.add(named.nodes.get(index));
+        }
+        return nodes;
+    }
+
+    /** Returns the number of expressions that have been answered from the index.
+     *
+     * @return the number of index lookups */
+    public long getHits() {
+        return hits.get();
+    }
+
+    private Step step(String expression) {
+        Step step = steps.get(expression);
+        if (step == null) {
+            step = parse(expression.trim());
+            steps.put(expression, step);
+        }
+        return step;
+    }
+
+    private Step parse(String expression) {
+        Matcher matcher = DESCENDANT_STEP.matcher(expression);
+        if (!matcher.matches()) {
+            return NOT_INDEXED;
+        }
+        String axis = matcher.group(1);
+        String qname = matcher.group(2);
+        String uri = "";
+        String localName = qname;
+        int colon = qname.indexOf(':');
+        if (colon > 0) {
+            if (namespaceContext == null) {
+                return NOT_INDEXED;
+            }
+            uri = namespaceContext.getNamespaceURI(qname.substring(0, colon));
+            if (uri == null || uri.isEmpty()) {
+                return NOT_INDEXED;
+            }
+            localName = qname.substring(colon + 1);
+        }
+        return new Step(key(uri, localName), axis.equals("//"), axis.endsWith("descendant-or-self::"));
+    }
+
+    /* a single pass over the document, without recursion (the nodes of a TinyTree 
+     * get a new DOM view every time they are visited, so they are compared with isSameNode) */
+    private synchronized void build() {
+        if (built) {
+            return;
+        }
+        entries = new HashMap<>();
+        subtreeEnds = new HashMap<>();
+        Node top = rootNode.getOwnerDocument() != null ? rootNode.getOwnerDocument() : rootNode;
+        List<Long> open = new ArrayList<>();
+        Node current = top;
+        long last = Long.MIN_VALUE;
+        while (current != null) {
+            if (current.getNodeType() == Node.ELEMENT_NODE) {
+                if (current.getLocalName() == null) {
+                    log.debug("The input has not been parsed with namespaces, the element name index is not used");
+                    unusable = true;
+                    entries = null;
+                    subtreeEnds = null;
+                    built = true;
+                    return;
+                }
+                last = nodeIdentity.of(current);
+                String uri = current.getNamespaceURI() == null ? "" : current.getNamespaceURI();
+                String name = key(uri, current.getLocalName());
+                Entries named = entries.get(name);
+                if (named == null) {
+                    named = new Entries();
+                    entries.put(name, named);
+                }
+                named.add(last, current);
+                open.add(last);
+            }
+            if (current.getFirstChild() != null) {
+                current = current.getFirstChild();
+                continue;
+            }
+            while (!current.isSameNode(top) && current.getNextSibling() == null) {
+                close(current, open, last);
+                current = current.getParentNode();
+            }
+            if (current.isSameNode(top)) {
+                current = null;
+            } else {
+                close(current, open, last);
+                current = current.getNextSibling();
+            }
+        }
+        built = true;
+        log.debug("Built the element name index with " + entries.size() + " names");
+    }
+
+    /* every element is closed once, after all of its descendants, so the open elements form a stack */
+    private void close(Node node, List<Long> open, long last) {
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+            subtreeEnds.put(open.remove(open.size() - 1), last);
+        }
+    }
+
+    private static String key(String uri, String localName) {
+        return uri.isEmpty() ? localName : "{" + uri + "}" + localName;
+    }
+
+    private static final class Step {
+        private final String name;
+        private final boolean absolute;
+        private final boolean includeSelf;
+
+        private Step(String name, boolean absolute, boolean includeSelf) {
+            this.name = name;
+            this.absolute = absolute;
+            this.includeSelf = includeSelf;
+        }
+    }
+
+    private static final class Entries {
+        private long[] ordinals = new long[4];
+        private final List<Node> nodes = new ArrayList<>();
+        private int size;
+
+        private void add(long ordinal, Node node) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+            nodes.add(node);
+        }
+
+        private int firstAtOrAfter(long ordinal) {
+            int index = Arrays.binarySearch(ordinals, 0, size, ordinal);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+}
@@ -48,7 +48,7 @@ import org.w3c.dom.Node;
  */
 public class EntityResolver {
 
-    public static ModelOutput modelOutput;
+    public final ModelOutput modelOutput;
     public final X3ML.EntityElement entityElement;
     public final GeneratorContext generatorContext;
     public List<LabelNode> labelNodes;
@@ -56,11 +56,9 @@ public class EntityResolver {
     public List<Resource> resources;
     public Literal literal;
     private boolean failed;
-    public static int additionalCounter=1;
-    public static int namedGraphUriCounter=1;
 
     EntityResolver(ModelOutput modelOutput, X3ML.EntityElement entityElement, GeneratorContext generatorContext) {
-        EntityResolver.modelOutput = modelOutput;
+        this.modelOutput = modelOutput;
         this.entityElement = entityElement;
         this.generatorContext = generatorContext;
     }
@@ -83,6 +81,7 @@ public class EntityResolver {
         if (failed) {
             return false;
         }
+        ExecutionContext execution = generatorContext.context.execution();
         if (resources == null) {
             StringBuilder unique = new StringBuilder();
             Set<String> uniqueTypes=new TreeSet<>();
@@ -97,11 +96,11 @@ public class EntityResolver {
             if(additionalNodeIndex>0 || indermediateNodeIndex>0){
                 if(additionalNodeIndex>0){
                     if(this.entityElement.variable==null){
-                        uniqueValue=unique.toString()+"-additional-"+X3ML.RootElement.linkCounter+"-"+additionalNodeIndex;
+                        uniqueValue=unique.toString()+"-additional-"+execution.getLinkCounter()+"-"+additionalNodeIndex;
                     }
                 }else{
                     if(this.entityElement.variable==null){
-                        uniqueValue=unique.toString()+"-intermediate-"+X3ML.RootElement.linkCounter+"-"+indermediateNodeIndex;
+                        uniqueValue=unique.toString()+"-intermediate-"+execution.getLinkCounter()+"-"+indermediateNodeIndex;
                     }
                 }
             }
@@ -126,7 +125,7 @@ public class EntityResolver {
                 try{
                     generatedValue = entityElement.getInstance(generatorContext, uniqueValue);
                 }catch(Exception ex){
-                    X3MLEngine.exceptionMessagesList+=ex.toString()+"\n";
+                    execution.addExceptionMessage(ex.toString());
                     Utils.printErrorMessages(ex.toString());
                 }
             }
@@ -150,31 +149,31 @@ public class EntityResolver {
                                     }else{
                                         namedGraph="http://"+mappingNamedGraph+generatedValue.text.replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_");
                                     }
-                                    X3ML.Mapping.namedGraphProduced=namedGraph;
+                                    execution.setMappingNamedGraph(namedGraph);
                                 }
                             }else{
-                                namedGraph=X3ML.Mapping.namedGraphProduced;
+                                namedGraph=execution.getMappingNamedGraph();
                             }
                             resources.add(modelOutput.createTypedResource(generatedValue.text, typeElement));
                             if(domainNamedGraph!=null && !domainNamedGraph.isEmpty()){
                                 if(domainNamedGraph!=null){
                                     if(domainNamedGraph.isEmpty()){
-                                        X3ML.DomainElement.namedGraphProduced=generatedValue.text;
+                                        execution.setDomainNamedGraph(generatedValue.text);
                                     }else if(domainNamedGraph.startsWith("http://") || domainNamedGraph.startsWith("https://") || domainNamedGraph.startsWith("uuid:") || domainNamedGraph.startsWith("urn:")){
-                                        X3ML.DomainElement.namedGraphProduced=domainNamedGraph+generatedValue.text.replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_");
+                                        execution.setDomainNamedGraph(domainNamedGraph+generatedValue.text.replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_"));
                                     }else{
-                                        X3ML.DomainElement.namedGraphProduced="http://"+domainNamedGraph+generatedValue.text.replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_");
+                                        execution.setDomainNamedGraph("http://"+domainNamedGraph+generatedValue.text.replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_"));
                                     }
                                 }
 
-                                X3ML.RootElement.hasNamedGraphs=true;
-                                ModelOutput.quadGraph.add(new ResourceImpl(X3ML.DomainElement.namedGraphProduced).asNode(), 
+                                execution.useNamedGraphs();
+                                execution.getQuadGraph().add(new ResourceImpl(execution.getDomainNamedGraph()).asNode(), 
                                         new ResourceImpl(generatedValue.text).asNode(), 
                                         new ResourceImpl("http://www.w3.org/1999/02/22-rdf-syntax-ns#type").asNode(),
                                         new ResourceImpl(modelOutput.getNamespace(typeElement)).asNode());
                             }                            
                             if(namedGraph!=null){
-                                ModelOutput.quadGraph.add(new ResourceImpl(namedGraph).asNode(),
+                                execution.getQuadGraph().add(new ResourceImpl(namedGraph).asNode(),
                                         new ResourceImpl(generatedValue.text).asNode(), 
                                         new ResourceImpl("http://www.w3.org/1999/02/22-rdf-syntax-ns#type").asNode(),
                                         new ResourceImpl(modelOutput.getNamespace(typeElement)).asNode());
@@ -232,7 +231,7 @@ public class EntityResolver {
         if (additionalList != null) {
 
             for (Additional additional : additionalList) {
-                AdditionalNode additionalNode = new AdditionalNode(modelOutput, additional, generatorContext, additionalCounter++);
+                AdditionalNode additionalNode = new AdditionalNode(modelOutput, additional, generatorContext, generatorContext.context.execution().nextAdditionalIndex());
                 if (additionalNode.resolve()) {
                     additionalNodes.add(additionalNode);
                 }
@@ -275,14 +274,16 @@ public class EntityResolver {
 
 
         public void linkFrom(Resource fromResource, Derivation derivedBy) {
+            ExecutionContext execution=generatorContext.context.execution();
+            String mappingNamedGraph=execution.getMappingNamedGraph();
             Resource lastResource=fromResource;
             for(int i=0;i<additionalEntityResolver.size();i++){
                 additionalEntityResolver.get(i).link(Derivation.Additional);
                 if (additionalEntityResolver.get(i).hasResources()) {
                     for (Resource resource : additionalEntityResolver.get(i).resources) {
                         lastResource.addProperty(property.get(i), resource);
-                        if(X3ML.Mapping.namedGraphProduced!=null && !X3ML.Mapping.namedGraphProduced.isEmpty()){
-                            ModelOutput.quadGraph.add(new ResourceImpl(X3ML.Mapping.namedGraphProduced).asNode(),
+                        if(mappingNamedGraph!=null && !mappingNamedGraph.isEmpty()){
+                            execution.getQuadGraph().add(new ResourceImpl(mappingNamedGraph).asNode(),
                                                       fromResource.asNode(), 
                                                       property.get(i).asNode(),
                                                       resource.asNode());
@@ -291,8 +292,8 @@ public class EntityResolver {
                     lastResource=additionalEntityResolver.get(i).resources.get(0);
                 } else if (additionalEntityResolver.get(i).hasLiteral()) {
                     lastResource.addLiteral(property.get(i), additionalEntityResolver.get(i).literal);
-                    if(X3ML.Mapping.namedGraphProduced!=null && !X3ML.Mapping.namedGraphProduced.isEmpty()){
-                        ModelOutput.quadGraph.add(new ResourceImpl(X3ML.Mapping.namedGraphProduced).asNode(),
+                    if(mappingNamedGraph!=null && !mappingNamedGraph.isEmpty()){
+                        execution.getQuadGraph().add(new ResourceImpl(mappingNamedGraph).asNode(),
                                                   fromResource.asNode(), 
                                                   property.get(i).asNode(),
                                                   additionalEntityResolver.get(i).literal.asNode());
@@ -315,7 +316,7 @@ public class EntityResolver {
                     }
                     }catch(X3MLEngine.X3MLException ex){
                         String errorMessage=Utils.produceLabelGeneratorEmptyArgumentError(generator);
-                        X3MLEngine.exceptionMessagesList+=errorMessage+"\n";
+                        generatorContext.context.execution().addExceptionMessage(errorMessage);
                         Utils.printErrorMessages(errorMessage);
                     }
             }
@@ -355,20 +356,21 @@ public class EntityResolver {
         }
 
         public void linkFrom(Resource fromResource, Derivation derivedBy) {
+            ExecutionContext execution=generatorContext.context.execution();
             fromResource.addLiteral(property, literal);
-            if(X3ML.Mapping.namedGraphProduced!=null && !X3ML.Mapping.namedGraphProduced.isEmpty()){
-                ModelOutput.quadGraph.add(new ResourceImpl(X3ML.Mapping.namedGraphProduced).asNode(),
+            if(execution.getMappingNamedGraph()!=null && !execution.getMappingNamedGraph().isEmpty()){
+                execution.getQuadGraph().add(new ResourceImpl(execution.getMappingNamedGraph()).asNode(),
                                         fromResource.asNode(), 
                                         property.asNode(),
                                         literal.asNode());
-            }if(X3ML.DomainElement.namedGraphProduced!=null && !X3ML.DomainElement.namedGraphProduced.isEmpty() && derivedBy==Derivation.Domain){
-                ModelOutput.quadGraph.add(new ResourceImpl(X3ML.DomainElement.namedGraphProduced).asNode(),
+            }if(execution.getDomainNamedGraph()!=null && !execution.getDomainNamedGraph().isEmpty() && derivedBy==Derivation.Domain){
+                execution.getQuadGraph().add(new ResourceImpl(execution.getDomainNamedGraph()).asNode(),
                                         fromResource.asNode(), 
                                         property.asNode(),
                                         literal.asNode());
             }if(derivedBy==Derivation.Path || derivedBy==Derivation.Range){
-                if(X3ML.LinkElement.namedGraphProduced!=null && !X3ML.LinkElement.namedGraphProduced.isEmpty()){
-                    ModelOutput.quadGraph.add(new ResourceImpl(X3ML.LinkElement.namedGraphProduced).asNode(),
+                if(execution.getLinkNamedGraph()!=null && !execution.getLinkNamedGraph().isEmpty()){
+                    execution.getQuadGraph().add(new ResourceImpl(execution.getLinkNamedGraph()).asNode(),
                                         fromResource.asNode(), 
                                         property.asNode(),
                                         literal.asNode());
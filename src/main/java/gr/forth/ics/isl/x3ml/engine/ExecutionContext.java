@@ -0,0 +1,313 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
+import com.hp.hpl.jena.sparql.core.DatasetGraphSimpleMem;
+import com.hp.hpl.jena.sparql.core.Quad;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.w3c.dom.Node;
+import static gr.forth.ics.isl.x3ml.engine.X3ML.GeneratedValue;
+
+/**
+ * The state of a single execution of the mappings. Every execution of the engine creates
+ * its own context, which is shared by all the inputs (or records) of the execution and by
+ * their outputs, so different executions can run at the same time in the same JVM.
+ * <p>
+ * The context keeps the global variables, the URIs of the ancestors of the records, the quads
+ * of the named graphs, the named graphs of the mapping, domain and link that are being applied,
+ * the counters of the mappings and the links (that are also used in the messages) and the error
+ * messages of the execution.
+ * <p>
+ * When the domain nodes of a mapping are processed in parallel, every worker has a fork of 
+ * the context (see fork()), which shares the global variables and the numbering of the 
+ * additional nodes with the context of the execution, and keeps its own error messages and 
+ * quads until they are merged into it.
+ */
+public class ExecutionContext {
+    private static final ThreadLocal<ExecutionContext> CURRENT = new ThreadLocal<>();
+    private final boolean reportProgress;
+    private final StringBuilder exceptionMessages = new StringBuilder();
+    private final Map<String, GeneratedValue> globalVariables;
+    private final Map<String, GeneratedValue> ancestorValues;
+    private final AtomicLong ancestorIdentities;
+    private final DatasetGraph quadGraph = new DatasetGraphSimpleMem();
+    private final AtomicInteger additionalCounter;
+    private int mappingCounter;
+    private int mappingsTotal;
+    private int linkCounter;
+    private int linksTotal;
+    private boolean namedGraphs;
+    private String mappingsNamedGraph;
+    private String mappingNamedGraph;
+    private String domainNamedGraph;
+    private String linkNamedGraph;
+    private Node domainNode;
+    private String domainURIForNamedGraphs;
+    private String entireInputExportedRefUri;
+
+    public ExecutionContext() {
+        this(false);
+    }
+
+    /** Creates the context of a new execution.
+     *
+     * @param reportProgress true for reporting the progress of the mappings */
+    public ExecutionContext(boolean reportProgress) {
+        this(reportProgress, Collections.synchronizedMap(new TreeMap<String, GeneratedValue>()), 
+                new ConcurrentHashMap<String, GeneratedValue>(), new AtomicLong(), new AtomicInteger(1));
+    }
+
+    private ExecutionContext(boolean reportProgress, Map<String, GeneratedValue> globalVariables, Map<String, GeneratedValue> ancestorValues, 
+                             AtomicLong ancestorIdentities, AtomicInteger additionalCounter) {
+        this.reportProgress = reportProgress;
+        this.globalVariables = globalVariables;
+        this.ancestorValues = ancestorValues;
+        this.ancestorIdentities = ancestorIdentities;
+        this.additionalCounter = additionalCounter;
+    }
+
+    /* Creates the context of a worker that processes a part of the domain nodes of a mapping. 
+     * The progress is not reported by the workers. */
+    ExecutionContext fork() {
+        ExecutionContext fork = new ExecutionContext(false, globalVariables, ancestorValues, ancestorIdentities, additionalCounter);
+        fork.resume(this);
+        return fork;
+    }
+
+    /* Takes over the state of the mapping that is being applied (before a worker starts) */
+    void resume(ExecutionContext other) {
+        this.mappingCounter = other.mappingCounter;
+        this.mappingsTotal = other.mappingsTotal;
+        this.linkCounter = other.linkCounter;
+        this.linksTotal = other.linksTotal;
+        this.namedGraphs = other.namedGraphs;
+        this.mappingsNamedGraph = other.mappingsNamedGraph;
+        this.mappingNamedGraph = other.mappingNamedGraph;
+        this.domainNamedGraph = other.domainNamedGraph;
+        this.linkNamedGraph = other.linkNamedGraph;
+        this.domainNode = other.domainNode;
+        this.domainURIForNamedGraphs = other.domainURIForNamedGraphs;
+        this.entireInputExportedRefUri = other.entireInputExportedRefUri;
+    }
+
+    /* Moves the error messages and the quads of a worker into this context. The workers are merged 
+     * in the order of their domain nodes, so this context ends up with the state of the last one. */
+    void merge(ExecutionContext fork) {
+        exceptionMessages.append(fork.exceptionMessages);
+        fork.exceptionMessages.setLength(0);
+        for (Iterator<Quad> quads = fork.quadGraph.find(); quads.hasNext();) {
+            quadGraph.add(quads.next());
+        }
+        fork.quadGraph.clear();
+        boolean namedGraphsUsed = this.namedGraphs || fork.namedGraphs;
+        this.resume(fork);
+        this.namedGraphs = namedGraphsUsed;
+    }
+
+    /** Returns the context of the execution that runs in the current thread. It is only
+     * used for adding the position of the mappings to the messages of the components that
+     * do not have access to the context (e.g. the generator policy).
+     *
+     * @return the context of the current execution, or null if there is no execution in this thread */
+    public static ExecutionContext current() {
+        return CURRENT.get();
+    }
+
+    /** Makes this context the context of the current thread, until leave() is called.
+     *
+     * @return the context that was the context of the current thread before (it can be null) */
+    public ExecutionContext enter() {
+        ExecutionContext previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /** Restores the context that the current thread had before enter() was called.
+     *
+     * @param previous the context that enter() has returned */
+    public void leave(ExecutionContext previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public boolean isReportProgress() {
+        return reportProgress;
+    }
+
+    public void addExceptionMessage(String message) {
+        exceptionMessages.append(message).append("\n");
+    }
+
+    /** Returns the error messages of the mappings that could not be applied during the execution.
+     *
+     * @return the error messages (one per line), or an empty string if there were no errors */
+    public String getExceptionMessages() {
+        return exceptionMessages.toString();
+    }
+
+    /** Returns the global variables of the execution. The map is synchronized, and the 
+     * generation of the value of a global variable should synchronize on it.
+     *
+     * @return the global variables */
+    public Map<String, GeneratedValue> getGlobalVariables() {
+        return globalVariables;
+    }
+
+    /** Returns the URIs that are generated for the ancestors of the records of a streaming 
+     * execution. Every record is a tree of its own, with its own copy of the ancestors of the 
+     * record element (see RecordReader.ancestorKey(Node)), so the URIs of the ancestors are kept 
+     * here, where all the records find them.
+     *
+     * @return the generated URIs, by the key of the ancestor and the unique suffix of the value */
+    public Map<String, GeneratedValue> getAncestorValues() {
+        return ancestorValues;
+    }
+
+    /** Returns the last identity that has been given to an ancestor of the records of the execution. 
+     * The readers of all the inputs of an execution take the identities of the ancestors from here, 
+     * so the ancestors of different inputs never share their URIs (see getAncestorValues()).
+     *
+     * @return the counter of the identities of the ancestors */
+    public AtomicLong getAncestorIdentities() {
+        return ancestorIdentities;
+    }
+
+    public DatasetGraph getQuadGraph() {
+        return quadGraph;
+    }
+
+    public int getMappingCounter() {
+        return mappingCounter;
+    }
+
+    public void setMappingCounter(int mappingCounter) {
+        this.mappingCounter = mappingCounter;
+    }
+
+    public int getMappingsTotal() {
+        return mappingsTotal;
+    }
+
+    public void setMappingsTotal(int mappingsTotal) {
+        this.mappingsTotal = mappingsTotal;
+    }
+
+    public int getLinkCounter() {
+        return linkCounter;
+    }
+
+    public void setLinkCounter(int linkCounter) {
+        this.linkCounter = linkCounter;
+    }
+
+    public int getLinksTotal() {
+        return linksTotal;
+    }
+
+    public void setLinksTotal(int linksTotal) {
+        this.linksTotal = linksTotal;
+    }
+
+    /** Returns the next number for an additional node (the numbers are unique within the execution).
+     *
+     * @return the number of the next additional node */
+    public int nextAdditionalIndex() {
+        return additionalCounter.getAndIncrement();
+    }
+
+    /** Checks whether the mappings have produced named graphs, so the output should be exported as quads.
+     *
+     * @return true if named graphs have been produced */
+    public boolean hasNamedGraphs() {
+        return namedGraphs;
+    }
+
+    public void useNamedGraphs() {
+        this.namedGraphs = true;
+    }
+
+    public String getMappingsNamedGraph() {
+        return mappingsNamedGraph;
+    }
+
+    public void setMappingsNamedGraph(String mappingsNamedGraph) {
+        this.mappingsNamedGraph = mappingsNamedGraph;
+    }
+
+    public String getMappingNamedGraph() {
+        return mappingNamedGraph;
+    }
+
+    public void setMappingNamedGraph(String mappingNamedGraph) {
+        this.mappingNamedGraph = mappingNamedGraph;
+    }
+
+    public String getDomainNamedGraph() {
+        return domainNamedGraph;
+    }
+
+    public void setDomainNamedGraph(String domainNamedGraph) {
+        this.domainNamedGraph = domainNamedGraph;
+    }
+
+    public String getLinkNamedGraph() {
+        return linkNamedGraph;
+    }
+
+    public void setLinkNamedGraph(String linkNamedGraph) {
+        this.linkNamedGraph = linkNamedGraph;
+    }
+
+    /** Returns the input node of the domain that is being resolved.
+     *
+     * @return the node of the current domain */
+    public Node getDomainNode() {
+        return domainNode;
+    }
+
+    public void setDomainNode(Node domainNode) {
+        this.domainNode = domainNode;
+    }
+
+    public String getDomainURIForNamedGraphs() {
+        return domainURIForNamedGraphs;
+    }
+
+    public void setDomainURIForNamedGraphs(String domainURIForNamedGraphs) {
+        this.domainURIForNamedGraphs = domainURIForNamedGraphs;
+    }
+
+    public String getEntireInputExportedRefUri() {
+        return entireInputExportedRefUri;
+    }
+
+    public void setEntireInputExportedRefUri(String entireInputExportedRefUri) {
+        this.entireInputExportedRefUri = entireInputExportedRefUri;
+    }
+}
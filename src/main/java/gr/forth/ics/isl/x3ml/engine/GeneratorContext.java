@@ -18,7 +18,6 @@ under the License.
 ==============================================================================*/
 package gr.forth.ics.isl.x3ml.engine;
 
-import gr.forth.ics.isl.x3ml.X3MLEngine;
 import org.w3c.dom.Node;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.ArgValue;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.Condition;
@@ -121,31 +120,9 @@ public abstract class GeneratorContext {
         }
         GeneratedValue generatedValue;
         if(globalVariable != null){
-            generatedValue = get(globalVariable, VariableScope.GLOBAL);
-            if (generatedValue == null) {
-                generatedValue = context.policy().generate(generator, new Generator.ArgValues() {
-                    @Override
-                    public ArgValue getArgValue(String name, SourceType sourceType, boolean mergeMultipleValues) {
-                        try{
-                            return context.input().evaluateArgument(node, index, generator, name, sourceType, mergeMultipleValues);
-                        }catch(Exception ex){   
-                            /*We are doing this for the cases where the XPATH expression does not hold (i.e. 
-                            the elemennt is missing or is empty). In this case we should construct a UUID instead 
-                            of simply throwing an error message. Related issue: #72 */
-                            if(generator.getName().equals(Labels.URIorUUID)){
-                                return new ArgValue("X", "en"); 
-                            }else{
-                                throw exception(ex.getMessage(),ex);
-                            } 
-                        }
-                    }
-                });
-                put(globalVariable, VariableScope.GLOBAL, generatedValue);
-            }
-        }
-        else if(variable != null){
-            if(variable_deprecated!=null){
-                generatedValue = get(variable_deprecated, VariableScope.WITHIN_MAPPING);
+            /* the value is generated once, even if the domain nodes are processed in parallel */
+            synchronized (context.execution().getGlobalVariables()) {
+                generatedValue = get(globalVariable, VariableScope.GLOBAL);
                 if (generatedValue == null) {
                     generatedValue = context.policy().generate(generator, new Generator.ArgValues() {
                         @Override
@@ -164,17 +141,13 @@ public abstract class GeneratorContext {
                             }
                         }
                     });
-                    put(variable_deprecated,VariableScope.WITHIN_MAPPING, generatedValue);
-                    context.putGeneratedValue(extractXPath(node) + unique+"-"+variable, generatedValue);
-                    if(X3MLEngine.ENABLE_ASSOCIATION_TABLE){
-                        this.createAssociationTable(generatedValue, null, extractAssocTableXPath(node));
-                    }
+                    put(globalVariable, VariableScope.GLOBAL, generatedValue);
                 }
-            }else{
-//                String nodeName = extractXPath(node) + unique+"-"+typeAwareVar;
-                String nodeName = extractXPath(Domain.domainNode) + unique+"-"+variable;
-                generatedValue = context.getGeneratedValue(nodeName);
-                log.debug("Retrieved Generated Value: "+nodeName+"\t"+generatedValue);
+            }
+        }
+        else if(variable != null){
+            if(variable_deprecated!=null){
+                generatedValue = get(variable_deprecated, VariableScope.WITHIN_MAPPING);
                 if (generatedValue == null) {
                     generatedValue = context.policy().generate(generator, new Generator.ArgValues() {
                         @Override
@@ -193,20 +166,51 @@ public abstract class GeneratorContext {
                             }
                         }
                     });
-                    GeneratedValue genArg=null;
-                    if(generator.getName().equalsIgnoreCase("Literal")){
-                        genArg = context.policy().generate(generator, new Generator.ArgValues() {
+                    put(variable_deprecated,VariableScope.WITHIN_MAPPING, generatedValue);
+                    context.putGeneratedValue(node, unique+"-"+variable, generatedValue);
+                    if(context.usesAssociationTable()){
+                        this.createAssociationTable(generatedValue, null, extractAssocTableXPath(node));
+                    }
+                }
+            }else{
+//                String nodeName = extractXPath(node) + unique+"-"+typeAwareVar;
+                String uniqueName = unique+"-"+variable;
+                synchronized (context.generationLock(context.execution().getDomainNode())) {
+                    generatedValue = context.getGeneratedValue(context.execution().getDomainNode(), uniqueName);
+                    log.debug("Retrieved Generated Value: "+uniqueName+"\t"+generatedValue);
+                    if (generatedValue == null) {
+                        generatedValue = context.policy().generate(generator, new Generator.ArgValues() {
                             @Override
                             public ArgValue getArgValue(String name, SourceType sourceType, boolean mergeMultipleValues) {
-                                return context.input().evaluateArgument2(node, index, generator, name, sourceType);
-
+                                try{
+                                    return context.input().evaluateArgument(node, index, generator, name, sourceType, mergeMultipleValues);
+                                }catch(Exception ex){   
+                                    /*We are doing this for the cases where the XPATH expression does not hold (i.e. 
+                                    the elemennt is missing or is empty). In this case we should construct a UUID instead 
+                                    of simply throwing an error message. Related issue: #72 */
+                                    if(generator.getName().equals(Labels.URIorUUID)){
+                                        return new ArgValue("X", "en"); 
+                                    }else{
+                                        throw exception(ex.getMessage(),ex);
+                                    } 
+                                }
                             }
                         });
-                    }
-                    log.debug("put generated value: "+nodeName+"\t"+generatedValue);
-                    context.putGeneratedValue(nodeName, generatedValue);
-                    if(X3MLEngine.ENABLE_ASSOCIATION_TABLE){
-                        this.createAssociationTable(generatedValue, genArg, extractAssocTableXPath(node));
+                        GeneratedValue genArg=null;
+                        if(generator.getName().equalsIgnoreCase("Literal")){
+                            genArg = context.policy().generate(generator, new Generator.ArgValues() {
+                                @Override
+                                public ArgValue getArgValue(String name, SourceType sourceType, boolean mergeMultipleValues) {
+                                    return context.input().evaluateArgument2(node, index, generator, name, sourceType);
+
+                                }
+                            });
+                        }
+                        log.debug("put generated value: "+uniqueName+"\t"+generatedValue);
+                        context.putGeneratedValue(context.execution().getDomainNode(), uniqueName, generatedValue);
+                        if(context.usesAssociationTable()){
+                            this.createAssociationTable(generatedValue, genArg, extractAssocTableXPath(node));
+                        }
                     }
                 }
             }
@@ -225,44 +229,44 @@ public abstract class GeneratorContext {
                     we have to also add the generated value (so that the value can be re-used when the same 
                     input is exploited). Related issue= #66 */
                     put(variable_deprecated, VariableScope.WITHIN_MAPPING, generatedValue);
-                    String nodeName = extractXPath(node) + unique;
-                    context.putGeneratedValue(nodeName, generatedValue);
+                    context.putGeneratedValue(node, unique, generatedValue);
                 }
             }
             else{
-                String nodeName = extractXPath(node) + unique;
-                generatedValue = context.getGeneratedValue(nodeName);
-                if (generatedValue == null) {
-                    generatedValue = context.policy().generate(generator, new Generator.ArgValues() {
-                        @Override
-                        public ArgValue getArgValue(String name, SourceType sourceType, boolean mergeMultipleValues) {
-                            try{
-                                return context.input().evaluateArgument(node, index, generator, name, sourceType, mergeMultipleValues);
-                            }catch(Exception ex){   
-                                /*We are doing this for the cases where the XPATH expression does not hold (i.e. 
-                                the elemennt is missing or is empty). In this case we should construct a UUID instead 
-                                of simply throwing an error message. Related issue: #72 */
-                                if(generator.getName().equals(Labels.URIorUUID)){
-                                    return new ArgValue("X", "en"); 
-                                }else{
-                                    throw exception(ex.getMessage(),ex);
-                                } 
-                            }
-                        }
-                    });
-                    GeneratedValue genArg=null;
-                    if(generator.getName().equalsIgnoreCase("Literal")){
-                        genArg = context.policy().generate(generator, new Generator.ArgValues() {
+                synchronized (context.generationLock(node)) {
+                    generatedValue = context.getGeneratedValue(node, unique);
+                    if (generatedValue == null) {
+                        generatedValue = context.policy().generate(generator, new Generator.ArgValues() {
                             @Override
                             public ArgValue getArgValue(String name, SourceType sourceType, boolean mergeMultipleValues) {
-                                return context.input().evaluateArgument2(node, index, generator, name, sourceType);
-
+                                try{
+                                    return context.input().evaluateArgument(node, index, generator, name, sourceType, mergeMultipleValues);
+                                }catch(Exception ex){   
+                                    /*We are doing this for the cases where the XPATH expression does not hold (i.e. 
+                                    the elemennt is missing or is empty). In this case we should construct a UUID instead 
+                                    of simply throwing an error message. Related issue: #72 */
+                                    if(generator.getName().equals(Labels.URIorUUID)){
+                                        return new ArgValue("X", "en"); 
+                                    }else{
+                                        throw exception(ex.getMessage(),ex);
+                                    } 
+                                }
                             }
                         });
-                    }
-                    context.putGeneratedValue(nodeName, generatedValue);
-                    if(X3MLEngine.ENABLE_ASSOCIATION_TABLE){
-                        this.createAssociationTable(generatedValue, genArg, extractAssocTableXPath(node));
+                        GeneratedValue genArg=null;
+                        if(generator.getName().equalsIgnoreCase("Literal")){
+                            genArg = context.policy().generate(generator, new Generator.ArgValues() {
+                                @Override
+                                public ArgValue getArgValue(String name, SourceType sourceType, boolean mergeMultipleValues) {
+                                    return context.input().evaluateArgument2(node, index, generator, name, sourceType);
+
+                                }
+                            });
+                        }
+                        context.putGeneratedValue(node, unique, generatedValue);
+                        if(context.usesAssociationTable()){
+                            this.createAssociationTable(generatedValue, genArg, extractAssocTableXPath(node));
+                        }
                     }
                 }
             }
@@ -289,9 +293,7 @@ public abstract class GeneratorContext {
         }
         GeneratedValue generatedValue;
 
-        String nodeName = extractXPath(node) + unique;
-        String domainNodeName = extractXPath(domainNode) + unique;
-        generatedValue = context.getGeneratedValue(domainNodeName);
+        generatedValue = context.getGeneratedValue(domainNode, unique);
         
         if (generatedValue == null) {
             generatedValue = context.policy().generate(generator, new Generator.ArgValues() {
@@ -323,7 +325,7 @@ public abstract class GeneratorContext {
             }
         }
             
-        context.putGeneratedValue(nodeName, generatedValue);
+        context.putGeneratedValue(node, unique, generatedValue);
         if (generatedValue == null) {
             throw exception("Empty value produced");
         }
@@ -0,0 +1,39 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.util.List;
+import org.w3c.dom.Node;
+
+/** The range nodes of a join, by the value of their key. */
+interface JoinIndex {
+    /** Returns the range nodes with the given key, in document order.
+     *
+     * @param key the value of the key
+     * @return the range nodes (empty if there are none) */
+    List<Node> lookup(String key);
+
+    /** Returns the number of the range nodes of the index.
+     *
+     * @return the number of indexed nodes */
+    int size();
+
+    /** Releases the resources of the index. */
+    void close();
+}
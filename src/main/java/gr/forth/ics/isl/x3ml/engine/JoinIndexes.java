@@ -0,0 +1,449 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import gr.forth.Utils;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.extern.log4j.Log4j;
+import net.sf.saxon.s9api.SaxonApiException;
+import org.w3c.dom.Node;
+import static org.joox.JOOX.$;
+
+/** The indexes that are used for the joins of the links (e.g. "fk == pk"). An index
+ * maps the values of the key path of the range nodes to the range nodes that have them.
+ * The contents of an index only depend on the range expression and the key path,
+ * so an index is built once and it is shared by all the links that use the same
+ * range expression and key path, regardless of their domain.
+ * <p>
+ * When the mappings have been compiled, it is known in advance which mappings
+ * use every index. An index is released as soon as the last of these mappings
+ * has been applied, so that the indexes of join-heavy mappings do not remain
+ * in memory until the end of the execution. The keys of the range nodes of
+ * a TinyTree input are evaluated in parallel, when there are many of them.
+ * <p>
+ * The intermediate table of a double join (e.g. "srl == actr_srl", "//actr_vs_proj",
+ * "cptproj_srl == srl") is indexed in the same way: the positions of the intermediate 
+ * nodes are grouped by the value of their first key, so that the positions that match 
+ * a domain node are found without evaluating the positional expressions (e.g. 
+ * "//actr_vs_proj[3]//actr_srl/text()") for every position.
+ * <p>
+ * The indexes of large range tables can be kept in memory-mapped files instead of the heap
+ * (see MappedJoinIndex), when a threshold for the number of range nodes has been set.
+ * <p>
+ * The indexes of an input are shared by the workers that process its domain nodes in
+ * parallel. An index is built once, by the first worker that needs it (with the input
+ * of that worker), and it is only read after that.
+ */
+@Log4j
+public class JoinIndexes {
+    private static final int PARALLEL_THRESHOLD = 1000;
+    private static final Pattern INDEXED_INTERMEDIATE = Pattern.compile(
+            "^(/[^|(]*)?/[\\p{L}_][\\p{L}\\p{N}._\\-]*(?::[\\p{L}_][\\p{L}\\p{N}._\\-]*)?$");
+    private final XPathInput input;
+    private final Map<Key, Integer> remainingUsers;
+    private final Map<Key, JoinIndex> indexes = new ConcurrentHashMap<>();
+    private final Map<Key, Intermediate> intermediates = new ConcurrentHashMap<>();
+    private int spillThreshold = -1;
+    private File spillDirectory;
+    private long liveNodes;
+    private long peakNodes;
+    private int built;
+    private int released;
+
+    /** Creates the join indexes of an execution.
+     *
+     * @param input the input that the indexes are built from
+     * @param users the number of mappings that use every index (null if it is not known,
+     *              in which case the indexes are kept until the end of the execution) */
+    public JoinIndexes(XPathInput input, Map<Key, Integer> users) {
+        this.input = input;
+        this.remainingUsers = (users == null) ? null : new HashMap<>(users);
+    }
+
+    /** Returns the range nodes whose key has the given value, building the index if necessary.
+     *
+     * @param rangeExpression the expression that selects the range nodes (from the root of the input)
+     * @param keyPath the expression that selects the key of a range node
+     * @param value the value of the key
+     * @return the range nodes that have the given key, in document order */
+    public List<Node> lookup(String rangeExpression, String keyPath, String value) {
+        return lookup(input, rangeExpression, keyPath, value);
+    }
+
+    /* builds the missing index with the given input (the input of the calling worker) */
+    List<Node> lookup(XPathInput evaluator, String rangeExpression, String keyPath, String value) {
+        Key key = new Key(rangeExpression, keyPath);
+        JoinIndex index = indexes.get(key);
+        if (index == null) {
+            synchronized (this) {
+                index = indexes.get(key);
+                if (index == null) {
+                    index = build(evaluator, key);
+                    indexes.put(key, index);
+                }
+            }
+        }
+        return index.lookup(value);
+    }
+
+    /** Keeps the indexes with more range nodes than the given threshold in memory-mapped 
+     * files, instead of the heap.
+     *
+     * @param threshold the number of range nodes above which an index is written to the disk (negative for never)
+     * @param directory the directory of the index files (null for the default temporary directory) */
+    public synchronized void spillAbove(int threshold, File directory) {
+        this.spillThreshold = threshold;
+        this.spillDirectory = directory;
+    }
+
+    /** Returns the index of the intermediate table of a double join. The intermediate
+     * nodes are numbered as in the expression nodeInside[position], and they are grouped 
+     * by the value of nodeInside[position]//keyPath/text(). The index is only available for
+     * an absolute nodeInside expression whose last step is an element name, because then 
+     * the position of a node is its position among the siblings with the same name.
+     *
+     * @param nodeInside the expression that selects the intermediate nodes
+     * @param keyPath the path of the key that is compared with the foreign key of the domain
+     * @param valuePath the path of the key that is compared with the primary key of the range
+     * @return the index, or null if the positional expressions have to be evaluated one by one */
+    public Intermediate intermediate(String nodeInside, String keyPath, String valuePath) {
+        return intermediate(input, nodeInside, keyPath, valuePath);
+    }
+
+    /* builds the missing index with the given input (the input of the calling worker) */
+    Intermediate intermediate(XPathInput evaluator, String nodeInside, String keyPath, String valuePath) {
+        Key key = new Key(nodeInside, keyPath, valuePath);
+        Intermediate intermediate = intermediates.get(key);
+        if (intermediate == null) {
+            if (!INDEXED_INTERMEDIATE.matcher(nodeInside.trim()).matches() || keyPath.contains("|") || valuePath.contains("|")) {
+                return null;
+            }
+            synchronized (this) {
+                intermediate = intermediates.get(key);
+                if (intermediate == null) {
+                    intermediate = buildIntermediate(evaluator, key, nodeInside.trim());
+                    intermediates.put(key, intermediate);
+                }
+            }
+        }
+        return intermediate;
+    }
+
+    /** Declares that a mapping has been applied. The indexes that are not used
+     * by any of the remaining mappings are released.
+     *
+     * @param keys the keys of the indexes that are used by the mapping */
+    public synchronized void release(Collection<Key> keys) {
+        if (remainingUsers == null) {
+            return;
+        }
+        for (Key key : keys) {
+            Integer users = remainingUsers.get(key);
+            if (users == null) {
+                continue;
+            }
+            if (users > 1) {
+                remainingUsers.put(key, users - 1);
+                continue;
+            }
+            remainingUsers.remove(key);
+            JoinIndex index = indexes.remove(key);
+            if (index != null) {
+                index.close();
+                liveNodes -= index.size();
+                released++;
+                log.debug("Released the join index of " + key + " (" + index + ")");
+            }
+            Intermediate intermediate = intermediates.remove(key);
+            if (intermediate != null) {
+                liveNodes -= intermediate.size();
+                released++;
+                log.debug("Released the intermediate index of " + key + " (" + intermediate + ")");
+            }
+        }
+    }
+
+    /** Returns the number of indexes that are currently kept in memory.
+     *
+     * @return the number of live indexes */
+    public int size() {
+        return indexes.size() + intermediates.size();
+    }
+
+    /** Returns the number of range nodes that are referenced by the indexes that
+     * are currently kept in memory.
+     *
+     * @return the number of indexed nodes */
+    public synchronized long getLiveNodes() {
+        return liveNodes;
+    }
+
+    /** Returns the largest number of range nodes that have been referenced by the
+     * indexes at the same time.
+     *
+     * @return the peak number of indexed nodes */
+    public synchronized long getPeakNodes() {
+        return peakNodes;
+    }
+
+    public synchronized int getBuilt() {
+        return built;
+    }
+
+    public synchronized int getReleased() {
+        return released;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JoinIndexes[built=" + built + ", released=" + released + ", live=" + size()
+                + ", liveNodes=" + liveNodes + ", peakNodes=" + peakNodes + "]";
+    }
+
+    private JoinIndex build(final XPathInput evaluator, final Key key) {
+        long start = System.currentTimeMillis();
+        List<Node> rangeNodes = evaluator.evaluateNodeList(evaluator.getRootNode(), key.rangeExpression);
+        MappedJoinIndex.KeyValues keyValues = new MappedJoinIndex.KeyValues() {
+            @Override
+            public List<String> of(List<Node> nodes) {
+                return keyValues(evaluator, nodes, key);
+            }
+        };
+        JoinIndex index = null;
+        List<String> evaluated = new ArrayList<>();
+        if (spillThreshold >= 0 && rangeNodes.size() > spillThreshold) {
+            index = MappedJoinIndex.build(rangeNodes, keyValues, evaluator.getNodeIdentity(), spillDirectory, evaluated);
+        }
+        if (index == null) {
+            index = new MemoryIndex(rangeNodes, evaluated.isEmpty() ? keyValues.of(rangeNodes) : evaluated);
+        }
+        built++;
+        liveNodes += index.size();
+        peakNodes = Math.max(peakNodes, liveNodes);
+        log.debug("Built the join index of " + key + " (" + index + ") in " + (System.currentTimeMillis() - start) + " ms");
+        return index;
+    }
+
+    /* The nodes selected by "/path/name[position]" are the ones selected by "/path/name" that are
+     * the position-th child with this name of their parent, and the first result of 
+     * "/path/name[position]//key/text()" is the first result of the first of these nodes that has one */
+    private Intermediate buildIntermediate(XPathInput input, Key key, String nodeInside) {
+        long start = System.currentTimeMillis();
+        String keyExpression = ".//" + key.keyPath + "/text()";
+        String valueExpression = ".//" + key.valuePath + "/text()";
+        int size = input.evaluateNodeList(input.getRootNode(), nodeInside + "//" + key.keyPath + "/text()").size();
+        String[] keys = new String[size];
+        String[] values = new String[size];
+        Map<Long, Integer> siblings = new HashMap<>();
+        for (Node node : input.evaluateNodeList(input.getRootNode(), nodeInside)) {
+            long parent = input.getNodeIdentity().of(node.getParentNode());
+            Integer position = siblings.get(parent);
+            position = (position == null) ? 1 : position + 1;
+            siblings.put(parent, position);
+            if (position > size) {
+                continue;
+            }
+            if (keys[position - 1] == null && !input.evaluateNodeList(node, keyExpression).isEmpty()) {
+                keys[position - 1] = input.evaluateValue(node, keyExpression);
+            }
+            if (values[position - 1] == null && !input.evaluateNodeList(node, valueExpression).isEmpty()) {
+                values[position - 1] = input.evaluateValue(node, valueExpression);
+            }
+        }
+        Map<String, List<Integer>> positions = new HashMap<>();
+        for (int position = 1; position <= size; position++) {
+            if (keys[position - 1] == null) {
+                keys[position - 1] = "";
+            }
+            if (values[position - 1] == null) {
+                values[position - 1] = "";
+            }
+            List<Integer> sameKey = positions.get(keys[position - 1]);
+            if (sameKey == null) {
+                sameKey = new ArrayList<>(1);
+                positions.put(keys[position - 1], sameKey);
+            }
+            sameKey.add(position);
+        }
+        Intermediate intermediate = new Intermediate(positions, values);
+        built++;
+        liveNodes += intermediate.size();
+        peakNodes = Math.max(peakNodes, liveNodes);
+        log.debug("Built the intermediate index of " + key + " (" + intermediate + ") in " + (System.currentTimeMillis() - start) + " ms");
+        return intermediate;
+    }
+
+    /* the keys of the given range nodes, reporting the empty ones */
+    private static List<String> keyValues(XPathInput input, List<Node> rangeNodes, Key key) {
+        List<String> values = keyValues(input, rangeNodes, key.keyPath);
+        for (int i = 0; i < rangeNodes.size(); i++) {
+            if (values.get(i).isEmpty()) {
+                Utils.printErrorMessages("Empty value for \"" + key.rangeExpression + "/" + key.keyPath + "\"\t The node from the input XML is:\n" + $(rangeNodes.get(i)).toString());
+            }
+        }
+        return values;
+    }
+
+    /* The evaluation of a TinyTree is thread-safe, while the evaluation of a DOM tree is not */
+    private static List<String> keyValues(XPathInput input, List<Node> rangeNodes, final String keyPath) {
+        final TinyTreeInput tinyTreeInput = input.getTinyTreeInput();
+        if (tinyTreeInput == null || rangeNodes.size() < PARALLEL_THRESHOLD) {
+            List<String> values = new ArrayList<>(rangeNodes.size());
+            for (Node node : rangeNodes) {
+                values.add(input.evaluateValue(node, keyPath));
+            }
+            return values;
+        }
+        return rangeNodes.parallelStream().map(new Function<Node, String>() {
+            @Override
+            public String apply(Node node) {
+                try {
+                    return tinyTreeInput.valueAt(node, keyPath).trim();
+                } catch (SaxonApiException ex) {
+                    throw new RuntimeException("XPath Problem: " + keyPath, ex);
+                }
+            }
+        }).collect(Collectors.toList());
+    }
+
+    /** The identity of a join index: the range expression and the key path of the join 
+     * (or the intermediate expression and its two key paths, for the intermediate table of a double join). */
+    public static final class Key {
+        private final String rangeExpression;
+        private final String keyPath;
+        private final String valuePath;
+
+        public Key(String rangeExpression, String keyPath) {
+            this(rangeExpression, keyPath, null);
+        }
+
+        public Key(String intermediateExpression, String keyPath, String valuePath) {
+            this.rangeExpression = intermediateExpression;
+            this.keyPath = keyPath;
+            this.valuePath = valuePath;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return rangeExpression.equals(key.rangeExpression) && keyPath.equals(key.keyPath)
+                    && (valuePath == null ? key.valuePath == null : valuePath.equals(key.valuePath));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * rangeExpression.hashCode() + keyPath.hashCode()) + (valuePath == null ? 0 : valuePath.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            if (valuePath != null) {
+                return "\"" + rangeExpression + "\" (" + keyPath + ", " + valuePath + ")";
+            }
+            return "\"" + rangeExpression + "/" + keyPath + "\"";
+        }
+    }
+
+    /** The index of the intermediate table of a double join. */
+    public static final class Intermediate {
+        private final Map<String, List<Integer>> positions;
+        private final String[] values;
+
+        private Intermediate(Map<String, List<Integer>> positions, String[] values) {
+            this.positions = Collections.unmodifiableMap(positions);
+            this.values = values;
+        }
+
+        /** Returns the positions of the intermediate nodes whose first key has the given value.
+         *
+         * @param key the value of the foreign key of the domain
+         * @return the matching positions (starting from 1) in ascending order */
+        public List<Integer> positions(String key) {
+            List<Integer> found = positions.get(key);
+            return (found == null) ? Collections.<Integer>emptyList() : found;
+        }
+
+        /** Returns the value of the second key of the intermediate nodes at the given position.
+         *
+         * @param position the position (starting from 1)
+         * @return the value that is compared with the primary key of the range */
+        public String valueAt(int position) {
+            return values[position - 1];
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public String toString() {
+            return positions.size() + " keys, " + values.length + " positions";
+        }
+    }
+
+    private static final class MemoryIndex implements JoinIndex {
+        private final Map<String, List<Node>> nodes = new HashMap<>();
+        private final int size;
+
+        private MemoryIndex(List<Node> rangeNodes, List<String> values) {
+            for (int i = 0; i < rangeNodes.size(); i++) {
+                List<Node> sameValue = nodes.get(values.get(i));
+                if (sameValue == null) {
+                    sameValue = new ArrayList<>(1);
+                    nodes.put(values.get(i), sameValue);
+                }
+                sameValue.add(rangeNodes.get(i));
+            }
+            this.size = rangeNodes.size();
+        }
+
+        @Override
+        public List<Node> lookup(String key) {
+            List<Node> found = nodes.get(key);
+            return (found == null) ? new ArrayList<Node>() : found;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return nodes.size() + " keys, " + size + " nodes";
+        }
+    }
+}
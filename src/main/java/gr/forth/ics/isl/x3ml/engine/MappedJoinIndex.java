@@ -0,0 +1,304 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.extern.log4j.Log4j;
+import org.w3c.dom.Node;
+import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
+
+/** A join index that keeps the keys of the range nodes in a memory-mapped file,
+ * instead of a map in the heap. The file holds an open-addressing hash table from 
+ * the hash of every key to a chain of the range nodes with this hash, and every range 
+ * node is kept as its identity (see NodeIdentity) together with its key. The pages of 
+ * the file are loaded by the operating system when they are probed, so large range 
+ * tables do not have to fit in the heap.
+ * <p>
+ * The keys are written to the file as they are evaluated, one block of range nodes at 
+ * a time, so only the identities, the hashes and the file offsets of the range nodes 
+ * (three primitive arrays) are kept in the heap while the index is built. The chains are linked in 
+ * place, after the nodes have been sorted by their hash.
+ * <p>
+ * The file consists of a header (number of slots, nodes and distinct hashes), the slots 
+ * (the offset of the first node of every slot, or 0 for an empty slot) and the nodes in 
+ * document order (hash, offset of the next node with the same hash, identity, length 
+ * and UTF-8 bytes of the key). The file is unmapped and deleted when the index is released.
+ */
+@Log4j
+class MappedJoinIndex implements JoinIndex {
+    private static final int HEADER = 12;
+    private static final int NODE_HEADER = 20;
+    private static final int BLOCK = 4096;
+    private final NodeIdentity nodeIdentity;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int size;
+    private final int keys;
+    private boolean closed;
+
+    private MappedJoinIndex(NodeIdentity nodeIdentity, File file, MappedByteBuffer buffer) {
+        this.nodeIdentity = nodeIdentity;
+        this.file = file;
+        this.buffer = buffer;
+        this.slots = buffer.getInt(0);
+        this.size = buffer.getInt(4);
+        this.keys = buffer.getInt(8);
+    }
+
+    /** The keys of a block of range nodes. */
+    interface KeyValues {
+        /** Returns the keys of the given range nodes.
+         *
+         * @param rangeNodes a block of the range nodes, in document order
+         * @return the key of every node */
+        List<String> of(List<Node> rangeNodes);
+    }
+
+    /** Writes the keys of the given range nodes into a new file of the given directory, and maps it.
+     *
+     * @param rangeNodes the range nodes in document order
+     * @param keyValues the evaluation of the keys of the range nodes
+     * @param nodeIdentity the identities of the nodes of the input
+     * @param directory the directory of the file (null for the default temporary directory)
+     * @param evaluated the list that receives the keys of all the range nodes, if the keys turn out to be 
+     *                  too large for a single mapped file (so they do not have to be evaluated again)
+     * @return the index, or null if the range nodes cannot be found by their identity (checked before any 
+     *         key is evaluated) or if the index is too large for a single mapped file */
+    static MappedJoinIndex build(List<Node> rangeNodes, KeyValues keyValues, NodeIdentity nodeIdentity, File directory, List<String> evaluated) {
+        int count = rangeNodes.size();
+        long[] identities = new long[count];
+        for (int i = 0; i < count; i++) {
+            identities[i] = nodeIdentity.of(rangeNodes.get(i));
+            if (identities[i] < 0 || !rangeNodes.get(i).isSameNode(nodeIdentity.node(identities[i]))) {
+                log.debug("The range nodes cannot be found by their identity, the join index is kept in memory");
+                return null;
+            }
+        }
+        /* the hash of every node in the high bits and its position in the low bits, 
+         * so sorting gives the nodes of every hash in document order */
+        long[] order = new long[count];
+        int[] offsets = new int[count];
+        File file = null;
+        try {
+            file = File.createTempFile("x3ml-join-", ".idx", directory);
+            file.deleteOnExit();
+            long slotsEnd = HEADER + 4L * tableSize(count);
+            long offset = slotsEnd;
+            /* the writing stops at the first key that does not fit */
+            int written = 0;
+            List<String> keys = null;
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                output.write(new byte[(int) slotsEnd]);
+                for (int from = 0; from < count && written == from; from += BLOCK) {
+                    int to = Math.min(count, from + BLOCK);
+                    keys = keyValues.of(rangeNodes.subList(from, to));
+                    for (int i = from; i < to; i++) {
+                        String key = keys.get(i - from);
+                        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                        int hash = hash(key);
+                        if (offset + NODE_HEADER + bytes.length > Integer.MAX_VALUE) {
+                            break;
+                        }
+                        order[i] = ((long) hash << 32) | i;
+                        offsets[i] = (int) offset;
+                        output.writeInt(hash);
+                        output.writeInt(0);
+                        output.writeLong(identities[i]);
+                        output.writeInt(bytes.length);
+                        output.write(bytes);
+                        offset += NODE_HEADER + bytes.length;
+                        written++;
+                    }
+                }
+            }
+            if (written < count) {
+                log.debug("The join index is too large for a mapped file, it is kept in memory");
+                readKeys(file, slotsEnd, written - written % BLOCK, evaluated);
+                evaluated.addAll(keys);
+                if (evaluated.size() < count) {
+                    evaluated.addAll(keyValues.of(rangeNodes.subList(evaluated.size(), count)));
+                }
+                return null;
+            }
+            Arrays.sort(order);
+            int slots = tableSize(count);
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, offset);
+                int distinct = 0;
+                for (int i = 0; i < count; i++) {
+                    int hash = (int) (order[i] >>> 32);
+                    int position = (int) order[i];
+                    if (i + 1 < count && (int) (order[i + 1] >>> 32) == hash) {
+                        buffer.putInt(offsets[position] + 4, offsets[(int) order[i + 1]]);
+                    }
+                    if (i == 0 || (int) (order[i - 1] >>> 32) != hash) {
+                        int slot = hash & (slots - 1);
+                        while (buffer.getInt(HEADER + 4 * slot) != 0) {
+                            slot = (slot + 1) & (slots - 1);
+                        }
+                        buffer.putInt(HEADER + 4 * slot, offsets[position]);
+                        distinct++;
+                    }
+                }
+                buffer.putInt(0, slots);
+                buffer.putInt(4, count);
+                buffer.putInt(8, distinct);
+                MappedJoinIndex index = new MappedJoinIndex(nodeIdentity, file, buffer);
+                file = null;
+                return index;
+            }
+        } catch (IOException ex) {
+            throw exception("Unable to write the join index to the disk", ex);
+        } finally {
+            if (file != null && !file.delete()) {
+                log.debug("Unable to delete the join index file " + file);
+            }
+        }
+    }
+
+    /* the keys of the first nodes of the file, in document order */
+    private static void readKeys(File file, long slotsEnd, int nodes, List<String> keys) throws IOException {
+        try (FileInputStream fileInput = new FileInputStream(file)) {
+            fileInput.getChannel().position(slotsEnd);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(fileInput, 1 << 16));
+            for (int i = 0; i < nodes; i++) {
+                input.readInt();
+                input.readInt();
+                input.readLong();
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                keys.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /* at least twice as many slots as the nodes (and the distinct hashes), so the probes remain short */
+    private static int tableSize(int nodes) {
+        return Integer.highestOneBit(Math.max(2, nodes * 2 - 1)) << 1;
+    }
+
+    @Override
+    public synchronized List<Node> lookup(String key) {
+        if (closed) {
+            throw exception("The join index has been released");
+        }
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key);
+        int slot = hash & (slots - 1);
+        List<Node> found = new ArrayList<>();
+        while (true) {
+            int offset = buffer.getInt(HEADER + 4 * slot);
+            if (offset == 0) {
+                return found;
+            }
+            if (buffer.getInt(offset) == hash) {
+                for (; offset != 0; offset = buffer.getInt(offset + 4)) {
+                    if (sameKey(offset + NODE_HEADER, buffer.getInt(offset + 16), bytes)) {
+                        found.add(nodeIdentity.node(buffer.getLong(offset + 8)));
+                    }
+                }
+                return found;
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /* the file is unmapped first, because a mapped file cannot be deleted on some systems (e.g. Windows); 
+     * the buffer must not be accessed after this */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        unmap(buffer);
+        if (!file.delete()) {
+            log.debug("Unable to delete the join index file " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return keys + " hashes, " + size + " nodes, " + buffer.capacity() + " bytes in " + file;
+    }
+
+    private boolean sameKey(int position, int length, byte[] bytes) {
+        if (length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & 0x7fffffff;
+    }
+
+    /* Releases the mapping without waiting for the garbage collector. There is no public API 
+     * for this, so the cleaner of the buffer is used (Java 8) or Unsafe.invokeCleaner (Java 9 and later). 
+     * If neither is available, the mapping is released when the buffer is collected. */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+            java.lang.reflect.Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            log.trace("Unsafe.invokeCleaner is not available", ex);
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            log.debug("Unable to unmap the join index, it is released when it is collected", ex);
+        }
+    }
+}
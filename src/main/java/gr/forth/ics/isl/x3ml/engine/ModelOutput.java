@@ -27,7 +27,6 @@ import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.rdf.model.StmtIterator;
 import com.hp.hpl.jena.rdf.model.impl.ResourceImpl;
 import com.hp.hpl.jena.sparql.core.DatasetGraph;
-import com.hp.hpl.jena.sparql.core.DatasetGraphSimpleMem;
 import com.hp.hpl.jena.sparql.core.Quad;
 import javax.xml.namespace.NamespaceContext;
 import java.io.ByteArrayOutputStream;
@@ -42,6 +41,9 @@ import gr.forth.Labels;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
 import lombok.extern.log4j.Log4j;
 
 
@@ -57,19 +59,33 @@ import lombok.extern.log4j.Log4j;
 @Log4j
 public class ModelOutput implements Output {
 
-    public static final DatasetGraph quadGraph=new DatasetGraphSimpleMem();
+    public static final int DEFAULT_BUFFER_SIZE=1 << 16;
     private final Model model;
     private final NamespaceContext namespaceContext;
+    private final ExecutionContext execution;
 
     public ModelOutput(Model model, NamespaceContext namespaceContext) {
+        this(model, namespaceContext, new ExecutionContext());
+    }
+
+    public ModelOutput(Model model, NamespaceContext namespaceContext, ExecutionContext execution) {
         this.model = model;
         this.namespaceContext = namespaceContext;
+        this.execution = execution;
     }
 
     @Override
     public Model getModel() {
         return model;
     }
+
+    /** Returns the context of the execution that has produced the output. It contains the 
+     * named graphs of the output and the error messages of the execution.
+     * 
+     * @return the context of the execution */
+    public ExecutionContext getExecutionContext() {
+        return execution;
+    }
     
     public String getNamespace(TypeElement typeElement){
         if (typeElement == null) {
@@ -156,8 +172,8 @@ public class ModelOutput implements Output {
      * @param out the output stream that will be used for exporting the transformed contents */
     @Override
     public void writeXML(OutputStream out) {
-        if(X3ML.RootElement.hasNamedGraphs){
-            this.updateNamedgraphRefs(XPathInput.entireInputExportedRefUri);
+        if(execution.hasNamedGraphs()){
+            this.updateNamedgraphRefs(execution.getEntireInputExportedRefUri());
             this.writeQuads(out);
         }else{
             model.write(out, Labels.OUTPUT_FORMAT_RDF_XML_ABBREV);
@@ -165,6 +181,7 @@ public class ModelOutput implements Output {
     }
     
     private void updateNamedgraphRefs(String uri){
+        DatasetGraph quadGraph=execution.getQuadGraph();
         Iterator<Quad> qIter=quadGraph.find(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
         while(qIter.hasNext()){
             quadGraph.add(new ResourceImpl("http://default").asNode(), 
@@ -209,7 +226,7 @@ public class ModelOutput implements Output {
      */
     @Override
     public void write(OutputStream out, String format) {
-        if(X3ML.RootElement.hasNamedGraphs){    //export quads
+        if(execution.hasNamedGraphs()){    //export quads
             if(!Labels.OUTPUT_MIME_TYPE_TRIG.equalsIgnoreCase(format)){
                 log.warn("Invalid mime type used for exporting quads.");
                 File outputFileTrig=new File("output-"+System.currentTimeMillis()+"."+Labels.TRIG);
@@ -239,6 +256,19 @@ public class ModelOutput implements Output {
         }
     }
     
+    /** Creates a gzip stream over the given output stream, that uses buffers of the given size.
+     * 
+     * @param out the output stream of the compressed contents
+     * @param bufferSize the size of the buffers (in bytes)
+     * @return the stream that compresses the contents that are written to it */
+    public static GZIPOutputStream compressed(OutputStream out, int bufferSize) {
+        try{
+            return new GZIPOutputStream(new BufferedOutputStream(out, bufferSize), bufferSize);
+        }catch(IOException ex){
+            throw exception("Cannot create a compressed output",ex);
+        }
+    }
+    
     /** Exports the transformed contents of graph as Quads using the given output stream.
      * The contents are exported in TRIG format.
      * This method is used when: (a) the mappings contain namedgraphs, (b) the user defined trig as the export format.
@@ -247,9 +277,10 @@ public class ModelOutput implements Output {
     public void writeQuads(OutputStream out){
         StmtIterator stIter=model.listStatements();
         String defaultGraphSpace="http://default";
-        if(X3ML.Mappings.namedgraphProduced!=null && !X3ML.Mappings.namedgraphProduced.isEmpty()){
-            defaultGraphSpace=X3ML.Mappings.namedgraphProduced;
+        if(execution.getMappingsNamedGraph()!=null && !execution.getMappingsNamedGraph().isEmpty()){
+            defaultGraphSpace=execution.getMappingsNamedGraph();
         }
+        DatasetGraph quadGraph=execution.getQuadGraph();
         Node defgraph=new ResourceImpl(defaultGraphSpace).asNode();
         while(stIter.hasNext()){
             Statement st=stIter.next();
@@ -0,0 +1,249 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.tree.tiny.TinyAttributeImpl;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.tree.tiny.TinyTree;
+import net.sf.saxon.type.Type;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/** Assigns a compact identity (an ordinal number) to the nodes of the input.
+ * The ordinals are used instead of the XPath of the nodes, for remembering the
+ * values that have been generated for them.
+ * <p>
+ * The nodes of a TinyTree already carry their number in document order, so they
+ * are used directly. The nodes of a DOM tree are numbered in document order with
+ * a single pass over the document, the first time an identity is requested.
+ * Attributes are numbered right after the element they belong to. The ordinals of the 
+ * DOM nodes are kept in an open-addressing table on the identity of the nodes, which 
+ * holds a reference and a primitive int for every node, and which is only read once 
+ * it has been built.
+ * <p>
+ * The identities can be requested from more threads at the same time (when the domain
+ * nodes are processed in parallel). A node can also be found by its identity (see node(long)), 
+ * which is how the indexes that are kept on the disk refer to the nodes.
+ */
+public class NodeIdentity {
+    private static final long TINY_TREE_ATTRIBUTE = 1L << 40;
+    private static final long TINY_TREE_ELEMENT_TEXT = 1L << 41;
+    private static final long TINY_TREE_OTHER = 1L << 42;
+    private static final long TINY_TREE_NUMBER = TINY_TREE_ATTRIBUTE - 1;
+    private final Node rootNode;
+    private volatile Ordinals documentOrdinals;
+    private final Map<Object, Long> otherOrdinals = new HashMap<>();
+    private Object[] nodes;
+    private long nextOrdinal;
+
+    public NodeIdentity(Node rootNode) {
+        this.rootNode = rootNode;
+    }
+
+    /** Returns the identity of the given node. Two nodes have the same identity
+     * only if they are the same node of the input.
+     *
+     * @param node a node of the input
+     * @return the ordinal of the node (-1 for the document node and for null) */
+    public long of(Node node) {
+        if (node == null || node.getNodeType() == Node.DOCUMENT_NODE) {
+            return -1;
+        }
+        if (TinyTreeInput.isTinyTree(node)) {
+            NodeInfo nodeInfo = TinyTreeInput.nodeInfo(node);
+            if (nodeInfo instanceof TinyNodeImpl) {
+                long nodeNumber = ((TinyNodeImpl) nodeInfo).getNodeNumber();
+                return (nodeInfo.getNodeKind() == Type.ATTRIBUTE) ? TINY_TREE_ATTRIBUTE | nodeNumber : nodeNumber;
+            }
+            /* the only text child of an element is not stored as a separate node of the TinyTree */
+            if (nodeInfo.getNodeKind() == Type.TEXT && nodeInfo.getParent() instanceof TinyNodeImpl) {
+                return TINY_TREE_ELEMENT_TEXT | ((TinyNodeImpl) nodeInfo.getParent()).getNodeNumber();
+            }
+            return TINY_TREE_OTHER | otherOrdinal(nodeInfo);
+        }
+        int ordinal = documentOrdinals().get(node);
+        return (ordinal >= 0) ? ordinal : otherOrdinal(node);
+    }
+
+    /** Returns the node with the given identity. The nodes of a TinyTree are found in the 
+     * tree itself. For the nodes of a DOM tree, a table from the ordinals to the nodes 
+     * is built the first time a node is requested, and it is kept with the identities.
+     *
+     * @param identity the identity of a node, as returned by of(Node)
+     * @return the node, or null if there is no node with this identity */
+    public Node node(long identity) {
+        if (identity < 0) {
+            return null;
+        }
+        if (TinyTreeInput.isTinyTree(rootNode) && (identity & TINY_TREE_OTHER) == 0) {
+            NodeInfo rootInfo = TinyTreeInput.nodeInfo(rootNode);
+            if (!(rootInfo instanceof TinyNodeImpl)) {
+                return null;
+            }
+            TinyTree tree = ((TinyNodeImpl) rootInfo).getTree();
+            int nodeNumber = (int) (identity & TINY_TREE_NUMBER);
+            if ((identity & TINY_TREE_ATTRIBUTE) != 0) {
+                return NodeOverNodeInfo.wrap(new TinyAttributeImpl(tree, nodeNumber));
+            }
+            NodeInfo nodeInfo = tree.getNode(nodeNumber);
+            if ((identity & TINY_TREE_ELEMENT_TEXT) != 0) {
+                nodeInfo = nodeInfo.iterateAxis(AxisInfo.CHILD, NodeKindTest.TEXT).next();
+            }
+            return (nodeInfo == null) ? null : NodeOverNodeInfo.wrap(nodeInfo);
+        }
+        Object node = ordinalNode(identity & TINY_TREE_NUMBER);
+        if (node instanceof NodeInfo) {
+            return NodeOverNodeInfo.wrap((NodeInfo) node);
+        }
+        return (Node) node;
+    }
+
+    /* the table from the ordinals to the nodes is only needed by the indexes on the disk */
+    private synchronized Object ordinalNode(long ordinal) {
+        Ordinals ordinals = documentOrdinals();
+        if (ordinal >= nextOrdinal) {
+            return null;
+        }
+        if (nodes == null || ordinal >= nodes.length) {
+            nodes = new Object[(int) nextOrdinal];
+            ordinals.fill(nodes);
+            for (Map.Entry<Object, Long> entry : otherOrdinals.entrySet()) {
+                nodes[entry.getValue().intValue()] = entry.getKey();
+            }
+        }
+        return nodes[(int) ordinal];
+    }
+
+    private Ordinals documentOrdinals() {
+        Ordinals ordinals = documentOrdinals;
+        if (ordinals == null) {
+            synchronized (this) {
+                ordinals = documentOrdinals;
+                if (ordinals == null) {
+                    if (TinyTreeInput.isTinyTree(rootNode)) {
+                        ordinals = new Ordinals(0);
+                    } else {
+                        Node top = rootNode.getOwnerDocument() != null ? rootNode.getOwnerDocument() : rootNode;
+                        ordinals = new Ordinals(number(top, null));
+                        number(top, ordinals);
+                    }
+                    nextOrdinal = ordinals.size;
+                    documentOrdinals = ordinals;
+                }
+            }
+        }
+        return ordinals;
+    }
+
+    /* the nodes that are not part of the numbered document (e.g. the nodes of a TinyTree that have no node number) */
+    private synchronized long otherOrdinal(Object key) {
+        documentOrdinals();
+        Long ordinal = otherOrdinals.get(key);
+        if (ordinal == null) {
+            ordinal = nextOrdinal++;
+            otherOrdinals.put(key, ordinal);
+        }
+        return ordinal;
+    }
+
+    /* numbers the nodes in document order (or only counts them, without a table), 
+     * without recursion, so that deep documents are supported */
+    private static int number(Node top, Ordinals ordinals) {
+        int count = 0;
+        Node current = top;
+        while (current != null) {
+            if (ordinals != null) {
+                ordinals.put(current, count);
+            }
+            count++;
+            NamedNodeMap attributes = current.getAttributes();
+            if (attributes != null) {
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    if (ordinals != null) {
+                        ordinals.put(attributes.item(i), count);
+                    }
+                    count++;
+                }
+            }
+            if (current.getFirstChild() != null) {
+                current = current.getFirstChild();
+                continue;
+            }
+            while (current != top && current.getNextSibling() == null) {
+                current = current.getParentNode();
+            }
+            current = (current == top) ? null : current.getNextSibling();
+        }
+        return count;
+    }
+
+    /* an open-addressing table from the identity of the nodes to their ordinals, with at least 
+     * twice as many slots as the nodes, so the probes remain short */
+    private static final class Ordinals {
+        private final Object[] keys;
+        private final int[] values;
+        private final int mask;
+        private int size;
+
+        private Ordinals(int nodes) {
+            int slots = Integer.highestOneBit(Math.max(2, nodes * 2 - 1)) << 1;
+            this.keys = new Object[slots];
+            this.values = new int[slots];
+            this.mask = slots - 1;
+        }
+
+        private void put(Object key, int ordinal) {
+            int slot = slot(key);
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = ordinal;
+            size++;
+        }
+
+        private int get(Object key) {
+            for (int slot = slot(key); keys[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        private void fill(Object[] nodes) {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != null) {
+                    nodes[values[slot]] = keys[slot];
+                }
+            }
+        }
+
+        private int slot(Object key) {
+            int hash = System.identityHashCode(key);
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+}
@@ -93,8 +93,9 @@ public class Path extends GeneratorContext {
             }
             for (Resource lastResource : lastResources) {
                 for (Resource resolvedResource : intermediateNode.entityResolver.resources) {
-                    if(X3ML.Mapping.namedGraphProduced!=null && !X3ML.Mapping.namedGraphProduced.isEmpty()){
-                            ModelOutput.quadGraph.add(new ResourceImpl(X3ML.Mapping.namedGraphProduced).asNode(),
+                    String mappingNamedGraph=context.execution().getMappingNamedGraph();
+                    if(mappingNamedGraph!=null && !mappingNamedGraph.isEmpty()){
+                            context.execution().getQuadGraph().add(new ResourceImpl(mappingNamedGraph).asNode(),
                                                       lastResource.asNode(), 
                                                       lastProperty.asNode(),
                                                       resolvedResource.asNode());
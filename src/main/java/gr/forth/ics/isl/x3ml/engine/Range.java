@@ -21,6 +21,7 @@ package gr.forth.ics.isl.x3ml.engine;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.impl.ResourceImpl;
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
 import org.w3c.dom.Node;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.RangeElement;
 
@@ -49,51 +50,53 @@ public class Range extends GeneratorContext {
         }
         rangeResolver = new EntityResolver(context.output(), range.target_node.entityElement, this);
         if(path.property == null){  //this happens only when using the MERGE facility */
-            return rangeResolver.resolve(0,0,false,Derivation.Range,"","",Domain.domainNode);
+            return rangeResolver.resolve(0,0,false,Derivation.Range,"","",context.execution().getDomainNode());
         }else{
             return rangeResolver.resolve(0,0,false,Derivation.Range,"","",null);
         }
     }
 
     public void link(String linkNamedgraph, String mappingNamedgraph) {
+        ExecutionContext execution = context.execution();
+        DatasetGraph quadGraph = execution.getQuadGraph();
         path.link();
         if (rangeResolver.hasResources()) {
             rangeResolver.link(Derivation.Range);
             for (Resource lastResource : path.lastResources) {
-                XPathInput.domainURIForNamedgraps=lastResource.getURI();
+                execution.setDomainURIForNamedGraphs(lastResource.getURI());
                 for (Resource resolvedResource : rangeResolver.resources) {
                     if(path.lastProperty==null){    //this happens only when using the MERGE facility
                         break;
                     }else{
                         lastResource.addProperty(path.lastProperty, resolvedResource);
                         if(linkNamedgraph!=null){
-                            X3ML.RootElement.hasNamedGraphs=true;
+                            execution.useNamedGraphs();
                             if(linkNamedgraph.isEmpty()){
-                                X3ML.LinkElement.namedGraphProduced=lastResource.getURI();
+                                execution.setLinkNamedGraph(lastResource.getURI());
                             }else if(linkNamedgraph.startsWith("http://") || linkNamedgraph.startsWith("https://") || linkNamedgraph.startsWith("uuid:") || linkNamedgraph.startsWith("urn:")){
-                                X3ML.LinkElement.namedGraphProduced=linkNamedgraph+lastResource.getURI().replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_");
+                                execution.setLinkNamedGraph(linkNamedgraph+lastResource.getURI().replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_"));
                             }else{
-                                X3ML.LinkElement.namedGraphProduced="http://"+linkNamedgraph+lastResource.getURI().replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_");
+                                execution.setLinkNamedGraph("http://"+linkNamedgraph+lastResource.getURI().replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_"));
                             }
 
-                            ModelOutput.quadGraph.add(new ResourceImpl(X3ML.LinkElement.namedGraphProduced).asNode(), 
+                            quadGraph.add(new ResourceImpl(execution.getLinkNamedGraph()).asNode(), 
                                     lastResource.asNode(), path.lastProperty.asNode(), resolvedResource.asNode());
-                            ModelOutput.quadGraph.add(new ResourceImpl(X3ML.LinkElement.namedGraphProduced).asNode(), 
+                            quadGraph.add(new ResourceImpl(execution.getLinkNamedGraph()).asNode(), 
                                     resolvedResource.asNode(), new ResourceImpl("http://www.w3.org/1999/02/22-rdf-syntax-ns#type").asNode(), 
     //                                new ResourceImpl(rangeResolver.entityElement.typeElements.get(0).namespaceUri+rangeResolver.entityElement.typeElements.get(0).getLocalName()).asNode());
-                                    new ResourceImpl(EntityResolver.modelOutput.getNamespace(rangeResolver.entityElement.typeElements.get(0))).asNode());
+                                    new ResourceImpl(context.output().getNamespace(rangeResolver.entityElement.typeElements.get(0))).asNode());
                             rangeResolver.link(Derivation.Range);
 
                         }
                         if(mappingNamedgraph!=null){
-                            X3ML.RootElement.hasNamedGraphs=true;
-                            ModelOutput.quadGraph.add(new ResourceImpl(X3ML.Mapping.namedGraphProduced).asNode(), 
+                            execution.useNamedGraphs();
+                            quadGraph.add(new ResourceImpl(execution.getMappingNamedGraph()).asNode(), 
                                     lastResource.asNode(), path.lastProperty.asNode(), resolvedResource.asNode());
-                            ModelOutput.quadGraph.add(new ResourceImpl(X3ML.Mapping.namedGraphProduced).asNode(), 
+                            quadGraph.add(new ResourceImpl(execution.getMappingNamedGraph()).asNode(), 
                                     resolvedResource.asNode(), new ResourceImpl("http://www.w3.org/1999/02/22-rdf-syntax-ns#type").asNode(), 
 
     //                                new ResourceImpl(rangeResolver.entityElement.typeElements.get(0).namespaceUri+rangeResolver.entityElement.typeElements.get(0).getLocalName()).asNode());
-                                    new ResourceImpl(EntityResolver.modelOutput.getNamespace(rangeResolver.entityElement.typeElements.get(0))).asNode());
+                                    new ResourceImpl(context.output().getNamespace(rangeResolver.entityElement.typeElements.get(0))).asNode());
                         }
                     }
                 }
@@ -113,13 +116,13 @@ public class Range extends GeneratorContext {
                         }else{
                             linkNamedGraphMerged="http://"+linkNamedgraph+lastResource.getURI().replace("http://","_").replace("https://","_").replace("uuid:", "_").replace("urn:","_");
                         }
-                            X3ML.RootElement.hasNamedGraphs=true;
-                            ModelOutput.quadGraph.add(new ResourceImpl(linkNamedGraphMerged).asNode(), 
+                            execution.useNamedGraphs();
+                            quadGraph.add(new ResourceImpl(linkNamedGraphMerged).asNode(), 
                                     lastResource.asNode(), path.lastProperty.asNode(), rangeResolver.literal.asNode());
                     }
                     if(mappingNamedgraph!=null){
-                         X3ML.RootElement.hasNamedGraphs=true;
-                         ModelOutput.quadGraph.add(new ResourceImpl(X3ML.Mapping.namedGraphProduced).asNode(), 
+                         execution.useNamedGraphs();
+                         quadGraph.add(new ResourceImpl(execution.getMappingNamedGraph()).asNode(), 
                                     lastResource.asNode(), path.lastProperty.asNode(), rangeResolver.literal.asNode());
                     }
                 }   
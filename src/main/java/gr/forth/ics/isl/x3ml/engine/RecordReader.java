@@ -0,0 +1,265 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
+
+/** Reads the records of an XML input one at a time, with StAX. A record is an
+ * element with a given name; every record is returned as a small DOM tree of its
+ * own, so only one record has to be kept in memory.
+ * <p>
+ * The tree of a record also contains the ancestors of the record element (with their
+ * attributes and namespace declarations, but without any other content), so that the
+ * absolute XPath expressions of the mappings (e.g. //lido:lido or /lidoWrap/lido) select
+ * the record in the same way they select it in the complete input. Records that
+ * are nested inside another record are part of the outer record.
+ * <p>
+ * The copies of the ancestors are marked with the identity of the ancestor in the input
+ * (see ancestorKey(Node)), so that the URIs that are generated for an ancestor are shared
+ * by all its records, instead of being generated again for every record. The identities are 
+ * taken from a counter that the readers of all the inputs of an execution share (see 
+ * ExecutionContext.getAncestorIdentities()), so the ancestors of different inputs are different.
+ */
+public class RecordReader implements Closeable {
+    private static final XMLInputFactory INPUT_FACTORY = inputFactory();
+    private static final String ANCESTOR = RecordReader.class.getName() + ".ancestor";
+    private final XMLEventReader events;
+    private final QName recordName;
+    private final DocumentBuilder documentBuilder;
+    private final List<StartElement> ancestors = new ArrayList<>();
+    private final List<Long> ancestorIdentities = new ArrayList<>();
+    private final AtomicLong ancestorCount;
+    private int records;
+
+    public RecordReader(InputStream input, QName recordName) {
+        this(input, recordName, new AtomicLong());
+    }
+
+    /** Creates a reader that takes the identities of the ancestors of the records from the given counter.
+     *
+     * @param input the XML input
+     * @param recordName the name of the record elements
+     * @param ancestorCount the last identity that has been given to an ancestor (see ExecutionContext.getAncestorIdentities()) */
+    public RecordReader(InputStream input, QName recordName, AtomicLong ancestorCount) {
+        this.recordName = recordName;
+        this.ancestorCount = ancestorCount;
+        try {
+            this.events = INPUT_FACTORY.createXMLEventReader(input);
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            this.documentBuilder = factory.newDocumentBuilder();
+        } catch (XMLStreamException | ParserConfigurationException ex) {
+            throw exception("Unable to read the XML input", ex);
+        }
+    }
+
+    /** Returns the name of the record elements. The name can be given with a prefix that
+     * is declared in the mappings (e.g. lido:lido), in the {uri}localName form, or without
+     * a prefix for elements without a namespace.
+     *
+     * @param name the name of the record elements
+     * @param namespaceContext the namespaces declared in the mappings
+     * @return the qualified name of the record elements */
+    public static QName recordName(String name, NamespaceContext namespaceContext) {
+        if (name == null || name.trim().isEmpty()) {
+            throw exception("The name of the record element is missing");
+        }
+        String trimmed = name.trim();
+        if (trimmed.startsWith("{")) {
+            return QName.valueOf(trimmed);
+        }
+        int colon = trimmed.indexOf(':');
+        if (colon < 0) {
+            return new QName(trimmed);
+        }
+        String prefix = trimmed.substring(0, colon);
+        String uri = (namespaceContext == null) ? null : namespaceContext.getNamespaceURI(prefix);
+        if (uri == null || uri.isEmpty()) {
+            throw exception("The prefix of the record element \"" + trimmed + "\" is not declared in the mappings");
+        }
+        return new QName(uri, trimmed.substring(colon + 1), prefix);
+    }
+
+    /** Reads the next record.
+     *
+     * @return the root element of the tree of the next record, or null if there are no more records */
+    public Element next() {
+        try {
+            while (events.hasNext()) {
+                XMLEvent event = events.nextEvent();
+                if (event.isStartElement()) {
+                    StartElement start = event.asStartElement();
+                    if (recordName.equals(start.getName())) {
+                        records++;
+                        return record(start);
+                    }
+                    ancestors.add(start);
+                    ancestorIdentities.add(ancestorCount.incrementAndGet());
+                } else if (event.isEndElement()) {
+                    ancestors.remove(ancestors.size() - 1);
+                    ancestorIdentities.remove(ancestorIdentities.size() - 1);
+                }
+            }
+            return null;
+        } catch (XMLStreamException ex) {
+            throw exception("Unable to read the XML input after " + records + " records", ex);
+        }
+    }
+
+    /** Returns the number of records that have been read so far.
+     *
+     * @return the number of records */
+    public int getRecords() {
+        return records;
+    }
+
+    /** Marks the copy of an ancestor of the records in the tree of a record (or of a chunk of
+     * records). The copies of the same ancestor in different trees must have the same identity.
+     *
+     * @param copy the copy of the ancestor
+     * @param identity the identity of the ancestor in the input */
+    public static void markAncestor(Element copy, long identity) {
+        copy.setUserData(ANCESTOR, identity, null);
+    }
+
+    /** Returns the key of a node of a record tree, that is the same for the copies of the same
+     * ancestor (or of the same attribute of an ancestor) in the trees of all the records.
+     *
+     * @param node a node of the DOM tree of a record
+     * @return the key of the ancestor, or null if the node is not (an attribute of) a copy of an ancestor */
+    public static String ancestorKey(Node node) {
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+            Object identity = node.getUserData(ANCESTOR);
+            return (identity == null) ? null : identity.toString();
+        }
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE) {
+            Element owner = ((Attr) node).getOwnerElement();
+            Object identity = (owner == null) ? null : owner.getUserData(ANCESTOR);
+            return (identity == null) ? null : identity + "@{" + (node.getNamespaceURI() == null ? "" : node.getNamespaceURI()) + "}" + node.getLocalName();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            events.close();
+        } catch (XMLStreamException ex) {
+            throw exception("Unable to close the XML input", ex);
+        }
+    }
+
+    private Element record(StartElement recordStart) throws XMLStreamException {
+        Document document = documentBuilder.newDocument();
+        Node parent = document;
+        for (int i = 0; i < ancestors.size(); i++) {
+            Element copy = element(document, ancestors.get(i));
+            markAncestor(copy, ancestorIdentities.get(i));
+            parent = parent.appendChild(copy);
+        }
+        Node current = parent.appendChild(element(document, recordStart));
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = events.nextEvent();
+            switch (event.getEventType()) {
+                case XMLEvent.START_ELEMENT:
+                    current = current.appendChild(element(document, event.asStartElement()));
+                    depth++;
+                    break;
+                case XMLEvent.END_ELEMENT:
+                    current = current.getParentNode();
+                    depth--;
+                    break;
+                case XMLEvent.CHARACTERS:
+                case XMLEvent.SPACE:
+                case XMLEvent.CDATA:
+                    Characters characters = event.asCharacters();
+                    current.appendChild(characters.isCData()
+                            ? document.createCDATASection(characters.getData())
+                            : document.createTextNode(characters.getData()));
+                    break;
+                case XMLEvent.COMMENT:
+                    current.appendChild(document.createComment(((Comment) event).getText()));
+                    break;
+                case XMLEvent.PROCESSING_INSTRUCTION:
+                    ProcessingInstruction instruction = (ProcessingInstruction) event;
+                    current.appendChild(document.createProcessingInstruction(instruction.getTarget(), instruction.getData()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return document.getDocumentElement();
+    }
+
+    private static Element element(Document document, StartElement start) {
+        Element element = document.createElementNS(uri(start.getName()), qualifiedName(start.getName()));
+        for (Iterator<?> namespaces = start.getNamespaces(); namespaces.hasNext();) {
+            Namespace namespace = (Namespace) namespaces.next();
+            String attribute = namespace.getPrefix().isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + namespace.getPrefix();
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attribute, namespace.getNamespaceURI());
+        }
+        for (Iterator<?> attributes = start.getAttributes(); attributes.hasNext();) {
+            Attribute attribute = (Attribute) attributes.next();
+            element.setAttributeNS(uri(attribute.getName()), qualifiedName(attribute.getName()), attribute.getValue());
+        }
+        return element;
+    }
+
+    private static String uri(QName name) {
+        return name.getNamespaceURI().isEmpty() ? null : name.getNamespaceURI();
+    }
+
+    private static String qualifiedName(QName name) {
+        return name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart();
+    }
+
+    private static XMLInputFactory inputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -25,9 +25,14 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import javax.xml.namespace.NamespaceContext;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.GeneratedValue;
 import gr.forth.Utils;
 import java.io.InputStream;
@@ -45,32 +50,106 @@ import org.apache.jena.riot.Lang;
  */
 @Log4j
 public class Root {
+    private static final int GENERATION_LOCKS = 64;
+    private static final int MIN_DOMAIN_NODES_PER_PART = 16;
 
     private final Element rootNode;
+    private final Generator generator;
+    private final NamespaceContext namespaceContext;
     private final ModelOutput modelOutput;
     private final TerminologyModel terminology;
     private final XPathInput xpathInput;
+    private final ExecutionContext execution;
     private final Context context;
-    private final Map<String, GeneratedValue> generated = new HashMap<>();
+    private final NodeIdentity nodeIdentity;
+    private final CompiledMapping compiledMapping;
+    private final Map<GeneratedKey, GeneratedValue> generated;
+    private final Object[] generationLocks;
+    private final boolean recordAncestors;
+    private boolean associationTable;
+    private final List<Worker> workers = new ArrayList<>();
+    private ForkJoinPool pool;
+    private ForkJoinPool mappingPool;
            
     public Root(Element rootNode, final Generator generator, NamespaceContext namespaceContext, List<String> prefixes, Pair<InputStream,Lang> terminologyStream) {
+        this(rootNode, generator, namespaceContext, prefixes, terminologyStream, null);
+    }
+
+    public Root(Element rootNode, final Generator generator, NamespaceContext namespaceContext, List<String> prefixes, Pair<InputStream,Lang> terminologyStream, CompiledMapping compiledMapping) {
+        this(rootNode, generator, namespaceContext, compiledMapping, createModelOutput(namespaceContext, prefixes), createTerminology(terminologyStream));
+    }
+
+    /** Creates the root context of an input that shares its output (and terminology) with 
+     * other inputs, e.g. with the other records of a streaming execution. The input belongs 
+     * to the execution of its output (see ModelOutput.getExecutionContext()).
+     * 
+     * @param rootNode the root of the input
+     * @param generator the generator policy
+     * @param namespaceContext the namespaces of the mappings
+     * @param compiledMapping the compiled mappings (can be null)
+     * @param modelOutput the output where the results are added
+     * @param terminology the terminology (can be null) */
+    public Root(Element rootNode, final Generator generator, NamespaceContext namespaceContext, CompiledMapping compiledMapping, ModelOutput modelOutput, TerminologyModel terminology) {
         this.rootNode = rootNode;
-        Model model = ModelFactory.createDefaultModel();
-        for (String prefix : prefixes) {
-            model.setNsPrefix(prefix, namespaceContext.getNamespaceURI(prefix));
+        this.generator = generator;
+        this.namespaceContext = namespaceContext;
+        this.modelOutput = modelOutput;
+        this.terminology = terminology;
+        this.execution = modelOutput.getExecutionContext();
+        this.xpathInput = new XPathInput(rootNode, namespaceContext, generator.getLanguageFromMapping(), compiledMapping, execution);
+        this.nodeIdentity = xpathInput.getNodeIdentity();
+        this.compiledMapping = compiledMapping;
+        this.generated = new ConcurrentHashMap<>();
+        this.generationLocks = new Object[GENERATION_LOCKS];
+        for (int i = 0; i < GENERATION_LOCKS; i++) {
+            generationLocks[i] = new Object();
         }
-        this.modelOutput = new ModelOutput(model, namespaceContext);
-        this.xpathInput = new XPathInput(rootNode, namespaceContext, generator.getLanguageFromMapping());
-        this.context = new Context() {
+        this.recordAncestors = !TinyTreeInput.isTinyTree(rootNode) && RecordReader.ancestorKey(rootNode) != null;
+        this.context = createContext(xpathInput, modelOutput, execution);
+    }
+
+    /* Creates the context of a group of mappings that is applied concurrently with the other 
+     * groups. It shares the input (with its indexes) and the generated values with the given context, 
+     * and it has its own fork of the execution, its own results of the current domain node and its own output. */
+    private Root(Root parent) {
+        this.rootNode = parent.rootNode;
+        this.generator = parent.generator;
+        this.namespaceContext = parent.namespaceContext;
+        this.terminology = parent.terminology;
+        this.execution = parent.execution.fork();
+        this.xpathInput = parent.xpathInput.forWorker(this.execution);
+        this.modelOutput = parent.createBuffer(this.execution);
+        this.nodeIdentity = parent.nodeIdentity;
+        this.compiledMapping = parent.compiledMapping;
+        this.generated = parent.generated;
+        this.generationLocks = parent.generationLocks;
+        this.recordAncestors = parent.recordAncestors;
+        this.associationTable = parent.associationTable;
+        this.pool = parent.pool;
+        this.context = createContext(xpathInput, modelOutput, execution);
+    }
+
+    /* an empty output with the prefixes of the output of the input, for the given fork of the execution */
+    private ModelOutput createBuffer(ExecutionContext fork) {
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefixes(modelOutput.getModel());
+        return new ModelOutput(model, namespaceContext, fork);
+    }
+
+    /* The context of the input, or of a worker that processes a part of its domain nodes. 
+     * The generated values are shared by all the contexts of the input, and the values of 
+     * the ancestors of a record are shared by all the records of the execution. */
+    private Context createContext(final XPathInput input, final ModelOutput output, final ExecutionContext execution) {
+        return new Context() {
 
             @Override
             public XPathInput input() {
-                return xpathInput;
+                return input;
             }
 
             @Override
             public ModelOutput output() {
-                return modelOutput;
+                return output;
             }
 
             @Override
@@ -79,15 +158,34 @@ public class Root {
             }
 
             @Override
-            public GeneratedValue getGeneratedValue(String xpath) {
-                return generated.get(xpath);
+            public ExecutionContext execution() {
+                return execution;
+            }
+
+            @Override
+            public TerminologyModel terminology() {
+                return terminology;
             }
 
             @Override
-            public void putGeneratedValue(String xpath, GeneratedValue generatedValue) {
+            public GeneratedValue getGeneratedValue(Node node, String unique) {
+                String ancestor = ancestorValueKey(node, unique);
+                if (ancestor != null) {
+                    return execution.getAncestorValues().get(ancestor);
+                }
+                return generated.get(new GeneratedKey(nodeIdentity.of(node), unique));
+            }
+
+            @Override
+            public void putGeneratedValue(Node node, String unique, GeneratedValue generatedValue) {
                 switch (generatedValue.type) {
                     case URI:
-                        generated.put(xpath, generatedValue);
+                        String ancestor = ancestorValueKey(node, unique);
+                        if (ancestor != null) {
+                            execution.getAncestorValues().put(ancestor, generatedValue);
+                            break;
+                        }
+                        generated.put(new GeneratedKey(nodeIdentity.of(node), (unique == null) ? null : unique.intern()), generatedValue);
                         break;
                     case LITERAL:
                         break;
@@ -95,44 +193,286 @@ public class Root {
                         break;
                 }
             }
+
+            @Override
+            public boolean usesAssociationTable() {
+                return associationTable;
+            }
+
+            @Override
+            public Object generationLock(Node node) {
+                return generationLocks[(int) (nodeIdentity.of(node) & (GENERATION_LOCKS - 1))];
+            }
         };
+    }
+
+    /* the key of a value of a copy of an ancestor of the records (see RecordReader.ancestorKey(Node)), 
+     * or null for the nodes of the other inputs and for the other nodes of the records */
+    private String ancestorValueKey(Node node, String unique) {
+        if (!recordAncestors) {
+            return null;
+        }
+        String ancestor = RecordReader.ancestorKey(node);
+        return (ancestor == null) ? null : ancestor + "#" + unique;
+    }
+
+    public static ModelOutput createModelOutput(NamespaceContext namespaceContext, List<String> prefixes) {
+        return createModelOutput(namespaceContext, prefixes, new ExecutionContext());
+    }
+
+    /** Creates an output of the given execution. All the outputs of an execution share its 
+     * state (e.g. the named graphs).
+     * 
+     * @param namespaceContext the namespaces of the mappings
+     * @param prefixes the prefixes of the namespaces that are declared in the output
+     * @param execution the context of the execution
+     * @return the new output */
+    public static ModelOutput createModelOutput(NamespaceContext namespaceContext, List<String> prefixes, ExecutionContext execution) {
+        Model model = ModelFactory.createDefaultModel();
+        for (String prefix : prefixes) {
+            model.setNsPrefix(prefix, namespaceContext.getNamespaceURI(prefix));
+        }
+        return new ModelOutput(model, namespaceContext, execution);
+    }
+
+    public static TerminologyModel createTerminology(Pair<InputStream,Lang> terminologyStream) {
         if(terminologyStream!=null){
-            this.terminology=new TerminologyModel(terminologyStream.getLeft(),terminologyStream.getRight());
-        }else{
-            this.terminology=null;
+            return new TerminologyModel(terminologyStream.getLeft(),terminologyStream.getRight());
         }
+        return null;
     }
 
     public ModelOutput getModelOutput() {
         return modelOutput;
     }
 
+    public XPathInput getXPathInput() {
+        return xpathInput;
+    }
+
+    public ExecutionContext getExecutionContext() {
+        return execution;
+    }
+
+    /** Adds (or does not add) the generated values of the input to the association table. 
+     * 
+     * @param associationTable true for adding the generated values to the association table */
+    public void useAssociationTable(boolean associationTable) {
+        this.associationTable = associationTable;
+    }
+
+    /** Processes the domain nodes of the mappings in parallel, with the threads of the given 
+     * pool. Only the inputs that are parsed as TinyTrees are processed in parallel (the DOM 
+     * trees cannot be read by more threads at the same time), and only if the association 
+     * table is not used.
+     * 
+     * @param pool the pool of the threads, or null for processing the domain nodes sequentially */
+    public void parallelDomains(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Applies the groups of independent mappings (see CompiledMapping.getMappingGroups()) 
+     * concurrently, with the threads of the given pool. The same restrictions as for the 
+     * parallel processing of the domain nodes apply.
+     * 
+     * @param mappingPool the pool of the threads, or null for applying the mappings in order */
+    public void parallelMappings(ForkJoinPool mappingPool) {
+        this.mappingPool = mappingPool;
+    }
+
+    /** Checks whether the groups of independent mappings are applied concurrently.
+     * 
+     * @return true if there are more groups of mappings and they are applied concurrently */
+    public boolean isParallelMappings() {
+        if (mappingPool == null || compiledMapping == null || compiledMapping.getMappingGroups().size() < 2) {
+            return false;
+        }
+        if (!TinyTreeInput.isTinyTree(rootNode) || associationTable) {
+            log.debug("The mappings are applied in order (they are applied concurrently only for TinyTree inputs without the association table)");
+            return false;
+        }
+        return true;
+    }
+
+    /** Applies the groups of independent mappings concurrently. Every group is applied in the 
+     * order of its mappings, with its own output and its own fork of the execution, which are 
+     * merged into the output and the execution of the input in the order of the groups.
+     * 
+     * @param mappings all the mappings, in the order they are declared */
+    public void applyMappingsInParallel(final List<X3ML.Mapping> mappings) {
+        List<List<Integer>> groups = compiledMapping.getMappingGroups();
+        if (execution.isReportProgress()) {
+            log.info("Applying "+mappings.size()+" mappings in "+groups.size()+" independent groups");
+        }
+        final List<Root> branches = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final List<Integer> group : groups) {
+            final Root branch = new Root(this);
+            branches.add(branch);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    ExecutionContext previous = branch.execution.enter();
+                    try {
+                        for (Integer position : group) {
+                            branch.execution.setMappingCounter(position + 1);
+                            branch.execution.setLinkCounter(0);
+                            mappings.get(position).apply(branch);
+                        }
+                    } finally {
+                        branch.execution.leave(previous);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            invokeAll(mappingPool, tasks, "mappings");
+        } finally {
+            for (Root branch : branches) {
+                modelOutput.getModel().add(branch.modelOutput.getModel());
+                execution.merge(branch.execution);
+            }
+            execution.setMappingCounter(mappings.size());
+        }
+    }
+
+    /** Checks whether the domain nodes of the mappings are processed in parallel.
+     * 
+     * @return true if the domain nodes are processed in parallel */
+    public boolean isParallel() {
+        if (pool == null) {
+            return false;
+        }
+        if (!TinyTreeInput.isTinyTree(rootNode) || associationTable) {
+            log.debug("The domain nodes are processed sequentially (they are processed in parallel only for TinyTree inputs without the association table)");
+            return false;
+        }
+        return true;
+    }
+
     public List<Domain> createDomainContexts(X3ML.DomainElement domain,String namedgraph) {
         List<Node> domainNodes = xpathInput.nodeList(rootNode, domain.source_node);
+        return createDomainContexts(context, domain, namedgraph, domainNodes, 0, domainNodes.size(), execution.isReportProgress());
+    }
+
+    /** Applies the given mapping, splitting its domain nodes in contiguous parts that are processed 
+     * in parallel by the workers of the input. The output and the state of every worker are merged 
+     * into the output and the execution of the input in the order of the parts, so the result is the 
+     * result of a sequential execution. If there are only a few domain nodes, they are processed 
+     * sequentially. They are also processed sequentially if the mapping declares a global variable 
+     * that has not been generated yet, so that its value is generated from the first domain node 
+     * in document order (as in a sequential execution) and not from the node of whichever 
+     * worker gets there first.
+     * 
+     * @param mapping the mapping */
+    public void applyInParallel(final X3ML.Mapping mapping) {
+        final List<Node> domainNodes = xpathInput.nodeList(rootNode, mapping.domain.source_node);
+        int parts = Math.min(pool.getParallelism(), domainNodes.size() / MIN_DOMAIN_NODES_PER_PART);
+        if (parts < 2 || generatesGlobalVariables(mapping)) {
+            mapping.apply(createDomainContexts(context, mapping.domain, mapping.namedgraph, domainNodes, 0, domainNodes.size(), execution.isReportProgress()), execution, xpathInput);
+            return;
+        }
+        if (execution.isReportProgress()) {
+            log.info("Round "+execution.getMappingCounter()+"/"+execution.getMappingsTotal()+": Processing "+domainNodes.size()+" domain nodes in "+parts+" parts");
+        }
+        while (workers.size() < parts) {
+            workers.add(new Worker());
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int part = 0; part < parts; part++) {
+            final Worker worker = workers.get(part);
+            final int from = (int) ((long) domainNodes.size() * part / parts);
+            final int to = (int) ((long) domainNodes.size() * (part + 1) / parts);
+            worker.execution.resume(execution);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    ExecutionContext previous = worker.execution.enter();
+                    try {
+                        List<Domain> domains = createDomainContexts(worker.context, mapping.domain, mapping.namedgraph, domainNodes, from, to, false);
+                        mapping.apply(domains, worker.execution, worker.input);
+                        worker.input.endDomainScope();
+                    } finally {
+                        worker.execution.leave(previous);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            invokeAll(pool, tasks, "domain nodes");
+        } finally {
+            for (int part = 0; part < parts; part++) {
+                Worker worker = workers.get(part);
+                modelOutput.getModel().add(worker.output.getModel());
+                worker.output.getModel().removeAll();
+                execution.merge(worker.execution);
+            }
+        }
+    }
+
+    /* checks whether the mapping declares a global variable that has not been generated yet; 
+     * without the compiled mappings the global variables of the mapping are not known */
+    private boolean generatesGlobalVariables(X3ML.Mapping mapping) {
+        if (compiledMapping == null) {
+            return true;
+        }
+        Map<String, GeneratedValue> globalVariables = execution.getGlobalVariables();
+        synchronized (globalVariables) {
+            return !globalVariables.keySet().containsAll(compiledMapping.getGlobalVariables(mapping));
+        }
+    }
+
+    /* runs the given tasks and waits until all of them are finished; the first error is thrown */
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks, String description) {
+        try {
+            List<Future<Void>> results = pool.invokeAll(tasks);
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw X3MLEngine.exception("The parallel processing of the "+description+" was interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof X3MLEngine.X3MLException) {
+                throw (X3MLEngine.X3MLException) ex.getCause();
+            }
+            throw X3MLEngine.exception("An error occurred while processing the "+description+" in parallel", ex.getCause());
+        }
+    }
+
+    /* creates the domains of the domain nodes from (inclusive) to (exclusive); the domains are numbered 
+     * by the position of their nodes in the list of all the domain nodes */
+    private List<Domain> createDomainContexts(Context context, X3ML.DomainElement domain, String namedgraph, List<Node> domainNodes, int from, int to, boolean reportProgress) {
+        XPathInput xpathInput = context.input();
+        ExecutionContext execution = context.execution();
         List<Domain> domains = new ArrayList<>();
         int domainNodesTotal=domainNodes.size();
-        int index = 1;
-        for (Node domainNode : domainNodes) {
-            if(X3MLEngine.REPORT_PROGRESS){
+        int index = from + 1;
+        for (Node domainNode : domainNodes.subList(from, to)) {
+            if(reportProgress){
                 if(domainNodesTotal>=20){
                     if(index%(domainNodesTotal/20)==0){
-                        log.info("Round "+X3ML.RootElement.mappingCounter+"/"+X3ML.RootElement.mappingsTotal+", Step 1/2: Creating domain nodes: "+((100*(index))/domainNodesTotal)+"% completed ("+index +" domain nodes out of "+domainNodesTotal+" completed)");
+                        log.info("Round "+execution.getMappingCounter()+"/"+execution.getMappingsTotal()+", Step 1/2: Creating domain nodes: "+((100*(index))/domainNodesTotal)+"% completed ("+index +" domain nodes out of "+domainNodesTotal+" completed)");
                     }
                 }else{
-                    log.info("Round "+X3ML.RootElement.mappingCounter+"/"+X3ML.RootElement.mappingsTotal+", Step 1/2: Creating domain nodes: "+((100*(index))/domainNodesTotal)+"% completed ("+index +" domain nodes out of "+domainNodesTotal+" completed)");
+                    log.info("Round "+execution.getMappingCounter()+"/"+execution.getMappingsTotal()+", Step 1/2: Creating domain nodes: "+((100*(index))/domainNodesTotal)+"% completed ("+index +" domain nodes out of "+domainNodesTotal+" completed)");
                 }
             }
             Domain domainContext = new Domain(context, domain, domainNode, index++);
+            xpathInput.beginDomainScope();
             try{
                 if (domainContext.resolve(namedgraph)) {
                     domains.add(domainContext);
                 } 
             }catch(X3MLEngine.X3MLException ex){
-                X3MLEngine.exceptionMessagesList+=ex.toString()+"\n";
+                execution.addExceptionMessage(ex.toString());
                
                 Utils.printErrorMessages(ex.getMessage());
             }
         }
+        xpathInput.endDomainScope();
         return domains;
     }
 
@@ -144,8 +484,71 @@ public class Root {
 
         Generator policy();
 
-        GeneratedValue getGeneratedValue(String xpath);
+        ExecutionContext execution();
+
+        /** Returns the SKOS terminology that was loaded together with the mappings.
+         * 
+         * @return the terminology, or null if no terminology was loaded */
+        TerminologyModel terminology();
+
+        GeneratedValue getGeneratedValue(Node node, String unique);
+
+        void putGeneratedValue(Node node, String unique, GeneratedValue generatedValue);        
+
+        /** Checks whether the generated values are added to the association table.
+         * 
+         * @return true if the association table is used */
+        boolean usesAssociationTable();
 
-        void putGeneratedValue(String xpath, GeneratedValue generatedValue);        
+        /** Returns the lock that guards the generation of the values of the given node, so that 
+         * a value is generated only once when the domain nodes are processed in parallel.
+         * 
+         * @param node a node of the input
+         * @return the lock of the node */
+        Object generationLock(Node node);
+    }
+
+    /* A worker processes a part of the domain nodes of a mapping. It has its own fork of the 
+     * execution context, its own view of the input (which shares the indexes of the input, see 
+     * XPathInput.forWorker) and its own output, which are merged into the input after every 
+     * mapping. The workers are kept for the remaining mappings of the input. */
+    private final class Worker {
+        private final ExecutionContext execution;
+        private final XPathInput input;
+        private final ModelOutput output;
+        private final Context context;
+
+        private Worker() {
+            this.execution = Root.this.execution.fork();
+            this.input = xpathInput.forWorker(this.execution);
+            this.output = createBuffer(this.execution);
+            this.context = createContext(this.input, this.output, this.execution);
+        }
+    }
+
+    /* The generated values are kept per input node and unique suffix 
+     * (e.g. the type of an intermediate or additional entity) */
+    private static final class GeneratedKey {
+        private final long node;
+        private final String unique;
+
+        private GeneratedKey(long node, String unique) {
+            this.node = node;
+            this.unique = unique;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof GeneratedKey)) {
+                return false;
+            }
+            GeneratedKey key = (GeneratedKey) other;
+            return node == key.node && Objects.equals(unique, key.unique);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(node) + Objects.hashCode(unique);
+        }
     }
 }
@@ -0,0 +1,272 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.namespace.NamespaceContext;
+import org.w3c.dom.Node;
+
+/** A relative XPath expression that only uses the simplest steps, so that it can
+ * be evaluated by walking the tree directly, instead of using the XPath processor.
+ * The supported steps are: child elements by name (optionally with a position, e.g.
+ * name[1]), the parent (..), the context node itself (.), and as a last step an
+ * attribute (@name) or the text nodes (text()). Names can have a prefix declared
+ * in the mappings. Any other expression is not parsed, and it is evaluated
+ * by the XPath processor as before.
+ * <p>
+ * The results are the same with the ones of the XPath processor. Whenever the tree
+ * contains something that the direct navigation does not handle in the same way
+ * (e.g. adjacent text nodes of a DOM tree that XPath sees as one text node, or
+ * a DOM tree parsed without namespaces) the evaluation returns null, and the
+ * XPath processor is used instead.
+ */
+public class SimpleXPath {
+    private static final Pattern NAME = Pattern.compile(
+            "^([\\p{L}_][\\p{L}\\p{N}._\\-]*)(?::([\\p{L}_][\\p{L}\\p{N}._\\-]*))?(?:\\[([1-9][0-9]{0,8})\\])?$");
+    private final String expression;
+    private final List<Step> steps;
+
+    private SimpleXPath(String expression, List<Step> steps) {
+        this.expression = expression;
+        this.steps = steps;
+    }
+
+    /** Parses the given expression, if it only uses the supported steps.
+     *
+     * @param expression the XPath expression
+     * @param namespaceContext the namespaces declared in the mappings (can be null)
+     * @return the parsed expression, or null if the expression is not a simple path */
+    public static SimpleXPath parse(String expression, NamespaceContext namespaceContext) {
+        if (expression == null) {
+            return null;
+        }
+        String trimmed = expression.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("/") || trimmed.endsWith("/") || trimmed.contains("//")) {
+            return null;
+        }
+        String[] parts = trimmed.split("/");
+        List<Step> steps = new ArrayList<>(parts.length);
+        for (int index = 0; index < parts.length; index++) {
+            boolean last = (index == parts.length - 1);
+            String part = parts[index].trim();
+            if (part.equals(".")) {
+                steps.add(new Step(StepType.SELF, null, null, 0));
+            } else if (part.equals("..")) {
+                steps.add(new Step(StepType.PARENT, null, null, 0));
+            } else if (part.equals("text()")) {
+                if (!last) {
+                    return null;
+                }
+                steps.add(new Step(StepType.TEXT, null, null, 0));
+            } else if (part.startsWith("@")) {
+                Step step = named(StepType.ATTRIBUTE, part.substring(1), namespaceContext);
+                if (!last || step == null || step.position != 0) {
+                    return null;
+                }
+                steps.add(step);
+            } else {
+                Step step = named(StepType.CHILD, part, namespaceContext);
+                if (step == null) {
+                    return null;
+                }
+                steps.add(step);
+            }
+        }
+        return new SimpleXPath(trimmed, steps);
+    }
+
+    private static Step named(StepType type, String part, NamespaceContext namespaceContext) {
+        Matcher matcher = NAME.matcher(part);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String namespace = null;
+        String localName = matcher.group(1);
+        if (matcher.group(2) != null) {
+            if (namespaceContext == null) {
+                return null;
+            }
+            namespace = namespaceContext.getNamespaceURI(matcher.group(1));
+            if (namespace == null || namespace.isEmpty()) {
+                return null;
+            }
+            localName = matcher.group(2);
+        }
+        int position = (matcher.group(3) == null) ? 0 : Integer.parseInt(matcher.group(3));
+        return new Step(type, namespace, localName, position);
+    }
+
+    /** Returns the nodes that the expression selects, in document order.
+     *
+     * @param context the context node
+     * @return the selected nodes, or null if the expression has to be evaluated by the XPath processor */
+    public List<Node> nodeList(Node context) {
+        List<Node> current = Collections.singletonList(context);
+        for (Step step : steps) {
+            List<Node> next = new ArrayList<>();
+            for (Node node : current) {
+                if (!step.select(node, next)) {
+                    return null;
+                }
+            }
+            current = next;
+        }
+        return (current instanceof ArrayList) ? current : new ArrayList<>(current);
+    }
+
+    /** Returns the string value of the first node that the expression selects.
+     *
+     * @param context the context node
+     * @return the string value of the first node (an empty string if nothing is selected), or
+     *         null if the expression has to be evaluated by the XPath processor */
+    public String valueAt(Node context) {
+        List<Node> nodes = nodeList(context);
+        if (nodes == null) {
+            return null;
+        }
+        if (nodes.isEmpty()) {
+            return "";
+        }
+        Node first = nodes.get(0);
+        switch (first.getNodeType()) {
+            case Node.ATTRIBUTE_NODE:
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                return first.getNodeValue();
+            case Node.DOCUMENT_NODE:
+                return null;
+            default:
+                return first.getTextContent();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleXPath[" + expression + "]";
+    }
+
+    private enum StepType {
+        SELF, PARENT, CHILD, ATTRIBUTE, TEXT
+    }
+
+    private static final class Step {
+        private final StepType type;
+        private final String namespace;
+        private final String localName;
+        private final int position;
+
+        private Step(StepType type, String namespace, String localName, int position) {
+            this.type = type;
+            this.namespace = namespace;
+            this.localName = localName;
+            this.position = position;
+        }
+
+        /* adds the selected nodes to the given list and returns false if the
+         * node cannot be handled in the same way as the XPath processor does */
+        private boolean select(Node node, List<Node> selected) {
+            switch (type) {
+                case SELF:
+                    selected.add(node);
+                    return true;
+                case PARENT:
+                    if (node.getNodeType() == Node.ATTRIBUTE_NODE) {
+                        return false;
+                    }
+                    Node parent = node.getParentNode();
+                    /* siblings in document order share their parent, so duplicates are consecutive */
+                    if (parent != null && (selected.isEmpty() || !selected.get(selected.size() - 1).isSameNode(parent))) {
+                        selected.add(parent);
+                    }
+                    return true;
+                case CHILD:
+                    if (node.getNodeType() == Node.ATTRIBUTE_NODE) {
+                        return true;
+                    }
+                    int matches = 0;
+                    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                        if (child.getNodeType() == Node.ENTITY_REFERENCE_NODE) {
+                            return false;
+                        }
+                        if (child.getNodeType() != Node.ELEMENT_NODE) {
+                            continue;
+                        }
+                        if (child.getLocalName() == null) {
+                            return false;
+                        }
+                        if (localName.equals(child.getLocalName()) && sameNamespace(child.getNamespaceURI())) {
+                            matches++;
+                            if (position == 0 || position == matches) {
+                                selected.add(child);
+                                if (position != 0) {
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    return true;
+                case ATTRIBUTE:
+                    if (node.getNodeType() != Node.ELEMENT_NODE) {
+                        return true;
+                    }
+                    if (node.getLocalName() == null) {
+                        return false;
+                    }
+                    Node attribute = node.getAttributes().getNamedItemNS(namespace, localName);
+                    if (attribute != null) {
+                        selected.add(attribute);
+                    }
+                    return true;
+                case TEXT:
+                    if (node.getNodeType() == Node.ATTRIBUTE_NODE) {
+                        return true;
+                    }
+                    boolean previousText = false;
+                    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                        short childType = child.getNodeType();
+                        if (childType == Node.ENTITY_REFERENCE_NODE) {
+                            return false;
+                        }
+                        boolean text = (childType == Node.TEXT_NODE || childType == Node.CDATA_SECTION_NODE);
+                        if (text && previousText) {
+                            return false;
+                        }
+                        if (text) {
+                            selected.add(child);
+                        }
+                        previousText = text;
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private boolean sameNamespace(String childNamespace) {
+            if (namespace == null) {
+                return childNamespace == null || childNamespace.isEmpty();
+            }
+            return namespace.equals(childNamespace);
+        }
+    }
+}
@@ -11,7 +11,6 @@ import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.impl.PropertyImpl;
 import com.hp.hpl.jena.reasoner.Reasoner;
 import com.hp.hpl.jena.reasoner.ReasonerRegistry;
-import gr.forth.ics.isl.x3ml.X3MLEngine;
 import gr.forth.Labels;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -23,13 +22,15 @@ import org.apache.jena.riot.RDFDataMgr;
 import org.apache.log4j.Logger;
 
 /** TerminologyModel is responsible for storing SKOS taxonomies and providing the 
- * corresponding functionalities. 
+ * corresponding functionalities. A terminology is loaded once, together with the mappings, 
+ * and it is shared by all the executions of the engine. The inference model cannot be queried 
+ * by more threads at the same time, so the queries are serialized. 
  * 
  * @author Yannis Marketakis (marketak 'at' ics 'dot' forth 'dot' gr)
  * @author Nikos Minadakis &lt;minadakn@ics.forth.gr&gt;
  */
 public class TerminologyModel {
-    public static InfModel infModel;
+    private final InfModel infModel;
     private static final Property BROADER_TRANSITIVE_PROPERTY=new PropertyImpl(Labels.SKOS_NAMESPACE+Labels.BROADER_TRANSITIVE);
     private static final Property EXACT_MATCH_PROPERTY=new PropertyImpl(Labels.SKOS_NAMESPACE+Labels.EXACT_MATCH);
     private static final Property RDFS_LABEL_PROPERTY=new PropertyImpl(Labels.RDFS_NAMESPACE+Labels.LABEL);
@@ -46,6 +47,7 @@ public class TerminologyModel {
         RDFDataMgr.read(model, terminologyStream, terminologyLang);
         RDFDataMgr.read(model, this.getClass().getClassLoader().getResourceAsStream(SKOS_SCHEMA_PATH), Lang.RDFXML);
         infModel=ModelFactory.createInfModel(reasoner, model);
+        infModel.prepare();
     }
     
     /** This method returns the labels of the broader terms of the given term. 
@@ -56,13 +58,9 @@ public class TerminologyModel {
      * 
      * @param term the term to be used as a reference for broader terms
      * @return the broader terms with respect to the original terminology */
-    public static List<String> getBroaderTerms(String term){
+    public synchronized List<String> getBroaderTerms(String term){
         List<String> broaderTerms=new ArrayList<>();
         
-        if(infModel==null){
-            throw new X3MLEngine.X3MLException("Trying to retrieve skos:broader terms, however the terminology is missing (SKOS terms were not loaded)");
-        }
-        
         RDFNode termNode=infModel.createLiteral(term);
         /* Parse all the objects, just in the case where they appear with language tags */
         NodeIterator objectIterator=infModel.listObjectsOfProperty(RDFS_LABEL_PROPERTY); 
@@ -112,13 +110,9 @@ public class TerminologyModel {
      * 
      * @param term the term to be used as a reference for exact match terms
      * @return the exact match terms with respect to the original terminology */
-    public static List<String> getExactMatchTerms(String term ){
+    public synchronized List<String> getExactMatchTerms(String term ){
         List<String> exactMatchTerms=new ArrayList<>();
         
-        if(infModel==null){
-            throw new X3MLEngine.X3MLException("Trying to retrieve skos:exactMatch terms, however the terminology is missing (SKOS terms were not loaded)");
-        }
-        
         RDFNode termNode=infModel.createLiteral(term);
         /* Parse all the objects, just in the case where they appear with language tags */
         NodeIterator objectIterator=infModel.listObjectsOfProperty(RDFS_LABEL_PROPERTY); 
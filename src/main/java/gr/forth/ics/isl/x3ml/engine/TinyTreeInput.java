@@ -0,0 +1,214 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.namespace.NamespaceContext;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.om.NamespaceResolver;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.sxpath.IndependentContext;
+import org.w3c.dom.Node;
+
+/** Evaluates XPath expressions over input that has been parsed directly into
+ * Saxon's TinyTree. The expressions are compiled with the s9api XPathCompiler and
+ * evaluated against XdmNode instances, so there is no wrapping of W3C DOM nodes
+ * during the navigation. The rest of the engine sees the nodes through the
+ * read-only DOM view that Saxon provides over its own trees (NodeOverNodeInfo).
+ * <p>
+ * The compiled expressions of the mappings are kept for as long as the evaluator lives. 
+ * The rest of the expressions (the ones that are built while the mappings are applied) 
+ * are kept in a cache of fixed size, which drops the least recently used one when it is full.
+ */
+public class TinyTreeInput {
+    private final Processor processor;
+    private final XPathCompiler compiler;
+    private final Set<String> mappingExpressions;
+    private final ConcurrentMap<String, XPathExecutable> executables = new ConcurrentHashMap<>();
+    private final Map<String, XPathExecutable> dynamicExecutables;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public TinyTreeInput(Configuration configuration, NamespaceContext namespaceContext) {
+        this(configuration, namespaceContext, Collections.<String>emptySet(), XPathExpressionCache.DEFAULT_CAPACITY);
+    }
+
+    /** Creates an evaluator that keeps the compiled form of the given expressions of the mappings, 
+     * and at most the given number of other expressions.
+     *
+     * @param configuration the configuration that was used for building the input trees
+     * @param namespaceContext the namespace context of the expressions
+     * @param mappingExpressions the expressions of the mappings
+     * @param capacity the maximum number of the other expressions that are kept */
+    public TinyTreeInput(Configuration configuration, NamespaceContext namespaceContext, Collection<String> mappingExpressions, int capacity) {
+        this.mappingExpressions = new HashSet<>(mappingExpressions);
+        this.dynamicExecutables = Collections.synchronizedMap(new LruMap<String, XPathExecutable>(capacity));
+        this.processor = new Processor(configuration);
+        this.compiler = processor.newXPathCompiler();
+        ((IndependentContext) compiler.getUnderlyingStaticContext()).setNamespaceResolver(new MappingNamespaces(namespaceContext));
+    }
+
+    /** Checks if the given node belongs to a tree that has been built by Saxon.
+     *
+     * @param node the node to check
+     * @return true if the node is a view over a Saxon tree */
+    public static boolean isTinyTree(Node node) {
+        return node instanceof NodeOverNodeInfo;
+    }
+
+    /** Returns the Saxon node behind the DOM view of the given node.
+     *
+     * @param node a DOM view over a Saxon node
+     * @return the underlying Saxon node */
+    public static NodeInfo nodeInfo(Node node) {
+        return ((NodeOverNodeInfo) node).getUnderlyingNodeInfo();
+    }
+
+    /** Returns the configuration that was used for building the tree of the given node.
+     *
+     * @param node a DOM view over a Saxon node
+     * @return the Saxon configuration of the tree */
+    public static Configuration configuration(Node node) {
+        return nodeInfo(node).getConfiguration();
+    }
+
+    /** Returns the string value of the first item that is returned after
+     * evaluating the given expression on the given node (or an empty string
+     * if the expression returns nothing).
+     *
+     * @param node the context node
+     * @param expression the XPath expression
+     * @return the string value of the first result
+     * @throws SaxonApiException if the expression cannot be compiled or evaluated */
+    public String valueAt(Node node, String expression) throws SaxonApiException {
+        XdmValue value = selector(node, expression).evaluate();
+        if (value.size() == 0) {
+            return "";
+        }
+        return value.itemAt(0).getStringValue();
+    }
+
+    /** Returns the nodes that are returned after evaluating the given expression
+     * on the given node, in document order.
+     *
+     * @param node the context node
+     * @param expression the XPath expression
+     * @return the (DOM views of the) resulting nodes
+     * @throws SaxonApiException if the expression cannot be compiled or evaluated, or if it does not return nodes */
+    public List<Node> nodeList(Node node, String expression) throws SaxonApiException {
+        XdmValue value = selector(node, expression).evaluate();
+        List<Node> nodes = new ArrayList<>(value.size());
+        for (XdmItem item : value) {
+            if (!(item instanceof XdmNode)) {
+                throw new SaxonApiException("The expression \"" + expression + "\" returned a value that is not a node");
+            }
+            nodes.add(NodeOverNodeInfo.wrap(((XdmNode) item).getUnderlyingNode()));
+        }
+        return nodes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the number of compiled expressions that are kept (of the mappings and the rest).
+     *
+     * @return the number of compiled expressions */
+    public int size() {
+        return executables.size() + dynamicExecutables.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TinyTreeInput[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+
+    private XPathSelector selector(Node node, String expression) throws SaxonApiException {
+        XPathSelector selector = executable(expression).load();
+        selector.setContextItem(new XdmNode(nodeInfo(node)));
+        return selector;
+    }
+
+    private XPathExecutable executable(String expression) throws SaxonApiException {
+        boolean mappingExpression = mappingExpressions.contains(expression);
+        XPathExecutable executable = mappingExpression ? executables.get(expression) : dynamicExecutables.get(expression);
+        if (executable != null) {
+            hits.incrementAndGet();
+            return executable;
+        }
+        misses.incrementAndGet();
+        synchronized (compiler) {
+            executable = compiler.compile(expression);
+        }
+        if (mappingExpression) {
+            XPathExecutable existing = executables.putIfAbsent(expression, executable);
+            return (existing == null) ? executable : existing;
+        }
+        dynamicExecutables.put(expression, executable);
+        return executable;
+    }
+
+    /* Unprefixed names refer to no namespace, as they do in the JAXP evaluation of the expressions */
+    private static class MappingNamespaces implements NamespaceResolver {
+        private final NamespaceContext namespaceContext;
+
+        private MappingNamespaces(NamespaceContext namespaceContext) {
+            this.namespaceContext = namespaceContext;
+        }
+
+        @Override
+        public String getURIForPrefix(String prefix, boolean useDefault) {
+            if (prefix.isEmpty()) {
+                return "";
+            }
+            if (namespaceContext == null) {
+                return null;
+            }
+            return namespaceContext.getNamespaceURI(prefix);
+        }
+
+        @Override
+        public Iterator<String> iteratePrefixes() {
+            return Collections.<String>emptyList().iterator();
+        }
+    }
+}
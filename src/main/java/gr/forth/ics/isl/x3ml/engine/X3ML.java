@@ -68,12 +68,6 @@ public interface X3ML {
 
     @XStreamAlias("x3ml")
     public static class RootElement extends Visible {
-        public static int mappingCounter=0;
-        public static int mappingsTotal=0;
-        public static int linkCounter=0;
-        public static boolean hasNamedGraphs=false;
-        public static int linksTotal=0;
-
 
         @XStreamAsAttribute
         public String version;
@@ -98,15 +92,20 @@ public interface X3ML {
         
 
         public void apply(Root context) {
+            ExecutionContext execution=context.getExecutionContext();
             if(mappings.namedgraph!=null){
-                RootElement.hasNamedGraphs=true;
-                Mappings.namedgraphProduced=mappings.namedgraph;
+                execution.useNamedGraphs();
+                execution.setMappingsNamedGraph(mappings.namedgraph);
+            }
+            execution.setMappingsTotal(mappings.mappings.size());
+            if(context.isParallelMappings()){
+                context.applyMappingsInParallel(mappings.mappings);
+                return;
             }
-            RootElement.mappingsTotal=mappings.mappings.size();
             for (Mapping mapping : mappings.mappings) {
 
-                RootElement.mappingCounter+=1;
-                RootElement.linkCounter=0;
+                execution.setMappingCounter(execution.getMappingCounter()+1);
+                execution.setLinkCounter(0);
                 if(!mapping.skipMapping()){
                     mapping.apply(context);
                 }
@@ -290,8 +289,6 @@ public interface X3ML {
         
         @XStreamImplicit
         public List<Mapping> mappings;
-        
-        public static String namedgraphProduced;
     }
 
     @XStreamAlias("mapping") @Log4j
@@ -307,34 +304,44 @@ public interface X3ML {
 
         @XStreamImplicit
         public List<LinkElement> links;
-        
-        public static String namedGraphProduced;
 
         public void apply(Root context) {
-            
+            ExecutionContext execution=context.getExecutionContext();
             if(this.namedgraph!=null){
-                RootElement.hasNamedGraphs=true;
-                namedGraphProduced=namedgraph;
+                execution.useNamedGraphs();
+                execution.setMappingNamedGraph(namedgraph);
+            }else{
+                execution.setMappingNamedGraph(null);
+            }
+
+            if(context.isParallel()){
+                context.applyInParallel(this);
             }else{
-                namedGraphProduced=null;
+                apply(context.createDomainContexts(this.domain, namedgraph), execution, context.getXPathInput());
             }
+            context.getXPathInput().endDomainScope();
+            context.getXPathInput().releaseJoinIndexes(this);
+        }
 
-            List<Domain> domList=context.createDomainContexts(this.domain, namedgraph);
-            DomainElement.namedGraphProduced=null;
+        /* applies the mapping on the given domains (all the domains of the input, or a part of them 
+         * when the domain nodes are processed in parallel) */
+        void apply(List<Domain> domList, ExecutionContext execution, XPathInput input) {
+            execution.setDomainNamedGraph(null);
             int counter=1;
             int domListTotal=domList.size();
             for (Domain domain : domList) {
-                if(X3MLEngine.REPORT_PROGRESS && domListTotal>0){
+                if(execution.isReportProgress() && domListTotal>0){
                     if(domListTotal>=20){
                         if(counter%(domListTotal/20)==0){
-                            log.info("Round "+X3ML.RootElement.mappingCounter+"/"+X3ML.RootElement.mappingsTotal+", Step 2/2: Creating link nodes: "+((100*(counter))/domListTotal)+"% completed");
+                            log.info("Round "+execution.getMappingCounter()+"/"+execution.getMappingsTotal()+", Step 2/2: Creating link nodes: "+((100*(counter))/domListTotal)+"% completed");
                         }
                     }else{
-                        log.info("Round "+X3ML.RootElement.mappingCounter+"/"+X3ML.RootElement.mappingsTotal+", Step 2/2: Creating link nodes: "+((100*(counter))/domListTotal)+"% completed");
+                        log.info("Round "+execution.getMappingCounter()+"/"+execution.getMappingsTotal()+", Step 2/2: Creating link nodes: "+((100*(counter))/domListTotal)+"% completed");
                     }
                 }
                 counter++;
-                RootElement.linkCounter=0;
+                execution.setLinkCounter(0);
+                input.beginDomainScope();
                 domain.resolve(namedgraph);
                 /*The following is necessary for the cases were there are no links or 
                 the links are not evaluated (the xpaths are not evaluated).
@@ -343,10 +350,10 @@ public interface X3ML {
                 if (links == null) {
                     continue;
                 }
-                RootElement.linksTotal=links.size();
+                execution.setLinksTotal(links.size());
                 for (LinkElement linkElement : links) {
-                    LinkElement.namedGraphProduced=null;
-                    RootElement.linkCounter+=1;
+                    execution.setLinkNamedGraph(null);
+                    execution.setLinkCounter(execution.getLinkCounter()+1);
                     if(!linkElement.skipLink()){
                         linkElement.apply(domain,linkElement.namedgraph, namedgraph);
                     }
@@ -377,8 +384,6 @@ public interface X3ML {
         
         @XStreamAsAttribute
         public String namedgraph;
-        
-        public static String namedGraphProduced;
 
         public void apply(Domain domain,String namedgraph, String mappingNamedGraph) {
             String pathSource = this.path.source_relation.relation.get(0).expression;
@@ -430,7 +435,7 @@ public interface X3ML {
                         }
                     }
                 }catch(X3MLEngine.X3MLException ex){
-                        X3MLEngine.exceptionMessagesList+=ex.toString()+"\n";
+                        domain.context.execution().addExceptionMessage(ex.toString());
                         Utils.printErrorMessages(ex.getMessage());
                 }
             }
@@ -475,8 +480,6 @@ public interface X3ML {
         
         @XStreamAsAttribute
         public String namedgraph;
-        
-        public static String namedGraphProduced;
     }
 
     @XStreamAlias("target_relation")
@@ -686,7 +689,11 @@ public interface X3ML {
 
         @Override
         public boolean yes(GeneratorContext context) {
-            List<String> broaderTerms=TerminologyModel.getBroaderTerms(value);
+            TerminologyModel terminology=context.context.terminology();
+            if(terminology==null){
+                throw exception("Trying to retrieve skos:broader terms, however the terminology is missing (SKOS terms were not loaded)");
+            }
+            List<String> broaderTerms=terminology.getBroaderTerms(value);
             for(String term : broaderTerms){
                 if(term.equals(context.evaluate(expression))){
                     return true;
@@ -707,7 +714,11 @@ public interface X3ML {
 
         @Override
         public boolean yes(GeneratorContext context) {
-            List<String> broaderTerms=TerminologyModel.getExactMatchTerms(value);
+            TerminologyModel terminology=context.context.terminology();
+            if(terminology==null){
+                throw exception("Trying to retrieve skos:exactMatch terms, however the terminology is missing (SKOS terms were not loaded)");
+            }
+            List<String> broaderTerms=terminology.getExactMatchTerms(value);
             for(String term : broaderTerms){
                 if(term.equals(context.evaluate(expression))){
                     return true;
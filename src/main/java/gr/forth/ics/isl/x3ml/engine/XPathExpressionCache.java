@@ -0,0 +1,139 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package gr.forth.ics.isl.x3ml.engine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/** A cache of compiled XPath expressions. Expressions are compiled once for every
+ * combination of expression string and namespace context and are reused afterwards,
+ * so that repeated evaluations of the same mapping XPaths do not pay the compilation cost.
+ * The cache can be safely used from multiple threads.
+ * <p>
+ * The cache keeps at most a fixed number of expressions, and drops the least recently 
+ * used one when it is full. The cache of an engine lives as long as the engine, and some 
+ * expressions are built while the mappings are applied (e.g. the positional expressions of 
+ * the double joins), so an unbounded cache would keep growing with every execution.
+ */
+public class XPathExpressionCache {
+    /** The number of expressions that are kept by default. */
+    public static final int DEFAULT_CAPACITY = 1024;
+    private final XPathFactory pathFactory;
+    private final Map<Key, XPathExpression> expressions;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public XPathExpressionCache(XPathFactory pathFactory) {
+        this(pathFactory, DEFAULT_CAPACITY);
+    }
+
+    /** Creates a cache that keeps at most the given number of expressions.
+     *
+     * @param pathFactory the factory of the XPath processors that compile the expressions
+     * @param capacity the maximum number of expressions in the cache */
+    public XPathExpressionCache(XPathFactory pathFactory, int capacity) {
+        this.pathFactory = pathFactory;
+        this.expressions = Collections.synchronizedMap(new LruMap<Key, XPathExpression>(capacity));
+    }
+
+    /** Returns the compiled form of the given expression. The expression is compiled
+     * only the first time it is requested for the given namespace context.
+     *
+     * @param expression the XPath expression
+     * @param namespaceContext the namespace context that will be used for resolving prefixes
+     * @return the compiled XPath expression
+     * @throws XPathExpressionException if the expression cannot be compiled */
+    public XPathExpression compile(String expression, NamespaceContext namespaceContext) throws XPathExpressionException {
+        Key key = new Key(expression, namespaceContext);
+        XPathExpression compiled = expressions.get(key);
+        if (compiled != null) {
+            hits.incrementAndGet();
+            return compiled;
+        }
+        misses.incrementAndGet();
+        XPath path;
+        synchronized (pathFactory) {
+            path = pathFactory.newXPath();
+        }
+        path.setNamespaceContext(namespaceContext);
+        compiled = path.compile(expression);
+        expressions.put(key, compiled);
+        return compiled;
+    }
+
+    /** Returns the number of lookups that were served by an already compiled expression.
+     *
+     * @return the number of cache hits */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups that required compiling the expression.
+     *
+     * @return the number of cache misses */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the number of compiled expressions kept in the cache.
+     *
+     * @return the size of the cache */
+    public int size() {
+        return expressions.size();
+    }
+
+    public void clear() {
+        expressions.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "XPathExpressionCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+
+    private static final class Key {
+        private final String expression;
+        private final NamespaceContext namespaceContext;
+
+        private Key(String expression, NamespaceContext namespaceContext) {
+            this.expression = expression;
+            this.namespaceContext = namespaceContext;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return expression.equals(key.expression) && namespaceContext == key.namespaceContext;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * expression.hashCode() + System.identityHashCode(namespaceContext);
+        }
+    }
+}
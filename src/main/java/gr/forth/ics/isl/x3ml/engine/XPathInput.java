@@ -22,16 +22,14 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import javax.xml.namespace.NamespaceContext;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.GeneratorElement;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.Helper.argVal;
 import static gr.forth.ics.isl.x3ml.engine.X3ML.SourceType;
@@ -39,6 +37,7 @@ import gr.forth.Labels;
 import gr.forth.Utils;
 import java.io.StringWriter;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -47,6 +46,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import static gr.forth.ics.isl.x3ml.X3MLEngine.exception;
 import lombok.extern.log4j.Log4j;
+import net.sf.saxon.s9api.SaxonApiException;
 import static org.joox.JOOX.$;
 
 /**
@@ -60,19 +60,75 @@ import static org.joox.JOOX.$;
  */
 @Log4j
 public class XPathInput {
+    /* the language of the nodes without an xml:lang ancestor (the memo cannot keep null values) */
+    private static final String NO_LANGUAGE = new String();
 
-    private final XPathFactory pathFactory = new net.sf.saxon.xpath.XPathFactoryImpl();
+    private final XPathExpressionCache expressionCache;
+    private final CompiledMapping compiledMapping;
     private final NamespaceContext namespaceContext;
     private final String languageFromMapping;
     private final Node rootNode;
-    public static String domainURIForNamedgraps=null;
-    public static String entireInputExportedRefUri=null;
-    private Map<String, Map<String, List<Node>>> rangeMapCache = new TreeMap<String, Map<String, List<Node>>>();
+    private final TinyTreeInput tinyTreeInput;
+    private final NodeIdentity nodeIdentity;
+    private ElementNameIndex elementNameIndex;
+    private boolean useSimplePaths = true;
+    private final Map<String, SimpleXPath> simplePaths = new HashMap<>();
+    private long simplePathHits;
+    private final Map<Long, String> languages;
+    private boolean useLanguageMemo = true;
+    private String entireInput;
+    private int entireInputSerializations;
+    private final XPathInput parent;
+    private final ExecutionContext execution;
+    private final JoinIndexes joinIndexes;
+    private final Map<ScopedKey, String> scopedValues = new HashMap<>();
+    private final Map<ScopedKey, List<Node>> scopedNodeLists = new HashMap<>();
+    private boolean domainScope;
+    private long scopedHits;
 
     public XPathInput(Node rootNode, NamespaceContext namespaceContext, String languageFromMapping) {
+        this(rootNode, namespaceContext, languageFromMapping, null);
+    }
+
+    public XPathInput(Node rootNode, NamespaceContext namespaceContext, String languageFromMapping, CompiledMapping compiledMapping) {
+        this(rootNode, namespaceContext, languageFromMapping, compiledMapping, new ExecutionContext());
+    }
+
+    public XPathInput(Node rootNode, NamespaceContext namespaceContext, String languageFromMapping, CompiledMapping compiledMapping, ExecutionContext execution) {
+        this.parent = null;
+        this.execution = execution;
+        this.compiledMapping = compiledMapping;
         this.rootNode = rootNode;
+        if (compiledMapping != null) {
+            this.expressionCache = compiledMapping.getExpressionCache();
+            this.tinyTreeInput = TinyTreeInput.isTinyTree(rootNode) ? compiledMapping.getTinyTreeInput(TinyTreeInput.configuration(rootNode), namespaceContext) : null;
+        } else {
+            this.expressionCache = new XPathExpressionCache(new net.sf.saxon.xpath.XPathFactoryImpl());
+            this.tinyTreeInput = TinyTreeInput.isTinyTree(rootNode) ? new TinyTreeInput(TinyTreeInput.configuration(rootNode), namespaceContext) : null;
+        }
+        this.nodeIdentity = new NodeIdentity(rootNode);
         this.namespaceContext = namespaceContext;
         this.languageFromMapping = languageFromMapping;
+        this.languages = new ConcurrentHashMap<>();
+        this.joinIndexes = new JoinIndexes(this, compiledMapping == null ? null : compiledMapping.getJoinIndexUsers());
+    }
+
+    /* an input of a worker, which shares the tree, the indexes and the memos of the given input */
+    private XPathInput(XPathInput parent, ExecutionContext execution) {
+        this.parent = parent;
+        this.execution = execution;
+        this.compiledMapping = parent.compiledMapping;
+        this.rootNode = parent.rootNode;
+        this.expressionCache = parent.expressionCache;
+        this.tinyTreeInput = parent.tinyTreeInput;
+        this.nodeIdentity = parent.nodeIdentity;
+        this.namespaceContext = parent.namespaceContext;
+        this.languageFromMapping = parent.languageFromMapping;
+        this.languages = parent.languages;
+        this.joinIndexes = parent.joinIndexes;
+        this.elementNameIndex = parent.elementNameIndex;
+        this.useSimplePaths = parent.useSimplePaths;
+        this.useLanguageMemo = parent.useLanguageMemo;
     }
 
     public X3ML.ArgValue evaluateArgument(Node node, int index, GeneratorElement generatorElement, String argName, SourceType defaultType, boolean mergeMultipleValues) {
@@ -140,7 +196,7 @@ public class XPathInput {
                 break;
             case entireInput:
                 value=argVal(this.getEntireXpathInput(), languageFromMapping);
-                entireInputExportedRefUri=domainURIForNamedgraps;
+                execution.setEntireInputExportedRefUri(execution.getDomainURIForNamedGraphs());
                 break;
             case xpathPosition:
                 value = argVal(extractXPath(node), languageFromMapping);
@@ -195,7 +251,7 @@ public class XPathInput {
                 break;
             case entireInput:
                 value=argVal(this.getEntireXpathInput(), languageFromMapping);
-                entireInputExportedRefUri=domainURIForNamedgraps;
+                execution.setEntireInputExportedRefUri(execution.getDomainURIForNamedGraphs());
                 break;
             default:
                 throw new RuntimeException("Not implemented");
@@ -213,14 +269,40 @@ public class XPathInput {
      * @param expression the XPath expression to be used for retrieving particular information from the node
      * @return the value of the node, after evaluating the given XPath expression */
     public String valueAt(Node node, String expression) {
+        ScopedKey key = null;
+        if (domainScope) {
+            key = new ScopedKey(node, expression);
+            String value = scopedValues.get(key);
+            if (value != null) {
+                scopedHits++;
+                return value;
+            }
+        }
+        String value = evaluateValue(node, expression);
+        if (key != null) {
+            scopedValues.put(key, value);
+        }
+        return value;
+    }
+
+    /* evaluates the expression without remembering the result in the domain scope */
+    String evaluateValue(Node node, String expression) {
         try{
             log.debug("Evaluating XPATH [Node: "+node+" Expression: "+expression+"]");
-            XPathExpression xe = xpath().compile(expression);
-            
-            String value=((String)xe.evaluate(node, XPathConstants.STRING)).trim();
+            SimpleXPath simplePath = simplePath(expression);
+            String value = (simplePath == null) ? null : simplePath.valueAt(node);
+            if (value != null) {
+                simplePathHits++;
+                value=value.trim();
+            } else if (tinyTreeInput != null) {
+                value=tinyTreeInput.valueAt(node, expression).trim();
+            } else {
+                XPathExpression xe = compile(expression);
+                value=((String)xe.evaluate(node, XPathConstants.STRING)).trim();
+            }
             log.debug("XPATH Result: "+value+" (length= "+value.length()+")");
             return value;
-        }catch(XPathExpressionException ex){
+        }catch(XPathExpressionException | SaxonApiException ex){
             throw new RuntimeException("XPath Problem: " + expression, ex);
         }
     }
@@ -289,20 +371,74 @@ public class XPathInput {
             list.add(context);
             return list;
         }
+        ScopedKey key = null;
+        if (domainScope) {
+            key = new ScopedKey(context, expression);
+            List<Node> list = scopedNodeLists.get(key);
+            if (list != null) {
+                scopedHits++;
+                return new ArrayList<>(list);
+            }
+        }
+        List<Node> list = evaluateNodeList(context, expression);
+        if (key != null) {
+            scopedNodeLists.put(key, new ArrayList<>(list));
+        }
+        return list;
+    }
+
+    /* evaluates the expression without remembering the result in the domain scope */
+    List<Node> evaluateNodeList(Node context, String expression) {
         try {
-            XPathExpression xe = xpath().compile(expression);
-            NodeList nodeList = (NodeList) xe.evaluate(context, XPathConstants.NODESET);
-            int nodesReturned = nodeList.getLength();
-            List<Node> list = new ArrayList<>(nodesReturned);
-            for (int index = 0; index < nodesReturned; index++) {
-                list.add(nodeList.item(index));
+            List<Node> list = (elementNameIndex == null) ? null : elementNameIndex.select(context, expression);
+            SimpleXPath simplePath = (list == null) ? simplePath(expression) : null;
+            if (list != null) {
+                log.debug("Used the element name index for the expression: "+expression);
+            } else if (simplePath != null && (list = simplePath.nodeList(context)) != null) {
+                simplePathHits++;
+            } else if (tinyTreeInput != null) {
+                list = tinyTreeInput.nodeList(context, expression);
+            } else {
+                XPathExpression xe = compile(expression);
+                NodeList nodeList = (NodeList) xe.evaluate(context, XPathConstants.NODESET);
+                int nodesReturned = nodeList.getLength();
+                list = new ArrayList<>(nodesReturned);
+                for (int index = 0; index < nodesReturned; index++) {
+                    list.add(nodeList.item(index));
+                }
             }
             return list;
-        } catch (XPathExpressionException e) {
+        } catch (XPathExpressionException | SaxonApiException e) {
             throw new RuntimeException("XPath Problem: " + expression, e);
         }
     }
     
+    /** Starts the evaluation of a new domain node. Until the scope ends, the results of 
+     * the XPath expressions are kept per (node, expression) pair, so that the 
+     * same expression is not evaluated again on the same node (e.g. by the label 
+     * generators, the language argument and the joins of the links). The results 
+     * of the previous domain node are discarded.
+     */
+    public void beginDomainScope() {
+        scopedValues.clear();
+        scopedNodeLists.clear();
+        domainScope = true;
+    }
+
+    /** Ends the evaluation of the current domain node and discards the kept results. */
+    public void endDomainScope() {
+        scopedValues.clear();
+        scopedNodeLists.clear();
+        domainScope = false;
+    }
+
+    /** Returns the number of evaluations that were served by the results kept for the current domain node.
+     *
+     * @return the number of reused results */
+    public long getScopedHits() {
+        return scopedHits;
+    }
+
     public List<Node> rootNodeList(
             String domainExpression,
             String pathExpression,
@@ -313,69 +449,107 @@ public class XPathInput {
         if (rangeExpression == null || rangeExpression.length() == 0) {
             throw exception("Range expression missing");
         }
-        Map<String, List<Node>> rangeMap = getRangeMap(
-                rootNode,
-                domainExpression,
-                pathExpression,
-                rangeExpression,
-                rangeKeyPath
-        );
-        List<Node> retList=rangeMap.get(domainValue);
-        return (retList==null) ? new ArrayList<Node>() : retList;
+        return joinIndexes.lookup(this, rangeExpression, rangeKeyPath, domainValue);
     }
 
-    private Map<String, List<Node>> getRangeMap(
-            Node context,
-            String domainExpression,
-            String pathExpression,
-            String rangeExpression,
-            String rangeKeyPath
-    ) {
-        String mapName = domainExpression + "|" + pathExpression + "|" + rangeExpression;
-
-        Map<String, List<Node>> map = rangeMapCache.get(mapName);
-        if (map == null) {
-            map = new HashMap<String, List<Node>>();
-            rangeMapCache.put(mapName, map);
-            for (Node node : nodeList(context, rangeExpression)) {
-                String key = valueAt(node, rangeKeyPath);
-                if(key.isEmpty()){
-                    Utils.printErrorMessages("Empty value for \""+rangeExpression+"/"+rangeKeyPath+"\"\t The node from the input XML is:\n"+$(node).toString());
-                }
-                List<Node> value = map.get(key);
-                
-                if (value == null) {
-                    value = new ArrayList<Node>();
-                    map.put(key, value);
-                }
-                value.add(node);
-            }
-//            Logger log = Logger.getLogger("getRangeMap");
-//            log.info("Built Map! " + mapName);
-//            for (Map.Entry<String, List<Node>> entry : map.entrySet()) {
-//                for (Node node : entry.getValue()) {
-//                    log.info("\n" + entry.getKey() + ":=" + $(node).content());
-//                }
-//            }
+    /** Returns the index of the intermediate table of a double join (see JoinIndexes.intermediate), 
+     * building it with this input if necessary.
+     *
+     * @param nodeInside the expression that selects the intermediate nodes
+     * @param keyPath the path of the key that is compared with the foreign key of the domain
+     * @param valuePath the path of the key that is compared with the primary key of the range
+     * @return the index, or null if the positional expressions have to be evaluated one by one */
+    public JoinIndexes.Intermediate intermediate(String nodeInside, String keyPath, String valuePath) {
+        return joinIndexes.intermediate(this, nodeInside, keyPath, valuePath);
+    }
+
+    /** Declares that the given mapping has been applied, so that the join indexes
+     * that are not used by the remaining mappings can be released.
+     *
+     * @param mapping the mapping that has been applied */
+    public void releaseJoinIndexes(X3ML.Mapping mapping) {
+        if (compiledMapping != null) {
+            joinIndexes.release(compiledMapping.getJoinIndexKeys(mapping));
         }
-        return map;
     }
 
-    private static String getLanguageFromSource(Node node) {
+    /** Returns the join indexes of this input.
+     *
+     * @return the join indexes */
+    public JoinIndexes getJoinIndexes() {
+        return joinIndexes;
+    }
+
+    public Node getRootNode() {
+        return rootNode;
+    }
+
+    /* The language is inherited from the nearest ancestor with an xml:lang attribute. 
+     * It is remembered for every node that is visited while looking for it, so 
+     * the ancestors of a node are walked only until a node with a known language is found */
+    private String getLanguageFromSource(Node node) {
+        if (!useLanguageMemo) {
+            return getLanguageFromAncestors(node);
+        }
+        List<Long> visited = new ArrayList<>();
+        String language = null;
         Node walkNode = node;
         while (walkNode != null) {
+            Long identity = nodeIdentity.of(walkNode);
+            String known = languages.get(identity);
+            if (known != null) {
+                language = (known == NO_LANGUAGE) ? null : known;
+                break;
+            }
+            visited.add(identity);
             NamedNodeMap attributes = walkNode.getAttributes();
             if (attributes != null) {
                 Node lang = attributes.getNamedItemNS("http://www.w3.org/XML/1998/namespace", "lang");
                 if (lang != null) {
-                    return lang.getNodeValue();
+                    language = lang.getNodeValue();
+                    break;
                 }
             }
             walkNode = walkNode.getParentNode();
         }
+        for (Long identity : visited) {
+            languages.put(identity, (language == null) ? NO_LANGUAGE : language);
+        }
+        return language;
+    }
+
+    /* the language of the nearest ancestor with an xml:lang attribute, without remembering it */
+    private static String getLanguageFromAncestors(Node node) {
+        for (Node walkNode = node; walkNode != null; walkNode = walkNode.getParentNode()) {
+            NamedNodeMap attributes = walkNode.getAttributes();
+            if (attributes != null) {
+                Node lang = attributes.getNamedItemNS("http://www.w3.org/XML/1998/namespace", "lang");
+                if (lang != null) {
+                    return lang.getNodeValue();
+                }
+            }
+        }
         return null;
     }
 
+    /** Returns the language of the given node, which is inherited from its nearest ancestor 
+     * (or itself) with an xml:lang attribute. The language of the mappings is not used here.
+     * 
+     * @param node an input node
+     * @return the language of the node, or null if no ancestor has an xml:lang attribute */
+    public String getLanguage(Node node) {
+        return getLanguageFromSource(node);
+    }
+
+    /** Enables (or disables) remembering the language of the visited nodes, so that the 
+     * ancestors of a node are walked only until a node with a known language is found. 
+     * It is enabled by default.
+     * 
+     * @param flag true for remembering the languages of the nodes */
+    public void useLanguageMemo(boolean flag) {
+        this.useLanguageMemo = flag;
+    }
+
     private SourceType sourceType(String value, SourceType defaultType) {
         if (value == null) {
             return defaultType;
@@ -384,23 +558,161 @@ public class XPathInput {
         }
     }
 
-    private XPath xpath() {
-        XPath path = pathFactory.newXPath();
-        path.setNamespaceContext(namespaceContext);
-        return path;
+    private XPathExpression compile(String expression) throws XPathExpressionException {
+        if (compiledMapping != null) {
+            XPathExpression precompiled = compiledMapping.get(expression, namespaceContext);
+            if (precompiled != null) {
+                return precompiled;
+            }
+        }
+        return expressionCache.compile(expression, namespaceContext);
+    }
+
+    /** Enables (or disables) the direct evaluation of simple paths (e.g. name/text() 
+     * or @id) by walking the tree instead of using the XPath processor. It is 
+     * enabled by default.
+     * 
+     * @param flag true for evaluating the simple paths directly */
+    public void useSimplePaths(boolean flag) {
+        this.useSimplePaths = flag;
+    }
+
+    /** Returns the number of evaluations that were done by walking the tree directly.
+     * 
+     * @return the number of simple path evaluations */
+    public long getSimplePathHits() {
+        return simplePathHits;
+    }
+
+    /* the simple paths of the mappings have been found when the mappings were compiled, 
+     * the rest of the expressions are checked once, the first time they are evaluated */
+    private SimpleXPath simplePath(String expression) {
+        if (!useSimplePaths) {
+            return null;
+        }
+        if (compiledMapping != null && compiledMapping.contains(expression, namespaceContext)) {
+            return compiledMapping.getSimplePath(expression, namespaceContext);
+        }
+        if (simplePaths.containsKey(expression)) {
+            return simplePaths.get(expression);
+        }
+        SimpleXPath simplePath = SimpleXPath.parse(expression, namespaceContext);
+        simplePaths.put(expression, simplePath);
+        return simplePath;
+    }
+
+    /** Enables (or disables) the element name index of the input. When it is enabled, 
+     * the expressions that select descendants by their name (e.g. //foo) are answered 
+     * from an index that is built once for the whole input, instead of scanning the 
+     * subtree of the context node.
+     * 
+     * @param flag true for using the element name index */
+    public void useElementNameIndex(boolean flag) {
+        this.elementNameIndex = flag ? new ElementNameIndex(rootNode, namespaceContext, nodeIdentity) : null;
+    }
+
+    /* Creates an input over the same tree, with the same configuration, for a worker that processes 
+     * a part of the domain nodes of a mapping in parallel with other workers. The node identities, 
+     * the element name index, the join indexes, the languages and the serialization of the entire 
+     * input are built once and shared with this input; the worker only has its own results of the 
+     * current domain node and its own simple paths of the expressions that are not in the mappings. */
+    XPathInput forWorker(ExecutionContext workerExecution) {
+        return new XPathInput(this, workerExecution);
+    }
+
+    /** Returns the element name index of the input, or null if it is not used.
+     * 
+     * @return the element name index or null */
+    public ElementNameIndex getElementNameIndex() {
+        return elementNameIndex;
+    }
+
+    /** Returns the identities of the nodes of the input.
+     * 
+     * @return the node identities */
+    public NodeIdentity getNodeIdentity() {
+        return nodeIdentity;
+    }
+
+    /** Returns the evaluator that is used when the input has been parsed into Saxon's 
+     * TinyTree, or null if the input is a W3C DOM tree.
+     * 
+     * @return the TinyTree evaluator or null */
+    public TinyTreeInput getTinyTreeInput() {
+        return tinyTreeInput;
+    }
+
+    /** Returns the cache holding the compiled XPath expressions that have been 
+     * evaluated against the input, together with its hit/miss statistics. When the input 
+     * is transformed by an engine, the cache belongs to the engine and it is shared by 
+     * all of its executions.
+     * 
+     * @return the compiled expressions cache */
+    public XPathExpressionCache getExpressionCache() {
+        return expressionCache;
     }
     
-    private String getEntireXpathInput(){
+    /* The input is serialized only the first time it is requested, and the same 
+     * serialization is returned to every generator (and every worker) that uses the entire input */
+    private synchronized String getEntireXpathInput(){
+        if(parent != null){
+            return parent.getEntireXpathInput();
+        }
+        if(entireInput == null){
+            entireInput=serializeEntireInput();
+            entireInputSerializations++;
+        }
+        return entireInput;
+    }
+
+    /** Returns the number of times the entire input has been serialized for the 
+     * entireInput arguments (it is serialized at most once).
+     * 
+     * @return the number of serializations of the input */
+    public synchronized int getEntireInputSerializations() {
+        if (parent != null) {
+            return parent.getEntireInputSerializations();
+        }
+        return entireInputSerializations;
+    }
+
+    private String serializeEntireInput(){
         try{
             TransformerFactory tf = TransformerFactory.newInstance();
             Transformer transformer = tf.newTransformer();
             transformer.setOutputProperty(OutputKeys.INDENT, "yes");
             StringWriter writer = new StringWriter();
-            transformer.transform(new DOMSource(this.rootNode), new StreamResult(writer));
+            Source source = (tinyTreeInput != null) ? TinyTreeInput.nodeInfo(this.rootNode) : new DOMSource(this.rootNode);
+            transformer.transform(source, new StreamResult(writer));
             return "\""+writer.getBuffer().toString()+"\"";
         }catch(IllegalArgumentException | TransformerException |TransformerFactoryConfigurationError ex){
             throw exception("",ex);
         }
     }
 
+    /* Saxon creates a new DOM view every time a node of a TinyTree is returned,
+     * so these nodes are compared through the nodes they are wrapping */
+    private static final class ScopedKey {
+        private final Object node;
+        private final String expression;
+
+        private ScopedKey(Node node, String expression) {
+            this.node = TinyTreeInput.isTinyTree(node) ? TinyTreeInput.nodeInfo(node) : node;
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ScopedKey)) {
+                return false;
+            }
+            ScopedKey key = (ScopedKey) other;
+            return node.equals(key.node) && expression.equals(key.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * node.hashCode() + expression.hashCode();
+        }
+    }
 }
@@ -18,11 +18,14 @@ under the License.
 ==============================================================================*/
 package eu.delving.x3ml;
 
+import gr.forth.Utils;
 import gr.forth.ics.isl.x3ml.X3MLEngine;
 import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.core.Quad;
 import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.ModelOutput;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.w3c.dom.Element;
@@ -43,6 +46,8 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -212,6 +217,38 @@ public class AllTests {
         return errors;
     }
 
+    /* the output (see withoutUUIDs) of the mappings over the input.xml of the given folder, parsed into a 
+     * TinyTree of the engine, with the generator-policy.xml of the folder */
+    public static List<String> tinyTreeOutput(X3MLEngine engine, String folder) {
+        Element input = Utils.parseXMLFileAsTinyTree(resource(folder + "/input.xml"), engine.getSaxonConfiguration());
+        return withoutUUIDs(engine.execute(input, policy(folder + "/generator-policy.xml", 2)));
+    }
+
+    /* the triples and the quads of the output without their UUIDs, followed by the number of distinct UUIDs */
+    public static List<String> withoutUUIDs(X3MLEngine.Output output) {
+        List<String> lines = new ArrayList<String>(Arrays.asList(output.toStringArray()));
+        for (Iterator<Quad> quads = ((ModelOutput) output).getExecutionContext().getQuadGraph().find(); quads.hasNext();) {
+            lines.add(quads.next().toString());
+        }
+        return withoutUUIDs(lines.toArray(new String[lines.size()]));
+    }
+
+    /* the lines in order without their UUIDs (which differ from one execution to the other), followed by the number of distinct UUIDs */
+    public static List<String> withoutUUIDs(String[] lines) {
+        List<String> normalized = new ArrayList<String>();
+        Set<String> uuids = new HashSet<String>();
+        for (String line : lines) {
+            Matcher matcher = UUID.matcher(line);
+            while (matcher.find()) {
+                uuids.add(matcher.group());
+            }
+            normalized.add(matcher.replaceAll("uuid"));
+        }
+        Collections.sort(normalized);
+        normalized.add(String.valueOf(uuids.size()));
+        return normalized;
+    }
+
     public static boolean errorFree(List<String> diff) {
         for (String line : diff) {
             if (line.startsWith("!")) {
@@ -223,6 +260,8 @@ public class AllTests {
 
     // === private stuff
 
+    private static Pattern UUID = Pattern.compile("uuid:[A-Z]+|(?<=_)[A-Z]+\\b");
+
     private static Pattern TRIPLE = Pattern.compile("^.*<?_?([^> ]+)>?\\s+<([^>]+)>\\s+<?([^>]+)>? \\.$");
 
     private static String getPredicate(String s) {
@@ -0,0 +1,131 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.LazyFileInputStream;
+import gr.forth.ics.isl.x3ml.BatchSummary;
+import gr.forth.ics.isl.x3ml.X3MLEngine;
+import gr.forth.ics.isl.x3ml.X3MLEngineFactory;
+import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static eu.delving.x3ml.AllTests.document;
+import static eu.delving.x3ml.AllTests.engine;
+import static eu.delving.x3ml.AllTests.resource;
+import static eu.delving.x3ml.AllTests.withoutUUIDs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every input file of a batch is transformed separately into an output file of its own,
+ * which must contain the output of a single execution over that input. An input that
+ * cannot be parsed is reported in the summary and does not stop the other inputs.
+ */
+public class TestBatchExecution {
+    private static final String[] INPUTS = {"input1.xml", "input2.xml", "input3.xml", "input4.xml"};
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testBatchExecution() throws Exception {
+        File inputFolder = temporaryFolder.newFolder("inputs");
+        List<LazyFileInputStream> inputs = new ArrayList<>();
+        for (String input : INPUTS) {
+            File file = new File(inputFolder, input);
+            try (OutputStream out = new FileOutputStream(file)) {
+                IOUtils.copy(resource("/multiple_input_files/" + input), out);
+            }
+            inputs.add(new LazyFileInputStream(file));
+        }
+        File broken = new File(inputFolder, "broken.xml");
+        Files.write(broken.toPath(), "<dataroot><COIN>".getBytes(StandardCharsets.UTF_8));
+        inputs.add(2, new LazyFileInputStream(broken));
+        File gzipFile = new File(inputFolder, "input1.xml.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+            IOUtils.copy(resource("/multiple_input_files/input1.xml"), out);
+        }
+        inputs.addAll(LazyFileInputStream.of(gzipFile));
+
+        X3MLEngine engine = engine("/multiple_input_files/mappings.x3ml");
+        File outputFolder = new File(temporaryFolder.getRoot(), "outputs");
+        BatchSummary summary = engine.executeBatch(inputs, outputFolder, "application/n-triples", 3, true,
+                X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2)));
+
+        assertEquals(inputs.size(), summary.getEntries().size());
+        assertEquals(1, summary.getFailures().size());
+        BatchSummary.Entry failure = summary.getFailures().get(0);
+        assertEquals(broken.getPath(), failure.getInput());
+        assertNull(failure.getOutput());
+        assertFalse(new File(outputFolder, "broken.nt").exists());
+
+        List<String> outputs = new ArrayList<>();
+        for (BatchSummary.Entry entry : summary.getEntries()) {
+            if (!entry.isFailed()) {
+                outputs.add(entry.getOutput().getName());
+            }
+        }
+        assertEquals(Arrays.asList("input1.nt", "input2.nt", "input3.nt", "input4.nt", "input1-2.nt"), outputs);
+        for (int i = 0; i < INPUTS.length; i++) {
+            BatchSummary.Entry entry = summary.getEntries().get(i < 2 ? i : i + 1);
+            List<String> expected = withoutUUIDs(engine.execute(document("/multiple_input_files/" + INPUTS[i]),
+                    X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2))).toStringArray());
+            assertTrue(expected.size() > 2);
+            assertEquals(expected.size() - 1, entry.getTriples());
+            assertEquals(expected, withoutUUIDs(lines(entry.getOutput())));
+        }
+        assertEquals(withoutUUIDs(lines(summary.getEntries().get(0).getOutput())), withoutUUIDs(lines(summary.getEntries().get(5).getOutput())));
+    }
+
+    /*The factory writes the summary of the batch next to the output files*/
+    @Test
+    public void testBatchOutputOfFactory() throws Exception {
+        File outputFolder = temporaryFolder.newFolder("outputs");
+        X3MLEngineFactory.create()
+                .withMappings(new File(TestBatchExecution.class.getResource("/multiple_input_files/mappings.x3ml").toURI()))
+                .withInputFolder(new File(TestBatchExecution.class.getResource("/multiple_input_files").toURI()), false)
+                .withOutput(new ByteArrayOutputStream(), X3MLEngineFactory.OutputFormat.TURTLE)
+                .withBatchOutput(outputFolder, 2)
+                .execute();
+        List<String> summary = Files.readAllLines(new File(outputFolder, BatchSummary.FILE_NAME).toPath(), StandardCharsets.UTF_8);
+        assertEquals(7, summary.size());
+        assertTrue(summary.get(0).startsWith("input\toutput\ttriples"));
+        for (String input : new String[]{"input1", "input1_err", "input2", "input2_err", "input3", "input4"}) {
+            assertTrue(new File(outputFolder, input + ".ttl").isFile());
+        }
+    }
+
+    private static String[] lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).toArray(new String[0]);
+    }
+}
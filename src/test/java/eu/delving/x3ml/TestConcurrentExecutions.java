@@ -0,0 +1,88 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.ics.isl.x3ml.X3MLEngine;
+import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
+import gr.forth.ics.isl.x3ml.engine.Generator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.jena.riot.Lang;
+import org.junit.Test;
+import static eu.delving.x3ml.AllTests.document;
+import static eu.delving.x3ml.AllTests.engine;
+import static eu.delving.x3ml.AllTests.policy;
+import static eu.delving.x3ml.AllTests.withoutUUIDs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The same engine (and the same generator policy) is used by many threads at the same
+ * time, and every execution must give the output of a single-threaded execution. Every
+ * execution parses its own input, as the records of a worker pool would be.
+ */
+public class TestConcurrentExecutions {
+    private static final int THREADS = 8;
+    private static final int EXECUTIONS = 64;
+
+    @Test
+    public void testConcurrentExecutionsWithTerminology() throws Exception {
+        X3MLEngine engine = engine("/skos_terminologies/01_broader_mappings.x3ml", Pair.of("/skos_terminologies/terms.nt", Lang.NT));
+        assertSameOutput(engine, "/skos_terminologies/input.xml", policy("/skos_terminologies/generator-policy.xml", 4));
+    }
+
+    @Test
+    public void testConcurrentExecutionsWithGlobalVariables() throws Exception {
+        X3MLEngine engine = engine("/variables/globalVariables-mappings.x3ml");
+        assertSameOutput(engine, "/variables/variables-input.xml", X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(4)));
+    }
+
+    @Test
+    public void testConcurrentExecutionsWithNamedGraphs() throws Exception {
+        X3MLEngine engine = engine("/namedgraphs/07.mappings_combination.x3ml");
+        assertSameOutput(engine, "/namedgraphs/_input.xml", policy("/generators/04_URIorUUID-generator-policy.xml", 4));
+    }
+
+    private static void assertSameOutput(final X3MLEngine engine, final String input, final Generator policy) throws Exception {
+        final List<String> expected = withoutUUIDs(engine.execute(document(input), policy));
+        assertTrue(expected.size() > 2);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int execution = 0; execution < EXECUTIONS; execution++) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        return withoutUUIDs(engine.execute(document(input), policy));
+                    }
+                }));
+            }
+            for (Future<List<String>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -18,14 +18,21 @@ under the License.
 ==============================================================================*/
 package eu.delving.x3ml;
 
+import gr.forth.Utils;
 import gr.forth.ics.isl.x3ml.X3MLEngine;
 import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
 import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.JoinIndexes;
+import gr.forth.ics.isl.x3ml.engine.XPathInput;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.junit.Test;
+import org.w3c.dom.Element;
+import java.util.ArrayList;
 import java.util.List;
 import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -50,5 +57,27 @@ public class TestDoubleJoin {
         assertTrue("\nLINES:"+ diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
     }
 
+    @Test
+    public void testIntermediateIndex() {
+        Element[] inputs = {document("/double_join/doubleinput.xml"), Utils.parseXMLFileAsTinyTree(resource("/double_join/doubleinput.xml"))};
+        for (Element root : inputs) {
+            XPathInput input = new XPathInput(root, null, null);
+            JoinIndexes.Intermediate intermediate = input.getJoinIndexes().intermediate("//actr_vs_proj", "actr_srl", "cptproj_srl");
+            int size = input.countNodes(root, "//actr_vs_proj//actr_srl/text()");
+            assertEquals(size, intermediate.size());
+            for (String key : new String[]{"MT", "MD", "XX"}) {
+                List<Integer> expected = new ArrayList<>();
+                for (int count = 1; count <= size; count++) {
+                    if (input.valueAt(root, "//actr_vs_proj[" + count + "]//actr_srl/text()").equals(key)) {
+                        expected.add(count);
+                        assertEquals(input.valueAt(root, "//actr_vs_proj[" + count + "]//cptproj_srl/text()"), intermediate.valueAt(count));
+                    }
+                }
+                assertEquals(expected, intermediate.positions(key));
+            }
+            assertNull(input.getJoinIndexes().intermediate("actr_vs_proj", "actr_srl", "cptproj_srl"));
+        }
+    }
+
 
 }
@@ -24,8 +24,10 @@ import static eu.delving.x3ml.AllTests.document;
 import static eu.delving.x3ml.AllTests.engine;
 import static eu.delving.x3ml.AllTests.xmlToNTriples;
 import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.ModelOutput;
 import org.apache.log4j.Logger;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 /**
@@ -42,6 +44,26 @@ public class TestExceptionMessages {
         X3MLEngine.Output output = engine.execute(document("/exception_messages/input.xml"),VALUE_POLICY);
         String[] mappingResult = output.toStringArray();
         String[] expectedResult = xmlToNTriples("/exception_messages/expectedResult.rdf");
-        assertTrue(!X3MLEngine.exceptionMessagesList.isEmpty());
+        assertTrue(!((ModelOutput) output).getExecutionContext().getExceptionMessages().isEmpty());
     }   
-}
\ No newline at end of file
+
+    @Test
+    public void testMessagesOfSeparateExecutions() {
+        X3MLEngine failingEngine = engine("/exception_messages/mappings.x3ml");
+        X3MLEngine.Output failingOutput = failingEngine.execute(document("/exception_messages/input.xml"),VALUE_POLICY);
+        X3MLEngine engine = engine("/empty_element/01_mapping_domain.x3ml");
+        X3MLEngine.Output output = engine.execute(document("/empty_element/input.xml"),VALUE_POLICY);
+        assertTrue(!((ModelOutput) failingOutput).getExecutionContext().getExceptionMessages().isEmpty());
+        assertTrue(((ModelOutput) output).getExecutionContext().getExceptionMessages().isEmpty());
+    }
+
+    @Test
+    public void testInvalidXPathFailsAtLoad() {
+        try{
+            engine("/exception_messages/mappingsInvalidXPath.x3ml");
+            fail("The mappings contain an invalid XPath expression");
+        }catch(X3MLEngine.X3MLException ex){
+            assertTrue(ex.getMessage().contains("text()["));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.Utils;
+import gr.forth.ics.isl.x3ml.engine.XPathInput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import static eu.delving.x3ml.AllTests.document;
+import static eu.delving.x3ml.AllTests.resource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that the inherited xml:lang of the input nodes is the same whether the languages
+ * of the visited nodes are remembered or not, regardless of the order the nodes are visited in.
+ */
+public class TestInheritedLanguage {
+    private static final String[] INPUTS = {
+        "/literals/03_inherited_lang-input.xml",
+        "/literals/02_lang-input.xml",
+        "/lido07/lido07.xml"
+    };
+
+    @Test
+    public void testSameLanguagesWithMemo() {
+        for (String input : INPUTS) {
+            assertSameLanguages(input, document(input));
+            assertSameLanguages(input, Utils.parseXMLFileAsTinyTree(resource(input)));
+        }
+    }
+
+    @Test
+    public void testInheritedLanguages() {
+        for (Element root : new Element[]{document(INPUTS[0]), Utils.parseXMLFileAsTinyTree(resource(INPUTS[0]))}) {
+            XPathInput input = new XPathInput(root, null, null);
+            assertEquals("en", input.getLanguage(input.nodeList(root, "/dataroot/SAMPLE[1]/COUNTRY_NAME[1]/text()").get(0)));
+            assertEquals("en-GB", input.getLanguage(input.nodeList(root, "/dataroot/SAMPLE[1]/COUNTRY_NAME[2]").get(0)));
+            assertEquals("el", input.getLanguage(input.nodeList(root, "/dataroot/SAMPLE[2]/COUNTRY_NAME[2]").get(0)));
+            assertEquals("en", input.getLanguage(input.nodeList(root, "//REGION[1]/text()").get(0)));
+            assertEquals("el", input.getLanguage(input.nodeList(root, "//REGION[2]/text()").get(0)));
+            assertEquals("", input.getLanguage(input.nodeList(root, "/dataroot/SAMPLE[3]/COUNTRY_NAME[1]").get(0)));
+            assertEquals("de", input.getLanguage(input.nodeList(root, "/dataroot/SAMPLE[3]/COUNTRY_NAME[2]/text()").get(0)));
+        }
+    }
+
+    /* the nodes are visited in document order and in reverse order, so the memo is used both
+     * from the ancestors to the descendants and from the descendants to the ancestors */
+    private static void assertSameLanguages(String message, Element root) {
+        XPathInput plain = new XPathInput(root, null, null);
+        plain.useLanguageMemo(false);
+        List<Node> nodes = plain.nodeList(root, "/ | //* | //@* | //text()");
+        assertTrue(message, nodes.size() > 10);
+        List<Node> reversed = new ArrayList<>(nodes);
+        Collections.reverse(reversed);
+        for (List<Node> order : Arrays.asList(nodes, reversed)) {
+            XPathInput memo = new XPathInput(root, null, null);
+            for (Node node : order) {
+                assertEquals(message, plain.getLanguage(node), memo.getLanguage(node));
+            }
+        }
+    }
+}
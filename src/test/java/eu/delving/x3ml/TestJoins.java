@@ -18,14 +18,29 @@ under the License.
 ==============================================================================*/
 package eu.delving.x3ml;
 
+import gr.forth.Utils;
 import gr.forth.ics.isl.x3ml.X3MLEngine;
 import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
 import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.JoinIndexes;
+import gr.forth.ics.isl.x3ml.engine.XPathInput;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import static eu.delving.x3ml.AllTests.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -35,6 +50,8 @@ import static org.junit.Assert.assertTrue;
 public class TestJoins {
     private final Logger log = Logger.getLogger(getClass());
     private final Generator VALUE_POLICY = X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(1));
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @Test
     public void testMissingElementFromJoin() {
@@ -65,4 +82,65 @@ public class TestJoins {
         List<String> diff = compareNTriples(expectedResult, mappingResult);
         assertTrue("\nLINES:"+ diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
     }
+
+    @Test
+    public void testDiskJoinIndexes() {
+        String[][] mappingsInputsAndResults = {
+            {"/joins/01_mappings_missing_element.x3ml", "/joins/01_input_missing_element.xml", "/joins/01_expectedResults.rdf"},
+            {"/joins/01_mappings_missing_element.x3ml", "/joins/02_input_broken_join.xml", "/joins/02_expectedResults.rdf"},
+            {"/joins/03_mapping_missing_element_double_join.x3ml", "/joins/03_input_missing_element_double_join.xml", "/joins/03_expectedResults.rdf"}
+        };
+        for (String[] mappingInputAndResult : mappingsInputsAndResults) {
+            X3MLEngine engine = engine(mappingInputAndResult[0]);
+            engine = engine.withJoinIndexSpilling(0, null);
+            String[] mappingResult = engine.execute(document(mappingInputAndResult[1]), X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(1))).toStringArray();
+            String[] expectedResult = xmlToNTriples(mappingInputAndResult[2]);
+            List<String> diff = compareNTriples(expectedResult, mappingResult);
+            assertTrue(mappingInputAndResult[1] + "\nLINES:"+ diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+        }
+    }
+
+    /*The indexes on the disk find the same range nodes (elements, attributes and texts) as the 
+    ones in memory, in the same order, and their files are removed when they are released*/
+    @Test
+    public void testDiskJoinIndexLookups() throws Exception {
+        StringBuilder xml = new StringBuilder("<dataroot>");
+        for (int i = 0; i < 5000; i++) {
+            xml.append("<ROW code=\"c").append(i % 300).append("\"><KEY>k").append(i % 700).append("</KEY>")
+               .append(i % 1000 == 0 ? "<EMPTY/>" : "<EMPTY>e" + (i % 3) + "</EMPTY>").append("</ROW>");
+        }
+        xml.append("</dataroot>");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+        Element[] inputs = {documentBuilderFactory().newDocumentBuilder().parse(new ByteArrayInputStream(bytes)).getDocumentElement(),
+                            Utils.parseXMLFileAsTinyTree(new ByteArrayInputStream(bytes))};
+        String[][] rangesAndKeys = {{"//ROW", "KEY/text()"}, {"//ROW/@code", "."}, {"//KEY/text()", "."}, {"//ROW", "EMPTY/text()"}};
+        for (Element root : inputs) {
+            File directory = temporaryFolder.newFolder();
+            XPathInput input = new XPathInput(root, null, null);
+            JoinIndexes memory = new JoinIndexes(input, null);
+            Map<JoinIndexes.Key, Integer> users = new HashMap<>();
+            for (String[] rangeAndKey : rangesAndKeys) {
+                users.put(new JoinIndexes.Key(rangeAndKey[0], rangeAndKey[1]), 1);
+            }
+            JoinIndexes disk = new JoinIndexes(input, users);
+            disk.spillAbove(0, directory);
+            for (String[] rangeAndKey : rangesAndKeys) {
+                for (String value : Arrays.asList("k0", "k699", "k42", "c7", "c299", "e1", "", "missing")) {
+                    List<Node> expected = memory.lookup(rangeAndKey[0], rangeAndKey[1], value);
+                    List<Node> actual = disk.lookup(rangeAndKey[0], rangeAndKey[1], value);
+                    assertEquals(value, expected.size(), actual.size());
+                    for (int i = 0; i < expected.size(); i++) {
+                        assertTrue(value, expected.get(i).isSameNode(actual.get(i)));
+                    }
+                }
+            }
+            assertEquals(8, disk.lookup("//ROW", "KEY/text()", "k42").size());
+            assertEquals(rangesAndKeys.length, directory.list().length);
+            for (String[] rangeAndKey : rangesAndKeys) {
+                disk.release(Collections.singleton(new JoinIndexes.Key(rangeAndKey[0], rangeAndKey[1])));
+            }
+            assertEquals(0, disk.size());
+            assertEquals(0, directory.list().length);
+        }
+    }
 }
\ No newline at end of file
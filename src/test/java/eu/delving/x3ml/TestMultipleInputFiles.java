@@ -18,24 +18,53 @@ under the License.
 ==============================================================================*/
 package eu.delving.x3ml;
 
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
+import com.hp.hpl.jena.sparql.core.DatasetGraphSimpleMem;
+import com.hp.hpl.jena.sparql.core.Quad;
 import gr.forth.ics.isl.x3ml.X3MLEngine;
 import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
 import static eu.delving.x3ml.AllTests.compareNTriples;
 import static eu.delving.x3ml.AllTests.document;
 import static eu.delving.x3ml.AllTests.engine;
 import static eu.delving.x3ml.AllTests.errorFree;
+import static eu.delving.x3ml.AllTests.policy;
 import static eu.delving.x3ml.AllTests.resource;
+import static eu.delving.x3ml.AllTests.withoutUUIDs;
 import static eu.delving.x3ml.AllTests.xmlToNTriples;
+import gr.forth.InputSnapshotCache;
+import gr.forth.LazyFileInputStream;
 import gr.forth.Utils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
 import org.apache.log4j.Logger;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * @author Yannis Marketakis (marketak 'at' ics 'dot' forth 'dot' gr)
@@ -43,6 +72,8 @@ import static org.junit.Assert.fail;
  */
 public class TestMultipleInputFiles {
     private final Logger log = Logger.getLogger(getClass());
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @Test
     public void testUsingSingleFile() throws FileNotFoundException {
@@ -84,6 +115,229 @@ public class TestMultipleInputFiles {
         assertTrue("\nLINES:"+ diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
     }
     
+    /*The contents of the files are moved (not copied) under the root element of the first file, in the order of the files*/
+    @Test
+    public void testContentsOfMultipleFiles() {
+        String[] files={"/multiple_input_files/input1.xml", "/multiple_input_files/input2.xml", "/multiple_input_files/input3.xml"};
+        List<String> expectedChildren=new ArrayList<>();
+        List<InputStream> LIST_OF_INPUT_STREAMS=new ArrayList<>();
+        for(String file : files){
+            expectedChildren.addAll(childElements(document(file)));
+            LIST_OF_INPUT_STREAMS.add(resource(file));
+        }
+        Element root=Utils.parseMultipleXMLFiles(LIST_OF_INPUT_STREAMS);
+        assertEquals(expectedChildren, childElements(root));
+        for(Node child=root.getFirstChild(); child!=null; child=child.getNextSibling()){
+            assertTrue(child.getOwnerDocument()==root.getOwnerDocument());
+        }
+    }
+    
+    /*The input files are opened when they are parsed, and they are closed right after*/
+    @Test
+    public void testLazyInputFiles() throws Exception {
+        File folder=new File(TestMultipleInputFiles.class.getResource("/multiple_input_files").toURI());
+        assertEquals(6, Utils.retrieveXMLfiles(folder, false).size());
+        List<LazyFileInputStream> inputFiles=new ArrayList<>();
+        List<String> expectedChildren=new ArrayList<>();
+        for(String file : new String[]{"input1.xml", "input2.xml", "input3.xml"}){
+            inputFiles.add(new LazyFileInputStream(new File(folder, file)));
+            expectedChildren.addAll(childElements(document("/multiple_input_files/"+file)));
+        }
+        for(LazyFileInputStream inputFile : inputFiles){
+            assertFalse(inputFile.isOpen());
+        }
+        Element root=Utils.parseMultipleXMLFiles(new ArrayList<InputStream>(inputFiles));
+        assertEquals(expectedChildren, childElements(root));
+        for(LazyFileInputStream inputFile : inputFiles){
+            assertFalse(inputFile.isOpen());
+        }
+    }
+    
+    /*The gzip files are decompressed, and the XML entries of the zip files are separate inputs*/
+    @Test
+    public void testCompressedInputsAndOutput() throws Exception {
+        File gzipFile=temporaryFolder.newFile("input1.xml.gz");
+        try(OutputStream out=new GZIPOutputStream(new FileOutputStream(gzipFile))){
+            IOUtils.copy(resource("/multiple_input_files/input1.xml"), out);
+        }
+        File zipFile=temporaryFolder.newFile("inputs.zip");
+        try(ZipOutputStream out=new ZipOutputStream(new FileOutputStream(zipFile))){
+            for(String file : new String[]{"input3.xml", "input2.xml", "mappings.x3ml"}){
+                out.putNextEntry(new ZipEntry("inputs/"+file));
+                IOUtils.copy(resource("/multiple_input_files/"+file), out);
+                out.closeEntry();
+            }
+        }
+        assertEquals(2, Utils.retrieveXMLfiles(temporaryFolder.getRoot(), false).size());
+        List<InputStream> inputs=new ArrayList<>();
+        inputs.addAll(LazyFileInputStream.of(gzipFile));
+        inputs.addAll(LazyFileInputStream.of(zipFile));
+        assertEquals(3, inputs.size());
+        assertEquals("inputs/input2.xml", ((LazyFileInputStream)inputs.get(1)).getEntry());
+        List<String> expectedChildren=new ArrayList<>();
+        for(String file : new String[]{"input1.xml", "input2.xml", "input3.xml"}){
+            expectedChildren.addAll(childElements(document("/multiple_input_files/"+file)));
+        }
+        Element root=Utils.parseMultipleXMLFiles(inputs);
+        assertEquals(expectedChildren, childElements(root));
+        for(InputStream input : inputs){
+            assertFalse(((LazyFileInputStream)input).isOpen());
+        }
+        X3MLEngine.Output output=engine("/multiple_input_files/mappings.x3ml").execute(root, X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2)));
+        ByteArrayOutputStream compressed=new ByteArrayOutputStream();
+        output.writeCompressed(compressed, "application/n-triples", 512);
+        String decompressed=IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())), "UTF-8");
+        assertEquals(Arrays.asList(output.toStringArray()), Arrays.asList(decompressed.split("\n")));
+    }
+    
+    /*A missing entry of a zip file is reported when its stream is read, and the stream is closed*/
+    @Test
+    public void testMissingZipEntry() throws Exception {
+        File zipFile=temporaryFolder.newFile("input.zip");
+        try(ZipOutputStream out=new ZipOutputStream(new FileOutputStream(zipFile))){
+            out.putNextEntry(new ZipEntry("input1.xml"));
+            IOUtils.copy(resource("/multiple_input_files/input1.xml"), out);
+            out.closeEntry();
+        }
+        LazyFileInputStream input=new LazyFileInputStream(zipFile, "input2.xml");
+        try{
+            input.read();
+            fail("The missing zip entry was not reported");
+        }catch(X3MLEngine.X3MLException ex){
+            assertTrue(ex.getMessage(), ex.getMessage().contains("input2.xml"));
+        }
+        assertFalse(input.isOpen());
+        assertEquals(-1, input.read());
+    }
+    
+    /*The inputs are transformed separately, so the UUIDs are given in a different order*/
+    @Test
+    public void testInputSnapshots() throws Exception {
+        File snapshots=temporaryFolder.newFolder("snapshots");
+        List<File> files=new ArrayList<>();
+        for(String file : new String[]{"input1.xml", "input2.xml", "input3.xml"}){
+            files.add(new File(TestMultipleInputFiles.class.getResource("/multiple_input_files/"+file).toURI()));
+        }
+        InputSnapshotCache cache=new InputSnapshotCache(snapshots);
+        Element parsedRoot=cache.parse(lazyInputs(files), false);
+        Element loadedRoot=cache.parse(lazyInputs(files), false);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, snapshots.listFiles().length);
+        assertEquals(childElements(parsedRoot), childElements(loadedRoot));
+        String[] expectedResult=engine("/multiple_input_files/mappings.x3ml").execute(parsedRoot, X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2))).toStringArray();
+        String[] mappingResult=engine("/multiple_input_files/mappings.x3ml").execute(loadedRoot, X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2))).toStringArray();
+        assertEquals(Arrays.asList(expectedResult), Arrays.asList(mappingResult));
+        cache.parse(lazyInputs(files.subList(0, 2)), false);
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, snapshots.listFiles().length);
+        List<File> lidoFile=Arrays.asList(new File(TestMultipleInputFiles.class.getResource("/lido07/lido07.xml").toURI()));
+        cache.parse(lazyInputs(lidoFile), true);
+        Element lidoRoot=cache.parse(lazyInputs(lidoFile), true);
+        assertEquals("http://www.lido-schema.org", lidoRoot.getNamespaceURI());
+        expectedResult=engine("/lido07/lido07.x3ml").execute(document("/lido07/lido07.xml"), policy("/lido07/lido07-gen-policy.xml")).toStringArray();
+        mappingResult=engine("/lido07/lido07.x3ml").execute(lidoRoot, policy("/lido07/lido07-gen-policy.xml")).toStringArray();
+        List<String> diff=compareNTriples(expectedResult, mappingResult);
+        assertTrue("\nLINES:"+diff.size()+"\n"+StringUtils.join(diff, "\n")+"\n", errorFree(diff));
+    }
+    
+    /*The entries of a zip file share the hash of the zip file, and they are told apart by their names*/
+    @Test
+    public void testZipInputSnapshots() throws Exception {
+        File zipFile=temporaryFolder.newFile("inputs.zip");
+        try(ZipOutputStream out=new ZipOutputStream(new FileOutputStream(zipFile))){
+            for(String file : new String[]{"input1.xml", "input2.xml", "input3.xml"}){
+                out.putNextEntry(new ZipEntry(file));
+                IOUtils.copy(resource("/multiple_input_files/"+file), out);
+                out.closeEntry();
+            }
+        }
+        InputSnapshotCache cache=new InputSnapshotCache(temporaryFolder.newFolder("snapshots"));
+        Element parsedRoot=cache.parse(LazyFileInputStream.of(zipFile), false);
+        Element loadedRoot=cache.parse(LazyFileInputStream.of(zipFile), false);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(childElements(parsedRoot), childElements(loadedRoot));
+        cache.parse(LazyFileInputStream.of(zipFile).subList(0, 2), false);
+        assertEquals(2, cache.getMisses());
+    }
+    
+    private static List<LazyFileInputStream> lazyInputs(List<File> files){
+        List<LazyFileInputStream> inputs=new ArrayList<>();
+        for(File file : files){
+            inputs.addAll(LazyFileInputStream.of(file));
+        }
+        return inputs;
+    }
+    
+    @Test
+    public void testPipelinedExecution() {
+        X3MLGeneratorPolicy policy=X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2));
+        String[] expectedResult = engine("/multiple_input_files/mappings.x3ml").execute(Utils.parseMultipleXMLFiles(Arrays.asList(resource("/multiple_input_files/input1.xml"),
+                                                                                                                                resource("/multiple_input_files/input2.xml"))),policy).toStringArray();
+        policy=X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2));
+        String[] mappingResult = engine("/multiple_input_files/mappings.x3ml").executePipelined(Arrays.asList(resource("/multiple_input_files/input1.xml"),
+                                                                                                               resource("/multiple_input_files/input2.xml")), policy, 1, null).toStringArray();
+        assertEquals(withoutUUIDs(expectedResult), withoutUUIDs(mappingResult));
+        policy=X3MLGeneratorPolicy.load(null, X3MLGeneratorPolicy.createUUIDSource(2));
+        ByteArrayOutputStream ntriples=new ByteArrayOutputStream();
+        X3MLEngine.Output output = engine("/multiple_input_files/mappings.x3ml").executePipelined(Arrays.asList(resource("/multiple_input_files/input1.xml"),
+                                                                                                                resource("/multiple_input_files/input2.xml")), policy, 1, ntriples);
+        assertTrue(output.getModel().isEmpty());
+        assertEquals(withoutUUIDs(expectedResult), withoutUUIDs(ntriples.toString().trim().split("\n")));
+    }
+    
+    /*With named graphs, the outputs of all the inputs are written to the stream as TriG at the end*/
+    @Test
+    public void testPipelinedExecutionWithNamedGraphs() {
+        X3MLEngine engine=engine("/namedgraphs/07.mappings_combination.x3ml");
+        X3MLEngine.Output expectedOutput=engine.executePipelined(Arrays.asList(resource("/namedgraphs/_input.xml"), resource("/namedgraphs/_input.xml")), 
+                                                                policy("/generators/04_URIorUUID-generator-policy.xml", 2), 1, null);
+        ByteArrayOutputStream expected=new ByteArrayOutputStream();
+        expectedOutput.write(expected, "application/trig");
+        int trigFiles=trigFiles();
+        ByteArrayOutputStream trig=new ByteArrayOutputStream();
+        X3MLEngine.Output output=engine.executePipelined(Arrays.asList(resource("/namedgraphs/_input.xml"), resource("/namedgraphs/_input.xml")), 
+                                                        policy("/generators/04_URIorUUID-generator-policy.xml", 2), 1, trig);
+        assertTrue(output.getModel().isEmpty());
+        assertFalse(quads(expected).isEmpty());
+        assertEquals(quads(expected), quads(trig));
+        assertEquals(trigFiles, trigFiles());
+    }
+    
+    /*the quads of the given TriG output, without their UUIDs*/
+    private static List<String> quads(ByteArrayOutputStream trig){
+        DatasetGraph dataset=new DatasetGraphSimpleMem();
+        RDFDataMgr.read(dataset, new ByteArrayInputStream(trig.toByteArray()), Lang.TRIG);
+        List<String> list=new ArrayList<>();
+        for(Iterator<Quad> quads=dataset.find(); quads.hasNext();){
+            list.add(quads.next().toString().replaceAll("uuid:[A-Z]+", "uuid"));
+        }
+        Collections.sort(list);
+        return list;
+    }
+    
+    /*the number of the TriG files that the engine writes in the working directory, when it cannot write quads in the requested format*/
+    private static int trigFiles(){
+        String[] files=new File(".").list(new FilenameFilter(){
+            @Override
+            public boolean accept(File directory, String name){
+                return name.startsWith("output-") && name.endsWith(".trig");
+            }
+        });
+        return (files==null)?0:files.length;
+    }
+    
+    private static List<String> childElements(Element root){
+        List<String> children=new ArrayList<>();
+        for(Node child=root.getFirstChild(); child!=null; child=child.getNextSibling()){
+            if(child.getNodeType()==Node.ELEMENT_NODE){
+                children.add(child.getNodeName()+": "+child.getTextContent().trim());
+            }
+        }
+        return children;
+    }
+    
     /*Concatenating multiple xml input files is valid only if the given xml input files have the same root element*/
     @Test
     public void testUsingMultipleFilesCheckError() throws FileNotFoundException {
@@ -0,0 +1,89 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.ics.isl.x3ml.X3MLEngine;
+import gr.forth.ics.isl.x3ml.engine.GeneratorContext;
+import java.util.List;
+import org.junit.Test;
+import static eu.delving.x3ml.AllTests.document;
+import static eu.delving.x3ml.AllTests.engine;
+import static eu.delving.x3ml.AllTests.policy;
+import static eu.delving.x3ml.AllTests.tinyTreeOutput;
+import static eu.delving.x3ml.AllTests.withoutUUIDs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The domain nodes of the mappings are processed in parallel, and the output must be the
+ * output of a sequential execution: the same triples, the same named graphs and the same
+ * number of generated UUIDs (the shared nodes and the global variables get a single UUID).
+ */
+public class TestParallelDomains {
+    @Test
+    public void testParallelDomains() {
+        X3MLEngine engine = engine("/parallel_domains/mappings.x3ml");
+        List<String> expected = tinyTreeOutput(engine, "/parallel_domains");
+        X3MLEngine parallel = engine.withParallelDomains(4);
+        for (int i = 0; i < 4; i++) {
+            List<String> actual = tinyTreeOutput(parallel, "/parallel_domains");
+            assertEquals(expected, actual);
+        }
+        assertTrue(expected.size() > 1000);
+    }
+
+    /* the global variables are generated from the first domain node in document order */
+    @Test
+    public void testGlobalVariables() {
+        X3MLEngine engine = engine("/parallel_domains/global-mappings.x3ml");
+        List<String> expected = tinyTreeOutput(engine, "/parallel_domains");
+        assertTrue(expected.toString().contains("coat/blue"));
+        assertFalse(expected.toString().contains("coat/red"));
+        X3MLEngine parallel = engine.withParallelDomains(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expected, tinyTreeOutput(parallel, "/parallel_domains"));
+        }
+    }
+
+    @Test
+    public void testDomInputIsProcessedSequentially() {
+        X3MLEngine engine = engine("/parallel_domains/mappings.x3ml");
+        List<String> expected = tinyTreeOutput(engine, "/parallel_domains");
+        X3MLEngine.Output output = engine.withParallelDomains(4).execute(document("/parallel_domains/input.xml"), policy("/parallel_domains/generator-policy.xml", 2));
+        assertEquals(expected, withoutUUIDs(output));
+    }
+
+    /* the association table is used by one engine, and it does not stop the parallel processing of another */
+    @Test
+    public void testAssociationTableOfOneEngine() {
+        X3MLEngine engine = engine("/parallel_domains/mappings.x3ml");
+        List<String> expected = tinyTreeOutput(engine, "/parallel_domains");
+        engine = engine.withParallelDomains(4);
+        X3MLEngine tableEngine = engine.withAssociationTable(true);
+        String table = GeneratorContext.exportAssociationTableToString();
+        assertEquals(expected, tinyTreeOutput(tableEngine, "/parallel_domains"));
+        assertFalse(X3MLEngine.ENABLE_ASSOCIATION_TABLE);
+        String filledTable = GeneratorContext.exportAssociationTableToString();
+        assertNotEquals(table, filledTable);
+        assertEquals(expected, tinyTreeOutput(engine, "/parallel_domains"));
+        assertEquals(filledTable, GeneratorContext.exportAssociationTableToString());
+    }
+}
@@ -0,0 +1,61 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.ics.isl.x3ml.X3MLEngine;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static eu.delving.x3ml.AllTests.engine;
+import static eu.delving.x3ml.AllTests.tinyTreeOutput;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The mappings that do not share global variables or input nodes are applied concurrently,
+ * and the output must be the output of a sequential execution.
+ */
+public class TestParallelMappings {
+
+    @Test
+    public void testMappingGroups() {
+        assertEquals(Arrays.asList(Collections.singletonList(0), Collections.singletonList(1), Arrays.asList(2, 3)),
+                engine("/parallel_mappings/mappings.x3ml").getCompiledMapping().getMappingGroups());
+        /* the second mapping generates values for the textblocks of the join of the first one */
+        assertEquals(Collections.singletonList(Arrays.asList(0, 1)),
+                engine("/parallel_domains/mappings.x3ml").getCompiledMapping().getMappingGroups());
+        /* the union of the second mapping also selects the nodes of the first one */
+        assertEquals(Collections.singletonList(Arrays.asList(0, 1, 2)),
+                engine("/parallel_mappings/union-mappings.x3ml").getCompiledMapping().getMappingGroups());
+    }
+
+    @Test
+    public void testParallelMappings() {
+        X3MLEngine engine = engine("/parallel_mappings/mappings.x3ml");
+        List<String> expected = tinyTreeOutput(engine, "/parallel_mappings");
+        engine = engine.withParallelMappings(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expected, tinyTreeOutput(engine, "/parallel_mappings"));
+        }
+        engine = engine.withParallelDomains(4);
+        assertEquals(expected, tinyTreeOutput(engine, "/parallel_mappings"));
+        assertTrue(expected.size() > 300);
+    }
+}
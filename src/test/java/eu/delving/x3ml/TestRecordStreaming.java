@@ -0,0 +1,197 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.ics.isl.x3ml.X3MLEngine;
+import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
+import static eu.delving.x3ml.AllTests.compareNTriples;
+import static eu.delving.x3ml.AllTests.document;
+import static eu.delving.x3ml.AllTests.engine;
+import static eu.delving.x3ml.AllTests.errorFree;
+import static eu.delving.x3ml.AllTests.resource;
+import static eu.delving.x3ml.AllTests.withoutUUIDs;
+import gr.forth.ics.isl.x3ml.engine.ChunkedRecordReader;
+import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.RecordReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.apache.commons.lang3.StringUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/** Checks that the mappings produce the same results when they are executed one
+ * record at a time, as they do when they are executed over the complete input.
+ */
+public class TestRecordStreaming {
+
+    @Test
+    public void testRecords() {
+        try (RecordReader reader = new RecordReader(resource("/streaming/coins.xml"), new QName("COIN"))) {
+            for (Element record = reader.next(); record != null; record = reader.next()) {
+                assertEquals("dataroot", record.getNodeName());
+                assertEquals("streaming", record.getAttribute("source"));
+                assertEquals(1, record.getElementsByTagName("COIN").getLength());
+                assertEquals(String.valueOf(reader.getRecords()), record.getElementsByTagName("ID").item(0).getTextContent());
+            }
+            assertEquals(4, reader.getRecords());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        List<String> ids = new ArrayList<>();
+        try (ChunkedRecordReader reader = new ChunkedRecordReader(file("/streaming/coins.xml"), new QName("COIN"), 3, 40)) {
+            for (Element chunk = reader.next(); chunk != null; chunk = reader.next()) {
+                assertEquals("dataroot", chunk.getNodeName());
+                assertEquals("streaming", chunk.getAttribute("source"));
+                NodeList coins = chunk.getElementsByTagName("ID");
+                for (int i = 0; i < coins.getLength(); i++) {
+                    ids.add(coins.item(i).getTextContent());
+                }
+            }
+            assertTrue(reader.getChunks() > 1);
+        }
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids);
+    }
+
+    /* the copies of the ancestors are marked in every chunk, and the records are the only content of their parent */
+    @Test
+    public void testChunkAncestors() throws Exception {
+        List<String> ids = new ArrayList<>();
+        try (ChunkedRecordReader reader = new ChunkedRecordReader(file("/streaming/group.xml"), new QName("COIN"), 2, 40)) {
+            for (Element chunk = reader.next(); chunk != null; chunk = reader.next()) {
+                Element group = (Element) chunk.getElementsByTagName("GROUP").item(0);
+                assertEquals("1", RecordReader.ancestorKey(chunk));
+                assertEquals("2", RecordReader.ancestorKey(group));
+                assertEquals("2@{}name", RecordReader.ancestorKey(group.getAttributeNode("name")));
+                assertNull(RecordReader.ancestorKey(group.getFirstChild()));
+                assertEquals(0, chunk.getElementsByTagName("NOTE").getLength());
+                for (Node record = group.getFirstChild(); record != null; record = record.getNextSibling()) {
+                    assertEquals("COIN", record.getNodeName());
+                    ids.add(((Element) record).getElementsByTagName("ID").item(0).getTextContent());
+                }
+            }
+            assertTrue(reader.getChunks() > 1);
+        }
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids);
+        String[] expected = engine("/streaming/groups.x3ml").execute(document("/streaming/group.xml"), policy(null)).toStringArray();
+        String[] actual = engine("/streaming/groups.x3ml").execute(file("/streaming/group.xml"), "COIN", 2, policy(null)).toStringArray();
+        assertEquals(withoutUUIDs(expected), withoutUUIDs(actual));
+        assertEquals(1, objects(actual, "P46i_forms_part_of").size());
+    }
+
+    /* the ancestors of the chunks are the ones of the first record, so the records must have the same parent */
+    @Test
+    public void testChunksOfDifferentParents() throws Exception {
+        try (ChunkedRecordReader reader = new ChunkedRecordReader(file("/streaming/groups.xml"), new QName("COIN"), 2, 40)) {
+            while (reader.next() != null) {
+            }
+            fail("The records of different parents were read in chunks");
+        } catch (X3MLEngine.X3MLException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("children of the same element"));
+        }
+    }
+
+    @Test
+    public void testParallelParsing() throws Exception {
+        String[] expected = engine("/streaming/coins.x3ml").execute(document("/streaming/coins.xml"), policy(null)).toStringArray();
+        String[] actual = engine("/streaming/coins.x3ml").execute(file("/streaming/coins.xml"), "COIN", 4, policy(null)).toStringArray();
+        List<String> diff = compareNTriples(expected, actual);
+        assertTrue("\nLINES:" + diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+        expected = engine("/lido07/lido07.x3ml").execute(document("/lido07/lido07.xml"), policy("/lido07/lido07-gen-policy.xml")).toStringArray();
+        actual = engine("/lido07/lido07.x3ml").execute(file("/lido07/lido07.xml"), "lido:lido", 2, policy("/lido07/lido07-gen-policy.xml")).toStringArray();
+        diff = compareNTriples(expected, actual);
+        assertTrue("\nLINES:" + diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+    }
+
+    /* the UUIDs are given in a different order, since the domains of every record are generated with the record */
+    @Test
+    public void testGlobalVariablesAcrossRecords() {
+        String[] expected = engine("/streaming/coins.x3ml").execute(document("/streaming/coins.xml"), policy(null)).toStringArray();
+        String[] actual = engine("/streaming/coins.x3ml").execute(resource("/streaming/coins.xml"), "COIN", policy(null)).toStringArray();
+        assertEquals(withoutUUIDs(expected), withoutUUIDs(actual));
+        assertEquals(1, objects(actual, "P45_consists_of").size());
+    }
+
+    /* the ancestors of the records are copied into the tree of every record, but their URIs are generated once */
+    @Test
+    public void testAncestorsAcrossRecords() {
+        String[] expected = engine("/streaming/groups.x3ml").execute(document("/streaming/groups.xml"), policy(null)).toStringArray();
+        String[] actual = engine("/streaming/groups.x3ml").execute(resource("/streaming/groups.xml"), "COIN", policy(null)).toStringArray();
+        assertEquals(withoutUUIDs(expected), withoutUUIDs(actual));
+        assertEquals(3, objects(expected, "P46i_forms_part_of").size());
+        assertEquals(3, objects(actual, "P46i_forms_part_of").size());
+        assertEquals(1, objects(actual, "P50_has_current_keeper").size());
+    }
+
+    /* the ancestors of the records of different inputs are different, even though the 
+     * readers of both inputs number their ancestors in the same way */
+    @Test
+    public void testAncestorsOfDifferentInputs() {
+        String[] actual = engine("/streaming/groups.x3ml").execute(Arrays.asList(resource("/streaming/groups.xml"), resource("/streaming/group.xml")), 
+                "COIN", policy(null)).toStringArray();
+        assertEquals(4, objects(actual, "P46i_forms_part_of").size());
+        assertEquals(2, objects(actual, "P50_has_current_keeper").size());
+    }
+
+    @Test
+    public void testNamespacedRecords() {
+        assertSameOutput("/lido07/lido07.x3ml", "/lido07/lido07.xml", "lido:lido", "/lido07/lido07-gen-policy.xml");
+        assertSameOutput("/lido07/lido07.x3ml", "/lido07/lido07.xml", "{http://www.lido-schema.org}lido", "/lido07/lido07-gen-policy.xml");
+    }
+
+    private static File file(String path) throws Exception {
+        return new File(TestRecordStreaming.class.getResource(path).toURI());
+    }
+
+    /* the distinct objects of the given property */
+    private static Set<String> objects(String[] triples, String property) {
+        Set<String> objects = new HashSet<>();
+        for (String triple : triples) {
+            if (triple.contains(property)) {
+                objects.add(triple.substring(triple.lastIndexOf('<')));
+            }
+        }
+        return objects;
+    }
+
+    private static void assertSameOutput(String mappings, String input, String recordElement, String policy) {
+        String[] expected = engine(mappings).execute(document(input), policy(policy)).toStringArray();
+        String[] actual = engine(mappings).execute(resource(input), recordElement, policy(policy)).toStringArray();
+        List<String> diff = compareNTriples(expected, actual);
+        assertTrue(mappings + "\nLINES:" + diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+        assertTrue(mappings, expected.length > 0 && expected.length == actual.length);
+    }
+
+    private static Generator policy(String path) {
+        return X3MLGeneratorPolicy.load(path == null ? null : resource(path), X3MLGeneratorPolicy.createUUIDSource(2));
+    }
+}
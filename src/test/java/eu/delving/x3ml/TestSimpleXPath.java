@@ -0,0 +1,163 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.Utils;
+import static eu.delving.x3ml.AllTests.document;
+import static eu.delving.x3ml.AllTests.resource;
+import gr.forth.ics.isl.x3ml.engine.SimpleXPath;
+import gr.forth.ics.isl.x3ml.engine.XPathInput;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.xml.namespace.NamespaceContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/** Checks that the simple paths of the mappings (e.g. name/text() or @id) give the
+ * same results when they are evaluated by walking the tree directly, as they do
+ * when they are evaluated by the XPath processor.
+ */
+public class TestSimpleXPath {
+    private static final String[][] MAPPINGS_AND_INPUTS = {
+        {"/base/base.x3ml", "/base/base.xml"},
+        {"/coin_a/02-join.x3ml", "/coin_a/00-coin-input.xml"},
+        {"/coin_a/04-appell.x3ml", "/coin_a/00-coin-input.xml"},
+        {"/coin_a/07-date.x3ml", "/coin_a/00-coin-input.xml"},
+        {"/lido07/lido07.x3ml", "/lido07/lido07.xml"},
+        {"/attributes/mappings1.x3ml", "/attributes/input.xml"},
+        {"/merge/02_real_example_mappings.x3ml", "/merge/02_real_example_input.xml"},
+        {"/xpath/mappings.x3ml", "/xpath/input.xml"},
+        {"/variables/variables-mappings.x3ml", "/variables/variables-input.xml"},
+        {"/literals/02_lang-mappings.x3ml", "/literals/02_lang-input.xml"},
+        {"/double_join/doublejoin.x3ml", "/double_join/doubleinput.xml"},
+        {"/rijks/rijks.x3ml", "/rijks/rijks.xml"},
+        {"/bm/BM20.x3ml", "/bm/BM20.xml"},
+        {"/gml/gml-1.x3ml", "/gml/gml-1-input.xml"},
+        {"/full_namespace/01-coin-simple.x3ml", "/full_namespace/00-coin-input.xml"},
+        {"/position/TestPositionInscriptionPath.x3ml", "/position/Rijks1-Inscription3.xml"}
+    };
+    private static final String[] EXTRA_EXPRESSIONS = {".", "..", "../..", "text()", "./text()", "../*", "*[1]"};
+
+    @Test
+    public void testParsing() {
+        assertNotNull(SimpleXPath.parse("name/text()", null));
+        assertNotNull(SimpleXPath.parse("@id", null));
+        assertNotNull(SimpleXPath.parse("../priref[1]/text()", null));
+        assertNotNull(SimpleXPath.parse(".", null));
+        assertNull(SimpleXPath.parse("//name", null));
+        assertNull(SimpleXPath.parse("/root/name", null));
+        assertNull(SimpleXPath.parse("name[@type='a']", null));
+        assertNull(SimpleXPath.parse("text()/name", null));
+        assertNull(SimpleXPath.parse("@id/text()", null));
+        assertNull(SimpleXPath.parse("lido:term", null));
+        assertNull(SimpleXPath.parse("ID == ID", null));
+    }
+
+    @Test
+    public void testSameResultsWithXPath() {
+        int simpleExpressions = 0;
+        for (String[] mappingAndInput : MAPPINGS_AND_INPUTS) {
+            Element mappings = document(mappingAndInput[0]);
+            NamespaceContext namespaces = namespaces(mappings);
+            Set<String> expressions = expressions(mappings);
+            Collections.addAll(expressions, EXTRA_EXPRESSIONS);
+            for (String expression : expressions) {
+                if (SimpleXPath.parse(expression, namespaces) != null) {
+                    simpleExpressions++;
+                }
+            }
+            assertSameResults(mappingAndInput, document(mappingAndInput[1]), namespaces, expressions);
+            assertSameResults(mappingAndInput, Utils.parseXMLFileAsTinyTree(resource(mappingAndInput[1])), namespaces, expressions);
+        }
+        assertTrue(simpleExpressions > 100);
+    }
+
+    private static void assertSameResults(String[] mappingAndInput, Element root, NamespaceContext namespaces, Set<String> expressions) {
+        XPathInput xpath = new XPathInput(root, namespaces, null);
+        xpath.useSimplePaths(false);
+        XPathInput direct = new XPathInput(root, namespaces, null);
+        List<Node> contexts = xpath.nodeList(root, "/ | //* | //@*");
+        for (String expression : expressions) {
+            if (SimpleXPath.parse(expression, namespaces) == null) {
+                continue;
+            }
+            String message = mappingAndInput[0] + " " + expression;
+            for (Node context : contexts) {
+                assertEquals(message, xpath.valueAt(context, expression), direct.valueAt(context, expression));
+                List<Node> expected = xpath.nodeList(context, expression);
+                List<Node> actual = direct.nodeList(context, expression);
+                assertEquals(message, expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertTrue(message, expected.get(i).isSameNode(actual.get(i)));
+                }
+            }
+        }
+        assertTrue(mappingAndInput[0], direct.getSimplePathHits() > 0);
+    }
+
+    private static Set<String> expressions(Element mappings) {
+        Set<String> expressions = new TreeSet<>();
+        for (String tag : new String[]{"source_node", "relation", "arg", "exists", "equals"}) {
+            NodeList nodes = mappings.getElementsByTagName(tag);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                String value = nodes.item(i).getTextContent().trim();
+                if (!value.isEmpty()) {
+                    expressions.add(value);
+                }
+            }
+        }
+        return expressions;
+    }
+
+    private static NamespaceContext namespaces(Element mappings) {
+        final Map<String, String> namespaces = new HashMap<>();
+        NodeList nodes = mappings.getElementsByTagName("namespace");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element namespace = (Element) nodes.item(i);
+            namespaces.put(namespace.getAttribute("prefix"), namespace.getAttribute("uri"));
+        }
+        return new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return namespaces.get(prefix);
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return null;
+            }
+
+            @Override
+            public Iterator getPrefixes(String namespaceURI) {
+                return Collections.emptyIterator();
+            }
+        };
+    }
+}
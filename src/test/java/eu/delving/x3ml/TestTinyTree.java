@@ -0,0 +1,141 @@
+/*==============================================================================
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+==============================================================================*/
+package eu.delving.x3ml;
+
+import gr.forth.Utils;
+import gr.forth.ics.isl.x3ml.X3MLEngine;
+import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
+import static eu.delving.x3ml.AllTests.compareNTriples;
+import static eu.delving.x3ml.AllTests.document;
+import static eu.delving.x3ml.AllTests.engine;
+import static eu.delving.x3ml.AllTests.errorFree;
+import static eu.delving.x3ml.AllTests.resource;
+import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.NodeIdentity;
+import gr.forth.ics.isl.x3ml.engine.TinyTreeInput;
+import gr.forth.ics.isl.x3ml.engine.XPathInput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/** Checks that the mappings produce the same results when the input is parsed
+ * into Saxon's TinyTree, as they do when the input is parsed into a DOM tree.
+ */
+public class TestTinyTree {
+
+    @Test
+    public void testBase() {
+        assertSameOutput("/base/base.x3ml", "/base/base.xml", null);
+    }
+
+    @Test
+    public void testCoinJoins() {
+        assertSameOutput("/coin_a/02-join.x3ml", "/coin_a/00-coin-input.xml", "/coin_a/00-generator-policy.xml");
+        assertSameOutput("/coin_a/06-if.x3ml", "/coin_a/00-coin-input.xml", "/coin_a/00-generator-policy.xml");
+    }
+
+    @Test
+    public void testDoubleJoin() {
+        assertSameOutput("/double_join/doublejoin.x3ml", "/double_join/doubleinput.xml", "/coin_a/00-generator-policy.xml");
+    }
+
+    @Test
+    public void testAttributesAndMerge() {
+        assertSameOutput("/attributes/mappings1.x3ml", "/attributes/input.xml", null);
+        assertSameOutput("/merge/02_real_example_mappings.x3ml", "/merge/02_real_example_input.xml", null);
+    }
+
+    @Test
+    public void testNamespacesAndVariables() {
+        assertSameOutput("/lido07/lido07.x3ml", "/lido07/lido07.xml", "/lido07/lido07-gen-policy.xml");
+        assertSameOutput("/variables/globalVariables-mappings.x3ml", "/variables/variables-input.xml", null);
+        assertSameOutput("/literals/02_lang-mappings.x3ml", "/literals/02_lang-input.xml", null);
+    }
+
+    @Test
+    public void testMultipleInputFiles() {
+        Element input = Utils.parseMultipleXMLFilesAsTinyTree(Arrays.asList(
+                resource("/multiple_input_files/input1.xml"),
+                resource("/multiple_input_files/input2.xml"),
+                resource("/multiple_input_files/input3.xml")));
+        Element domInput = Utils.parseMultipleXMLFiles(Arrays.asList(
+                resource("/multiple_input_files/input1.xml"),
+                resource("/multiple_input_files/input2.xml"),
+                resource("/multiple_input_files/input3.xml")));
+        String[] expected = engine("/multiple_input_files/mappings.x3ml").execute(domInput, policy(null)).toStringArray();
+        String[] actual = engine("/multiple_input_files/mappings.x3ml").execute(input, policy(null)).toStringArray();
+        List<String> diff = compareNTriples(expected, actual);
+        assertTrue("\nLINES:" + diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+    }
+
+    @Test
+    public void testSharedSaxonConfiguration() {
+        X3MLEngine engine = engine("/coin_a/02-join.x3ml");
+        String[] expected = engine.execute(document("/coin_a/00-coin-input.xml"), policy("/coin_a/00-generator-policy.xml")).toStringArray();
+        for (int i = 0; i < 2; i++) {
+            Element input = Utils.parseXMLFileAsTinyTree(resource("/coin_a/00-coin-input.xml"), engine.getSaxonConfiguration());
+            assertTrue(TinyTreeInput.configuration(input) == engine.getSaxonConfiguration());
+            String[] actual = engine.execute(input, policy("/coin_a/00-generator-policy.xml")).toStringArray();
+            List<String> diff = compareNTriples(expected, actual);
+            assertTrue("\nLINES:" + diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+        }
+    }
+
+    @Test
+    public void testNodeIdentity() {
+        assertDistinctIdentities(document("/lido07/lido07.xml"));
+        assertDistinctIdentities(Utils.parseXMLFileAsTinyTree(resource("/lido07/lido07.xml")));
+    }
+
+    private static void assertDistinctIdentities(Element root) {
+        XPathInput input = new XPathInput(root, null, null);
+        NodeIdentity identity = new NodeIdentity(root);
+        List<Long> ordinals = new ArrayList<>();
+        for (Node node : input.nodeList(root, "//node() | //@*")) {
+            ordinals.add(identity.of(node));
+        }
+        assertEquals(ordinals.size(), new HashSet<>(ordinals).size());
+        List<Long> again = new ArrayList<>();
+        for (Node node : input.nodeList(root, "//node() | //@*")) {
+            again.add(identity.of(node));
+        }
+        assertEquals(ordinals, again);
+    }
+
+    private static void assertSameOutput(String mappings, String input, String policy) {
+        Element tinyTreeInput = Utils.parseXMLFileAsTinyTree(resource(input));
+        assertTrue(TinyTreeInput.isTinyTree(tinyTreeInput));
+        String[] expected = engine(mappings).execute(document(input), policy(policy)).toStringArray();
+        String[] actual = engine(mappings).execute(tinyTreeInput, policy(policy)).toStringArray();
+        List<String> diff = compareNTriples(expected, actual);
+        assertTrue(mappings + "\nLINES:" + diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
+        assertTrue(mappings, expected.length > 0 && expected.length == actual.length);
+    }
+
+    private static Generator policy(String path) {
+        return X3MLGeneratorPolicy.load(path == null ? null : resource(path), X3MLGeneratorPolicy.createUUIDSource(2));
+    }
+}
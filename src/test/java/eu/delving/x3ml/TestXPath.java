@@ -18,6 +18,7 @@ under the License.
 ==============================================================================*/
 package eu.delving.x3ml;
 
+import gr.forth.Utils;
 import gr.forth.ics.isl.x3ml.X3MLEngine;
 import gr.forth.ics.isl.x3ml.X3MLGeneratorPolicy;
 import static eu.delving.x3ml.AllTests.compareNTriples;
@@ -25,14 +26,33 @@ import static eu.delving.x3ml.AllTests.document;
 import static eu.delving.x3ml.AllTests.engine;
 import static eu.delving.x3ml.AllTests.errorFree;
 import static eu.delving.x3ml.AllTests.policy;
+import static eu.delving.x3ml.AllTests.resource;
 import static eu.delving.x3ml.AllTests.xmlToNTriples;
 import gr.forth.ics.isl.x3ml.engine.Generator;
+import gr.forth.ics.isl.x3ml.engine.JoinIndexes;
+import gr.forth.ics.isl.x3ml.engine.NodeIdentity;
+import gr.forth.ics.isl.x3ml.engine.TinyTreeInput;
+import gr.forth.ics.isl.x3ml.engine.X3ML;
+import gr.forth.ics.isl.x3ml.engine.XPathExpressionCache;
+import gr.forth.ics.isl.x3ml.engine.XPathInput;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.namespace.NamespaceContext;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * @author Yannis Marketakis (marketak 'at' ics 'dot' forth 'dot' gr)
@@ -51,4 +71,212 @@ public class TestXPath {
         List<String> diff = compareNTriples(expectedResult, mappingResult);
         assertTrue("\nLINES:"+ diff.size() + "\n" + StringUtils.join(diff, "\n") + "\n", errorFree(diff));
     }   
-}
\ No newline at end of file
+
+    @Test
+    public void testCompiledExpressionsAreReused() {
+        Element root = document("/xpath/input.xml");
+        XPathInput input = new XPathInput(root, null, null);
+        input.useSimplePaths(false);
+        for(int i=0;i<3;i++){
+            assertEquals("GR", input.valueAt(root, "COIN/COUNTRY_CODE/text()"));
+            assertEquals(1, input.countNodes(root, "//COIN"));
+        }
+        assertEquals(2, input.getExpressionCache().getMisses());
+        assertEquals(4, input.getExpressionCache().getHits());
+        assertEquals(2, input.getExpressionCache().size());
+    }
+
+    /*The cache of an engine keeps a fixed number of expressions, so the expressions that are 
+    built while the mappings are applied (e.g. the positional ones of the double joins) do not 
+    make it grow with every execution*/
+    @Test
+    public void testExpressionCachesAreBounded() throws Exception {
+        Element root = document("/xpath/input.xml");
+        XPathExpressionCache cache = new XPathExpressionCache(new net.sf.saxon.xpath.XPathFactoryImpl(), 8);
+        for (int i = 1; i <= 100; i++) {
+            cache.compile("//COIN[" + i + "]/COUNTRY_CODE/text()", null);
+        }
+        assertEquals(8, cache.size());
+        cache.compile("//COIN[100]/COUNTRY_CODE/text()", null);
+        assertEquals(1, cache.getHits());
+
+        Element tinyRoot = Utils.parseXMLFileAsTinyTree(resource("/xpath/input.xml"));
+        TinyTreeInput tinyTree = new TinyTreeInput(TinyTreeInput.configuration(tinyRoot), null, 
+                                                   Collections.singleton("COIN/COUNTRY_CODE/text()"), 8);
+        for (int i = 1; i <= 100; i++) {
+            assertEquals("GR", tinyTree.valueAt(tinyRoot, "COIN[1]/COUNTRY_CODE/text()[" + i + " > 0]"));
+        }
+        assertEquals("GR", tinyTree.valueAt(tinyRoot, "COIN/COUNTRY_CODE/text()"));
+        assertEquals(9, tinyTree.size());
+        assertEquals("GR", tinyTree.valueAt(tinyRoot, "COIN/COUNTRY_CODE/text()"));
+        assertEquals(1, tinyTree.getHits());
+    }
+
+    @Test
+    public void testResultsAreReusedWithinDomainScope() {
+        Element root = document("/xpath/input.xml");
+        XPathInput input = new XPathInput(root, null, null);
+        input.beginDomainScope();
+        for(int i=0;i<3;i++){
+            assertEquals("GR", input.valueAt(root, "COIN/COUNTRY_CODE/text()"));
+            assertEquals(1, input.countNodes(root, "//COIN"));
+        }
+        assertEquals(4, input.getScopedHits());
+        input.beginDomainScope();
+        assertEquals("GR", input.valueAt(root, "COIN/COUNTRY_CODE/text()"));
+        assertEquals(4, input.getScopedHits());
+        input.endDomainScope();
+        assertEquals("GR", input.valueAt(root, "COIN/COUNTRY_CODE/text()"));
+        assertEquals(4, input.getScopedHits());
+    }
+
+    @Test
+    public void testEntireInput() {
+        Element[] inputs = {document("/xpath/input.xml"), Utils.parseXMLFileAsTinyTree(resource("/xpath/input.xml"))};
+        for (Element input : inputs) {
+            String[] output = engine("/xpath/mappingsEntireInput.x3ml").execute(input, VALUE_POLICY).toStringArray();
+            int serializations = 0;
+            for (String triple : output) {
+                if (triple.contains("<COUNTRY_CODE>GR</COUNTRY_CODE>")) {
+                    serializations++;
+                }
+            }
+            assertTrue(StringUtils.join(output, "\n"), serializations >= 1);
+        }
+    }
+
+    /*Every entireInput argument of every node gets the same serialization of the input*/
+    @Test
+    public void testEntireInputIsSerializedOnce() {
+        Element[] inputs = {document("/coin_a/00-coin-input.xml"), Utils.parseXMLFileAsTinyTree(resource("/coin_a/00-coin-input.xml"))};
+        for (Element root : inputs) {
+            XPathInput input = new XPathInput(root, null, null);
+            X3ML.LabelGeneratorElement generator = new X3ML.LabelGeneratorElement();
+            List<Node> nodes = input.nodeList(root, "/dataroot/*");
+            assertTrue(nodes.size() > 1);
+            assertEquals(0, input.getEntireInputSerializations());
+            String serialization = null;
+            for (Node node : nodes) {
+                for (int i = 0; i < 2; i++) {
+                    X3ML.ArgValue value = input.evaluateArgument(node, i, generator, "text", X3ML.SourceType.entireInput, false);
+                    if (serialization == null) {
+                        serialization = value.string;
+                        assertTrue(serialization.contains("<COIN>"));
+                    }
+                    assertSame(serialization, value.string);
+                }
+            }
+            assertEquals(1, input.getEntireInputSerializations());
+        }
+    }
+
+    @Test
+    public void testElementNameIndex() {
+        assertSameNodesWithIndex(document("/lido07/lido07.xml"));
+        assertSameNodesWithIndex(Utils.parseXMLFileAsTinyTree(resource("/lido07/lido07.xml")));
+    }
+
+    @Test
+    public void testJoinIndexesAreSharedAndReleased() {
+        Element[] inputs = {document("/coin_a/00-coin-input.xml"), Utils.parseXMLFileAsTinyTree(resource("/coin_a/00-coin-input.xml"))};
+        for (Element root : inputs) {
+            XPathInput input = new XPathInput(root, null, null);
+            JoinIndexes.Key key = new JoinIndexes.Key("//FIND_SPOT", "FS_ID/text()");
+            JoinIndexes indexes = new JoinIndexes(input, Collections.singletonMap(key, 2));
+            List<Node> found = indexes.lookup("//FIND_SPOT", "FS_ID/text()", "242");
+            assertEquals(1, found.size());
+            assertTrue(found.get(0).isSameNode(input.nodeList(root, "//FIND_SPOT[FS_ID='242']").get(0)));
+            assertEquals(0, indexes.lookup("//FIND_SPOT", "FS_ID/text()", "999").size());
+            assertEquals(1, indexes.lookup("//FIND_SPOT", "FS_ID/text()", "666").size());
+            assertEquals(1, indexes.getBuilt());
+            assertEquals(2, indexes.getLiveNodes());
+            indexes.release(Collections.singleton(key));
+            assertEquals(1, indexes.size());
+            indexes.release(Collections.singleton(key));
+            assertEquals(0, indexes.size());
+            assertEquals(0, indexes.getLiveNodes());
+            assertEquals(2, indexes.getPeakNodes());
+        }
+    }
+
+    /*The workers that process the domain nodes in parallel share the join indexes of the input, which are built once*/
+    @Test
+    public void testJoinIndexesOfConcurrentLookups() throws Exception {
+        Element root = Utils.parseXMLFileAsTinyTree(resource("/coin_a/00-coin-input.xml"));
+        final XPathInput input = new XPathInput(root, null, null);
+        final Node expected = input.nodeList(root, "//FIND_SPOT[FS_ID='242']").get(0);
+        List<Callable<Node>> lookups = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            lookups.add(new Callable<Node>() {
+                @Override
+                public Node call() {
+                    return input.rootNodeList(null, null, "242", "//FIND_SPOT", "FS_ID/text()").get(0);
+                }
+            });
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            for (Future<Node> found : threads.invokeAll(lookups)) {
+                assertTrue(found.get().isSameNode(expected));
+            }
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(1, input.getJoinIndexes().getBuilt());
+    }
+
+    /*The nodes of a DOM input get distinct identities in document order, and every node is found again by its identity*/
+    @Test
+    public void testDomNodeIdentities() {
+        Element root = document("/lido07/lido07.xml");
+        NodeIdentity identity = new NodeIdentity(root);
+        XPathInput input = new XPathInput(root, null, null);
+        long previous = -1;
+        for (Node node : input.nodeList(root, "//* | //@* | //text()")) {
+            long ordinal = identity.of(node);
+            if (node.getNodeType() != Node.ATTRIBUTE_NODE) {
+                assertTrue(ordinal > previous);
+                previous = ordinal;
+            }
+            assertEquals(ordinal, identity.of(node));
+            assertTrue(node.isSameNode(identity.node(ordinal)));
+        }
+        assertTrue(previous > 100);
+        assertEquals(-1, identity.of(root.getOwnerDocument()));
+    }
+
+    private static void assertSameNodesWithIndex(Element root) {
+        NamespaceContext namespaces = new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return "lido".equals(prefix) ? "http://www.lido-schema.org" : null;
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return null;
+            }
+
+            @Override
+            public Iterator getPrefixes(String namespaceURI) {
+                return Collections.emptyIterator();
+            }
+        };
+        XPathInput plain = new XPathInput(root, namespaces, null);
+        XPathInput indexed = new XPathInput(root, namespaces, null);
+        indexed.useElementNameIndex(true);
+        String[] expressions = {"//lido:term", ".//lido:appellationValue", "descendant::lido:nameActorSet",
+                                "descendant-or-self::lido:subject", "//term", "//lido:unknown"};
+        for (Node context : plain.nodeList(root, "//lido:subjectSet | //lido:actor | .")) {
+            for (String expression : expressions) {
+                List<Node> expected = plain.nodeList(context, expression);
+                List<Node> actual = indexed.nodeList(context, expression);
+                assertEquals(expression, expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expression, indexed.getNodeIdentity().of(expected.get(i)), indexed.getNodeIdentity().of(actual.get(i)));
+                }
+            }
+        }
+        assertTrue(indexed.getElementNameIndex().getHits() > 0);
+    }
+}